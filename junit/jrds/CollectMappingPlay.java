@@ -0,0 +1,77 @@
+package jrds;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+/**
+ * Compare the fill of a sample by datastore name and with a collect mapping.<p>
+ * The number of datastores and of fills is given by the system properties jrds.benchmark.datastores and
+ * jrds.benchmark.rounds.
+ */
+public class CollectMappingPlay {
+    static final private Logger logger = Logger.getLogger(CollectMappingPlay.class);
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.INFO);
+    }
+
+    @Test
+    public void play() throws IOException {
+        int numDs = Integer.getInteger("jrds.benchmark.datastores", 20);
+        int rounds = Integer.getInteger("jrds.benchmark.rounds", 1000000);
+        RrdDef def = new RrdDef("play", 1000000000L, 300);
+        Map<String, String> mapping = new HashMap<String, String>(numDs);
+        Map<String, Number> values = new HashMap<String, Number>(numDs);
+        for(int i = 0; i < numDs; i++) {
+            def.addDatasource("ds" + i, DsType.COUNTER, 600, Double.NaN, Double.NaN);
+            mapping.put("key" + i, "ds" + i);
+            values.put("key" + i, Long.valueOf(i * 1000));
+        }
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+        RrdDb db = new RrdDb(def, RrdBackendFactory.getFactory("MEMORY"));
+        Sample s = db.createSample(1000000300L);
+        Map<String, Double> defaults = new HashMap<String, Double>();
+        CollectMapping<String> cm = new CollectMapping<String>(mapping, def.getDsDefs(), defaults);
+
+        //Warm up both paths
+        byName(s, mapping, values, rounds / 10);
+        byIndex(s, cm, values, rounds / 10);
+        long nameTime = byName(s, mapping, values, rounds);
+        long indexTime = byIndex(s, cm, values, rounds);
+        logger.info(String.format("%d datastores, %d fills, by name: %d ns/fill, by index: %d ns/fill", numDs, rounds, nameTime / rounds, indexTime / rounds));
+        db.close();
+    }
+
+    private long byName(Sample s, Map<String, String> mapping, Map<String, Number> values, int rounds) {
+        long begin = System.nanoTime();
+        for(int r = 0; r < rounds; r++) {
+            for(Map.Entry<String, Number> e: values.entrySet()) {
+                s.setValue(mapping.get(e.getKey()), e.getValue().doubleValue());
+            }
+        }
+        return System.nanoTime() - begin;
+    }
+
+    private long byIndex(Sample s, CollectMapping<String> cm, Map<String, Number> values, int rounds) {
+        long begin = System.nanoTime();
+        for(int r = 0; r < rounds; r++) {
+            cm.fill(s, values);
+        }
+        return System.nanoTime() - begin;
+    }
+
+}
@@ -0,0 +1,89 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+/**
+ * Compare the update loop and the fetches of the store backends.<p>
+ * The number of stores and of updates is given by the system properties jrds.benchmark.files and
+ * jrds.benchmark.rounds, the backends by jrds.benchmark.backends, a comma separated list of backend names.
+ * A custom backend can be compared to the FILE backend once it's registered.
+ */
+public class StoreBenchmarkPlay {
+    static final private Logger logger = Logger.getLogger(StoreBenchmarkPlay.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.INFO);
+    }
+
+    @Test
+    public void play() throws IOException {
+        int numFiles = Integer.getInteger("jrds.benchmark.files", 2000);
+        int rounds = Integer.getInteger("jrds.benchmark.rounds", 5);
+        String[] backends = System.getProperty("jrds.benchmark.backends", "FILE,NIO").split(",");
+        long now = System.currentTimeMillis() / 1000;
+        long start = now - rounds * 300 - 300;
+        for(String backend: backends) {
+            RrdBackendFactory factory = RrdBackendFactory.getFactory(backend.trim());
+            File dir = testFolder.newFolder("stores-" + factory.getName());
+            String[] paths = new String[numFiles];
+            for(int i = 0; i < numFiles; i++) {
+                paths[i] = new File(dir, "store" + i + ".rrd").getCanonicalPath();
+                RrdDef def = new RrdDef(paths[i], start, 300);
+                def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+                def.addDatasource("ds1", DsType.COUNTER, 600, Double.NaN, Double.NaN);
+                def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 288);
+                def.addArchive(ConsolFun.AVERAGE, 0.5, 12, 168);
+                new RrdDb(def, factory).close();
+            }
+            long updateTime = run(factory, paths, start, rounds);
+            long fetchTime = fetch(factory, paths, start, start + rounds * 300);
+            logger.info(String.format("%s: %d stores, %d rounds, update: %d ms, fetch: %d ms", factory.getName(), numFiles, rounds, updateTime, fetchTime));
+        }
+    }
+
+    private long run(RrdBackendFactory factory, String[] paths, long start, int rounds) throws IOException {
+        StorePool pool = new StorePool(factory, paths.length);
+        long begin = System.currentTimeMillis();
+        for(int r = 0; r < rounds; r++) {
+            for(String path: paths) {
+                RrdDb db = pool.requestRrdDb(path);
+                Sample s = db.createSample(start + (r + 1) * 300);
+                s.setValues(r, r * 1000);
+                s.update();
+                pool.release(db);
+            }
+        }
+        pool.reset();
+        return System.currentTimeMillis() - begin;
+    }
+
+    private long fetch(RrdBackendFactory factory, String[] paths, long start, long end) throws IOException {
+        long begin = System.currentTimeMillis();
+        for(String path: paths) {
+            RrdDb db = new RrdDb(path, true, factory);
+            db.createFetchRequest(ConsolFun.AVERAGE, start, end).fetchData();
+            db.close();
+        }
+        return System.currentTimeMillis() - begin;
+    }
+
+}
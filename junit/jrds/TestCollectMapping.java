@@ -0,0 +1,101 @@
+package jrds;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+public class TestCollectMapping {
+    static final private Logger logger = Logger.getLogger(TestCollectMapping.class);
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.CollectMapping");
+    }
+
+    private RrdDb getStore(String name) throws IOException {
+        RrdDef def = new RrdDef(name, 1000000000L, 300);
+        def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("ds1", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+        def.addDatasource("ds2", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+        return new RrdDb(def, RrdBackendFactory.getFactory("MEMORY"));
+    }
+
+    private CollectMapping<String> getMapping(RrdDb db) throws IOException {
+        Map<String, String> mapping = new HashMap<String, String>();
+        mapping.put("key0", "ds0");
+        mapping.put("key1", "ds1");
+        mapping.put("key2", "ds2");
+        //Not a datastore of the store
+        mapping.put("keyx", "dsx");
+        Map<String, Double> defaults = new HashMap<String, Double>();
+        defaults.put("ds1", 1.0);
+        defaults.put("dsx", 5.0);
+        return new CollectMapping<String>(mapping, db.getRrdDef().getDsDefs(), defaults);
+    }
+
+    @Test
+    public void testFill() throws IOException {
+        RrdDb db = getStore("testFill");
+        CollectMapping<String> cm = getMapping(db);
+        Assert.assertEquals(3, cm.size());
+        Sample s = db.createSample(1000000300L);
+        Map<String, Number> values = new HashMap<String, Number>();
+        values.put("key0", 10);
+        values.put("key1", 11L);
+        values.put("key2", 12.5);
+        Assert.assertEquals(0, cm.fill(s, values));
+        Assert.assertArrayEquals(new double[] {10, 11, 12.5}, s.getValues(), 1e-9);
+        db.close();
+    }
+
+    @Test
+    public void testDefault() throws IOException {
+        RrdDb db = getStore("testDefault");
+        CollectMapping<String> cm = getMapping(db);
+        Sample s = db.createSample(1000000300L);
+        Map<String, Number> values = new HashMap<String, Number>();
+        values.put("key0", 10);
+        //The missing keys get the default value or NaN
+        Assert.assertEquals(0, cm.fill(s, values));
+        Assert.assertArrayEquals(new double[] {10, 1, Double.NaN}, s.getValues(), 1e-9);
+
+        //The previous values are not kept
+        s = db.createSample(1000000600L);
+        values.clear();
+        values.put("key2", 2);
+        cm.fill(s, values);
+        Assert.assertArrayEquals(new double[] {Double.NaN, 1, 2}, s.getValues(), 1e-9);
+        db.close();
+    }
+
+    @Test
+    public void testDropped() throws IOException {
+        RrdDb db = getStore("testDropped");
+        CollectMapping<String> cm = getMapping(db);
+        Sample s = db.createSample(1000000300L);
+        Map<String, Number> values = new HashMap<String, Number>();
+        values.put("key0", 10);
+        values.put("key1", null);
+        values.put("keyx", 3);
+        values.put("unknown", 4);
+        //A null value, a key without datastore and an unknown key
+        Assert.assertEquals(3, cm.fill(s, values));
+        Assert.assertArrayEquals(new double[] {10, 1, Double.NaN}, s.getValues(), 1e-9);
+        db.close();
+    }
+
+}
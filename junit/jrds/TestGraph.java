@@ -1,21 +1,35 @@
 package jrds;
 
+import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.net.URISyntaxException;
 
+import jrds.GraphDesc.GraphType;
 import jrds.mockobjects.GetMoke;
+import jrds.mockobjects.MokeProbe;
+import jrds.starter.HostStarter;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.Sample;
+import org.rrd4j.data.DataProcessor;
 
 public class TestGraph {
     static final Logger logger = Logger.getLogger(TestGraph.class);
     static HostsList hl;
 
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
     @BeforeClass
     static public void configure() throws IOException, URISyntaxException {
         Tools.configure();
@@ -49,4 +63,53 @@ public class TestGraph {
         Assert.assertEquals(g1, g2);
     }
 
+    @Test
+    public void resolution() {
+        GraphDesc gd = GetMoke.getGraphDesc();
+        gd.setWidth(500);
+        //A day is drawn with a point every 172 seconds, a year with a point every 17.5 hours
+        Assert.assertEquals(172, gd.getResolution(0, 86400));
+        Assert.assertEquals(63072, gd.getResolution(0, 86400 * 365));
+        //Never less than a second
+        Assert.assertEquals(1, gd.getResolution(0, 60));
+    }
+
+    @Test
+    public void fetchedDatasources() throws IOException {
+        StoreOpener.prepare("MEMORY");
+        try {
+            ProbeDesc pd = new ProbeDesc();
+            pd.setName("FetchedProbe");
+            pd.setProbeName("fetchedprobe");
+            pd.add("ds0", DsType.GAUGE);
+            MokeProbe<String, Number> p = new MokeProbe<String, Number>(pd);
+            HostInfo host = new HostInfo("FetchedHost");
+            host.setHostDir(testFolder.getRoot().getCanonicalFile());
+            p.setHost(new HostStarter(host));
+            Assert.assertTrue(p.checkStore());
+
+            //Rows are aligned on the step
+            long start = (System.currentTimeMillis() / 1000 / 300 + 1) * 300;
+            RrdDb db = StoreOpener.getRrd(p.getRrdName());
+            for(int i = 1; i <= 3; i++) {
+                Sample s = db.createSample(start + i * 300);
+                s.setValue("ds0", i);
+                s.update();
+            }
+            StoreOpener.releaseRrd(db);
+
+            GraphDesc gd = GetMoke.getGraphDesc();
+            gd.add("ds0", GraphType.LINE);
+            gd.add("alias", "ds0", null, GraphType.LINE, Color.RED, "alias", ConsolFun.AVERAGE, false, null, null, null);
+            DataProcessor dp = gd.getPlottedDatas(p, null, start + 300, start + 900);
+            dp.processData();
+            Assert.assertEquals(3, dp.getAggregate("ds0", ConsolFun.MAX), 1e-9);
+            Assert.assertArrayEquals(dp.getValues("ds0"), dp.getValues("alias"), 1e-9);
+        }
+        finally {
+            StoreOpener.prepare(null);
+        }
+    }
+
+
 }
@@ -8,6 +8,7 @@ import javax.xml.parsers.ParserConfigurationException;
 import javax.xml.transform.TransformerException;
 
 import jrds.mockobjects.MokeProbe;
+import jrds.starter.CollectStatistics;
 import jrds.starter.HostStarter;
 import jrds.starter.StarterNode;
 
@@ -117,4 +118,34 @@ public class TestProbe {
         Assert.assertEquals("Default value overwrite read value", 2, p.getLastValues().get("ds1").doubleValue(), 0.1);
     }
 
+    @Test
+    public void testSampleWriter() throws TransformerException, IOException, ParserConfigurationException {
+        ProbeDesc pd = new ProbeDesc();
+        pd.setName("empty");
+        pd.setProbeName("empty");
+        Map<String, Object> dsMap = new HashMap<String, Object>();
+        dsMap.put("dsName", "ds0");
+        dsMap.put("dsType", DsType.GAUGE);
+        pd.add(dsMap);
+
+        HostStarter host = new HostStarter(new HostInfo("DummyHost"));
+        MokeProbe<String, Long> p = new MokeProbe<String, Long>(pd);
+        host.getHost().setHostDir(testFolder.newFolder("testSampleWriter"));
+        p.setHost(host);
+        p.setParent(new StarterNode() {});
+        p.configure();
+        p.checkStore();
+
+        SampleWriter writer = new SampleWriter("test", 2, 4);
+        long sampleTime = p.getLastUpdate().getTime() / 1000 + 1;
+        Assert.assertTrue("Sample not queued", writer.write(p, sampleTime, new double[] {10}, 1000));
+        writer.stop(5000);
+        Assert.assertEquals("Sample not written", 1L, writer.getStats().get("written").longValue());
+        Assert.assertEquals("Queue not flushed", 0, writer.getQueueDepth());
+        Assert.assertEquals(1, writer.getWriteStatistics().getCount(CollectStatistics.Outcome.SUCCESS));
+        Assert.assertEquals(10, p.getLastValues().get("ds0").doubleValue(), 0.1);
+        //The last values are kept by the probe
+        Assert.assertEquals(sampleTime, p.getLastUpdate().getTime() / 1000);
+    }
+
 }
@@ -93,6 +93,17 @@ public class TestPropertiesManager {
         }
     }
 
+    @Test(expected=RuntimeException.class)
+    public void testBadStoreRoot() throws IOException {
+        PropertiesManager pm = new PropertiesManager();
+        File missing = testFolder.newFolder("missing");
+        missing.delete();
+        pm.setProperty("rrddir", testFolder.newFolder("rrddir").getPath());
+        pm.setProperty("rrddirs", missing.getPath());
+        pm.setProperty("autocreate", "false");
+        pm.update();
+    }
+
     @Test
     public void testSecurity() {
         PropertiesManager pm = new PropertiesManager();
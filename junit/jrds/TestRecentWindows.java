@@ -0,0 +1,98 @@
+package jrds;
+
+import java.io.IOException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+public class TestRecentWindows {
+    static final private Logger logger = Logger.getLogger(TestRecentWindows.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.RecentWindows");
+    }
+
+    private RrdDb getStore(String name) throws IOException {
+        String path = testFolder.newFile(name).getCanonicalPath();
+        RrdDef def = new RrdDef(path, 1000000000L, 300);
+        def.addDatasource("ds0", DsType.COUNTER, 600, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 100);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 12, 100);
+        return new RrdDb(def, RrdBackendFactory.getFactory("FILE"));
+    }
+
+    private double[] update(RrdDb db, long time, double value) throws IOException {
+        Sample s = db.createSample(time);
+        s.setValue("ds0", value);
+        double[] values = s.getValues().clone();
+        s.update();
+        return values;
+    }
+
+    @Test
+    public void testFetch() throws IOException {
+        RrdDb db = getStore("recent.rrd");
+        String path = db.getPath();
+        RecentWindows windows = new RecentWindows(3600, 1024 * 1024);
+        long time = 1000000000L;
+        for(int i = 1; i <= 6; i++) {
+            time += 300;
+            update(db, time, i * 3000);
+        }
+        //Created from the history of the store
+        time += 300;
+        windows.store(path, db, time, update(db, time, 7 * 3000));
+        for(int i = 8; i <= 10; i++) {
+            time += 300;
+            windows.store(path, db, time, update(db, time, i * 3000 + i));
+        }
+
+        long start = time - 2400;
+        FetchData fromStore = db.createFetchRequest(ConsolFun.AVERAGE, start, time, 1).fetchData();
+        FetchData fromWindow = windows.fetch(path, ConsolFun.AVERAGE, start, time, 1);
+        Assert.assertNotNull(fromWindow);
+        Assert.assertArrayEquals(fromStore.getTimestamps(), fromWindow.getTimestamps());
+        Assert.assertArrayEquals(fromStore.getValues("ds0"), fromWindow.getValues("ds0"), 1e-9);
+
+        //Too long or too coarse, it's read from the store
+        Assert.assertNull(windows.fetch(path, ConsolFun.AVERAGE, time - 7200, time, 1));
+        Assert.assertNull(windows.fetch(path, ConsolFun.AVERAGE, start, time, 3600));
+        Assert.assertNull(windows.fetch(path, ConsolFun.MAX, start, time, 1));
+        Assert.assertEquals(Long.valueOf(1), windows.getStats().get("hits"));
+        db.close();
+    }
+
+    @Test
+    public void testBudget() throws IOException {
+        RrdDb db = getStore("budget.rrd");
+        RecentWindows windows = new RecentWindows(3600, 16);
+        long time = db.getLastUpdateTime() + 300;
+        windows.store(db.getPath(), db, time, update(db, time, 1));
+        Assert.assertEquals(Long.valueOf(0), windows.getStats().get("windows"));
+        Assert.assertNull(windows.fetch(db.getPath(), ConsolFun.AVERAGE, time - 600, time, 1));
+        //Refused again without trying
+        time += 300;
+        windows.store(db.getPath(), db, time, update(db, time, 2));
+        Assert.assertEquals(Long.valueOf(0), windows.getStats().get("windows"));
+        Assert.assertEquals(Long.valueOf(2), windows.getStats().get("noRoom"));
+        db.close();
+    }
+
+}
@@ -0,0 +1,149 @@
+package jrds;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jrds.mockobjects.GetMoke;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TestRenderer {
+    static final private Logger logger = Logger.getLogger(TestRenderer.class);
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.Renderer");
+    }
+
+    private Graph getGraph(GraphNode gn, final AtomicInteger renders, double max) {
+        Graph g = new Graph(gn) {
+            @Override
+            public byte[] getPngBytes() throws IOException {
+                renders.incrementAndGet();
+                return new byte[1000];
+            }
+        };
+        g.setPeriod(new Period());
+        g.setMax(max);
+        return g;
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        GraphNode gn = new GraphNode(GetMoke.getProbe(), GetMoke.getGraphDesc());
+        AtomicInteger renders = new AtomicInteger(0);
+        Renderer r = new Renderer(1024 * 1024);
+        Graph g1 = getGraph(gn, renders, 1);
+        Assert.assertTrue(r.isReady(g1));
+        //Same identity, rendered once
+        Assert.assertEquals(1000, r.getPng(getGraph(gn, renders, 1)).length);
+        Assert.assertEquals(1, renders.get());
+        Assert.assertSame(g1, r.getGraph(g1.hashCode()));
+        //Another limit, another image
+        Assert.assertTrue(r.isReady(getGraph(gn, renders, 2)));
+        Assert.assertEquals(2, renders.get());
+        Assert.assertEquals(Long.valueOf(1), r.getStats().get("hits"));
+        Assert.assertEquals(Long.valueOf(2), r.getStats().get("misses"));
+        r.finish();
+    }
+
+    @Test
+    public void testEviction() throws IOException {
+        GraphNode gn = new GraphNode(GetMoke.getProbe(), GetMoke.getGraphDesc());
+        AtomicInteger renders = new AtomicInteger(0);
+        Renderer r = new Renderer(3 * 1600);
+        for(int i = 0; i < 5; i++) {
+            Assert.assertTrue(r.isReady(getGraph(gn, renders, i)));
+        }
+        Assert.assertEquals(Long.valueOf(2), r.getStats().get("evictions"));
+        Assert.assertTrue(r.getStats().get("bytes") <= 3 * 1600);
+        //The oldest was removed, it's rendered again
+        Assert.assertNotNull(r.getPng(getGraph(gn, renders, 0)));
+        Assert.assertEquals(6, renders.get());
+        r.finish();
+    }
+
+    @Test
+    public void testFailure() throws IOException {
+        GraphNode gn = new GraphNode(GetMoke.getProbe(), GetMoke.getGraphDesc());
+        final AtomicInteger renders = new AtomicInteger(0);
+        Graph g = new Graph(gn) {
+            @Override
+            public byte[] getPngBytes() throws IOException {
+                if(renders.incrementAndGet() == 1)
+                    throw new IOException("render failed");
+                return new byte[1000];
+            }
+        };
+        g.setPeriod(new Period());
+        Renderer r = new Renderer(1024 * 1024);
+        Assert.assertNull(r.getPng(g));
+        Assert.assertEquals(Long.valueOf(1), r.getStats().get("failures"));
+        Assert.assertEquals(Long.valueOf(0), r.getStats().get("entries"));
+        //The failed render was not kept, it's tried again
+        Assert.assertNotNull(r.getPng(g));
+        Assert.assertEquals(2, renders.get());
+        Assert.assertEquals(Long.valueOf(0), r.getStats().get("hits"));
+        r.finish();
+    }
+
+    @Test
+    public void testCoalesce() throws Exception {
+        GraphNode gn = new GraphNode(GetMoke.getProbe(), GetMoke.getGraphDesc());
+        final AtomicInteger renders = new AtomicInteger(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Graph g = new Graph(gn) {
+            @Override
+            public byte[] getPngBytes() throws IOException {
+                renders.incrementAndGet();
+                try {
+                    release.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                }
+                return new byte[1000];
+            }
+        };
+        g.setPeriod(new Period());
+        final Renderer r = new Renderer(1024 * 1024);
+        final AtomicInteger served = new AtomicInteger(0);
+        List<Thread> requests = new ArrayList<Thread>();
+        for(int i = 0; i < 10; i++) {
+            Thread t = new Thread() {
+                @Override
+                public void run() {
+                    if(r.getPng(g, false) != null)
+                        served.incrementAndGet();
+                }
+            };
+            t.start();
+            requests.add(t);
+        }
+        //Wait for all the requests to be waiting for the render
+        long deadline = System.currentTimeMillis() + 10000;
+        while(r.getStats().get("coalesced") < 9 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for(Thread t: requests) {
+            t.join(10000);
+        }
+        Assert.assertEquals(10, served.get());
+        Assert.assertEquals(1, renders.get());
+        Assert.assertEquals(Long.valueOf(9), r.getStats().get("coalesced"));
+
+        //Not reused once it's done
+        Assert.assertNotNull(r.getPng(g, false));
+        Assert.assertEquals(2, renders.get());
+        r.finish();
+    }
+
+}
@@ -0,0 +1,79 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+
+public class TestStoreChecker {
+    static final private Logger logger = Logger.getLogger(TestStoreChecker.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.StoreChecker");
+    }
+
+    private RrdDef getDef(String path, long heartbeat) {
+        RrdDef def = new RrdDef(path, 300);
+        def.addDatasource("ds0", DsType.GAUGE, heartbeat, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+        return def;
+    }
+
+    @Test
+    public void testFingerprint() throws IOException {
+        RrdDef def1 = getDef("/tmp/store1.rrd", 600);
+        RrdDef def2 = getDef("/tmp/store2.rrd", 600);
+        def2.setStartTime(def1.getStartTime() + 3600);
+        //The path and the start time are not part of the definition
+        Assert.assertEquals(StoreChecker.fingerprint(def1), StoreChecker.fingerprint(def2));
+        Assert.assertFalse(StoreChecker.fingerprint(def1).equals(StoreChecker.fingerprint(getDef("/tmp/store1.rrd", 900))));
+    }
+
+    @Test
+    public void testCopy() throws IOException {
+        StoreChecker checker = new StoreChecker("test", 1, testFolder.newFolder("templates"));
+        File dir = testFolder.newFolder("stores");
+        RrdDef def = getDef(new File(dir, "store1.rrd").getCanonicalPath(), 600);
+        String fingerprint = StoreChecker.fingerprint(def);
+        Assert.assertTrue(checker.copyTemplate(def, fingerprint));
+        File rrdFile = new File(def.getPath());
+        Assert.assertTrue(rrdFile.isFile());
+        RrdDb db = new RrdDb(rrdFile.getCanonicalPath());
+        Assert.assertEquals(fingerprint, StoreChecker.fingerprint(db.getRrdDef()));
+        db.close();
+
+        Assert.assertFalse(checker.isUnchanged(rrdFile, fingerprint));
+        checker.saveFingerprint(rrdFile, fingerprint);
+        Assert.assertTrue(checker.isUnchanged(rrdFile, fingerprint));
+        Assert.assertFalse(checker.isUnchanged(rrdFile, StoreChecker.fingerprint(getDef(def.getPath(), 900))));
+        Assert.assertEquals(Long.valueOf(1), checker.getStats().get("copied"));
+        Assert.assertEquals(Long.valueOf(1), checker.getStats().get("fingerprintHits"));
+        checker.stop();
+    }
+
+    @Test
+    public void testCopyNewDir() throws IOException {
+        StoreChecker checker = new StoreChecker("test", 1, testFolder.newFolder("templates"));
+        File dir = new File(testFolder.getRoot(), "newhost");
+        RrdDef def = getDef(new File(dir, "store1.rrd").getCanonicalPath(), 600);
+        Assert.assertTrue(checker.copyTemplate(def, StoreChecker.fingerprint(def)));
+        Assert.assertTrue(new File(def.getPath()).isFile());
+        checker.stop();
+    }
+
+}
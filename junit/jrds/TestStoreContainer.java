@@ -0,0 +1,146 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Collections;
+import java.util.Map;
+
+import jrds.mockobjects.GetMoke;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+public class TestStoreContainer {
+    static final private Logger logger = Logger.getLogger(TestStoreContainer.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.StoreContainer", "jrds.StoreContainerBackendFactory");
+    }
+
+    private RrdDef getDef(final File rrdFile) {
+        Probe<?,?> p = new Probe<String, Number>() {
+            @Override
+            public String getRrdName() {
+                return rrdFile.getPath();
+            }
+            @Override
+            public Map<String, Number> getNewSampleValues() {
+                return Collections.emptyMap();
+            }
+            @Override
+            public String getSourceType() {
+                return "test";
+            }
+        };
+        p.setPd(GetMoke.getPd());
+        p.setStep(300);
+        return p.getRrdDef();
+    }
+
+    @Test
+    public void testContainer() throws IOException {
+        File file = new File(testFolder.getRoot(), "test.jrdc");
+        StoreContainer container = new StoreContainer(file);
+        container.allocate("a", 16);
+        container.allocate("b", 8);
+        container.write("a", 4, new byte[] {1, 2, 3});
+        //Not written until the commit
+        Assert.assertTrue(container.isDirty());
+        Assert.assertEquals(1, container.commit());
+        Assert.assertTrue(container.remove("b"));
+        container.close();
+
+        container = new StoreContainer(file);
+        Assert.assertTrue(container.contains("a"));
+        Assert.assertFalse(container.contains("b"));
+        byte[] read = new byte[3];
+        container.read("a", 4, read);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3}, read);
+        container.close();
+
+        //A store was being added
+        long size = file.length();
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(size + 5);
+        raf.close();
+        container = new StoreContainer(file);
+        Assert.assertEquals(size, file.length());
+        Assert.assertTrue(container.contains("a"));
+        container.close();
+    }
+
+    @Test
+    public void testPending() throws IOException {
+        File file = new File(testFolder.getRoot(), "pending.jrdc");
+        StoreContainer container = new StoreContainer(file);
+        container.allocate("a", 4);
+        container.write("a", 0, new byte[] {1, 2, 3, 4});
+        container.commit();
+        //Replaced, but not committed
+        container.allocate("a", 8);
+        container.write("a", 0, new byte[] {5, 6, 7, 8, 9});
+
+        //As found after a crash, the old store is still there
+        StoreContainer crashed = new StoreContainer(file);
+        Assert.assertEquals(4, crashed.getLength("a"));
+        byte[] read = new byte[4];
+        crashed.read("a", 0, read);
+        Assert.assertArrayEquals(new byte[] {1, 2, 3, 4}, read);
+        crashed.close();
+
+        container.commit();
+        crashed = new StoreContainer(file);
+        Assert.assertEquals(8, crashed.getLength("a"));
+        read = new byte[5];
+        crashed.read("a", 0, read);
+        Assert.assertArrayEquals(new byte[] {5, 6, 7, 8, 9}, read);
+        crashed.close();
+        container.close();
+    }
+
+    @Test
+    public void testBackend() throws IOException {
+        StoreContainerBackendFactory factory = new StoreContainerBackendFactory();
+        File hostDir = testFolder.newFolder("host");
+        long time = 0;
+        for(int i = 0; i < 3; i++) {
+            File rrdFile = new File(hostDir, "store" + i + ".rrd");
+            RrdDb db = new RrdDb(getDef(rrdFile), factory);
+            time = db.getLastUpdateTime() + 300;
+            Sample s = db.createSample(time);
+            s.setValue("MokeDs", i);
+            s.update();
+            db.close();
+        }
+        //One file for all the stores
+        Assert.assertArrayEquals(new String[] {StoreContainerBackendFactory.CONTAINERNAME}, hostDir.list());
+        Assert.assertEquals(3, factory.commit());
+        factory.rename(new File(hostDir, "store2.rrd").getPath(), new File(hostDir, "renamed.rrd").getPath());
+        factory.close();
+
+        factory = new StoreContainerBackendFactory();
+        Assert.assertTrue(factory.contains(new File(hostDir, "store1.rrd").getPath()));
+        Assert.assertFalse(factory.contains(new File(hostDir, "store2.rrd").getPath()));
+        RrdDb db = new RrdDb(new File(hostDir, "renamed.rrd").getPath(), true, factory);
+        Assert.assertEquals(time, db.getLastUpdateTime());
+        Assert.assertEquals(2, db.getDatasource("MokeDs").getLastValue(), 1e-6);
+        db.close();
+        Assert.assertEquals(Long.valueOf(3), factory.getStats().get("stores"));
+        factory.close();
+    }
+
+}
@@ -1,15 +1,29 @@
 package jrds;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
+import org.junit.Assert;
 import org.junit.BeforeClass;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.DsType;
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
 
 public class TestStoreOpener {
     static final private Logger logger = Logger.getLogger(TestStoreOpener.class);
 
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
     @BeforeClass
     static public void configure() throws IOException {
         Tools.configure();
@@ -33,4 +47,147 @@ public class TestStoreOpener {
         StoreOpener.prepare("MEMORY", 1);
     }
 
+    @Test
+    public void testPool() throws IOException {
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("FILE");
+        String[] paths = new String[2];
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = testFolder.newFile("pool" + i + ".rrd").getCanonicalPath();
+            RrdDef def = new RrdDef(paths[i], 300);
+            def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+            def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+            new RrdDb(def, factory).close();
+        }
+        StorePool pool = new StorePool(factory, 1);
+        RrdDb db1 = pool.requestRrdDb(paths[0]);
+        Assert.assertSame(db1, pool.requestRrdDb(paths[0]));
+        Assert.assertEquals(2, pool.getOpenCount(paths[0]));
+        pool.release(db1);
+        pool.release(db1);
+        Assert.assertEquals(0, pool.getOpenCount(paths[0]));
+        //The idle store is kept opened until another one is needed
+        Assert.assertEquals(1, pool.getOpenFileCount());
+        RrdDb db2 = pool.requestRrdDb(paths[1]);
+        Assert.assertEquals(1, pool.getOpenFileCount());
+        Assert.assertEquals(1L, pool.getStats().get("evictions").longValue());
+        pool.release(db2);
+        Assert.assertEquals(2L, pool.getFileStats(paths[0]).getRequests());
+        Assert.assertEquals(1L, pool.getFileStats(paths[1]).getOpens());
+        pool.reset();
+        Assert.assertEquals(0, pool.getOpenFileCount());
+    }
+
+    @Test
+    public void testPoolFailedOpen() throws IOException {
+        StorePool pool = new StorePool(RrdBackendFactory.getFactory("FILE"), 2);
+        pool.maxFilesStats = 4;
+        for(int i = 0; i < 5; i++) {
+            String path = new File(testFolder.getRoot(), "missing" + i + ".rrd").getCanonicalPath();
+            try {
+                pool.release(pool.requestRrdDb(path));
+                Assert.fail("A missing store was opened");
+            } catch (IOException e) {
+            }
+        }
+        //The slots of the failed opens are given back
+        Assert.assertEquals(0, pool.getOpenFileCount());
+        Assert.assertEquals(0, pool.getOpenFiles().length);
+        Assert.assertTrue("Files counters not bounded", pool.getFilesStats().size() <= 4);
+    }
+
+    @Test
+    public void testPoolBlock() throws Exception {
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("FILE");
+        final String path = testFolder.newFile("block.rrd").getCanonicalPath();
+        RrdDef def = new RrdDef(path, 300);
+        def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+        new RrdDb(def, factory).close();
+        final StorePool pool = new StorePool(factory, 2);
+        RrdDb db = pool.requestRrdDb(path);
+        //Still in use
+        Assert.assertFalse(pool.block(path, 10));
+        pool.release(db);
+        Assert.assertTrue(pool.block(path, 10));
+        Assert.assertEquals(0, pool.getOpenFileCount());
+
+        final AtomicReference<RrdDb> requested = new AtomicReference<RrdDb>();
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    requested.set(pool.requestRrdDb(path));
+                } catch (IOException e) {
+                }
+            }
+        };
+        t.start();
+        t.join(300);
+        //Waiting for the store to be unblocked
+        Assert.assertTrue(t.isAlive());
+        Assert.assertNull(requested.get());
+        pool.unblock(path);
+        t.join(5000);
+        Assert.assertNotNull(requested.get());
+        pool.release(requested.get());
+        pool.reset();
+    }
+
+    @Test
+    public void testPoolBytes() throws IOException {
+        RrdBackendFactory factory = RrdBackendFactory.getFactory("NIO");
+        String[] paths = new String[2];
+        for(int i = 0; i < paths.length; i++) {
+            paths[i] = testFolder.newFile("mapped" + i + ".rrd").getCanonicalPath();
+            RrdDef def = new RrdDef(paths[i], 300);
+            def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+            def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+            new RrdDb(def, factory).close();
+        }
+        StorePool pool = new StorePool(factory, 10);
+        pool.setMaxBytes(new File(paths[0]).length());
+        pool.release(pool.requestRrdDb(paths[0]));
+        pool.release(pool.requestRrdDb(paths[1]));
+        //Only one file fits in the mapped size
+        Assert.assertEquals(1, pool.getOpenFileCount());
+        Assert.assertEquals(0, pool.getOpenCount(paths[0]));
+        Assert.assertEquals(new File(paths[1]).length(), pool.getOpenBytes());
+        pool.reset();
+    }
+
+    @Test
+    public void testFetchCache() throws IOException {
+        String path = testFolder.newFile("fetch.rrd").getCanonicalPath();
+        RrdDef def = new RrdDef(path, 300);
+        def.addDatasource("ds0", DsType.GAUGE, 600, Double.NaN, Double.NaN);
+        def.addArchive(ConsolFun.AVERAGE, 0.5, 1, 10);
+        RrdDb db = new RrdDb(def, RrdBackendFactory.getFactory("FILE"));
+        long end = db.getLastUpdateTime();
+        FetchData fd = db.createFetchRequest(ConsolFun.AVERAGE, end - 3000, end).fetchData();
+        db.close();
+
+        FetchCache cache = new FetchCache(1024 * 1024);
+        Assert.assertNull(cache.get(path, ConsolFun.AVERAGE, end - 3000, end, 1));
+        cache.put(path, ConsolFun.AVERAGE, end - 3000, end, 1, fd, cache.getVersion(path));
+        Assert.assertSame(fd, cache.get(path, ConsolFun.AVERAGE, end - 3000, end, 1));
+        Assert.assertNull(cache.get(path, ConsolFun.MAX, end - 3000, end, 1));
+
+        //A fetch done while the store was written is not kept
+        long version = cache.getVersion(path);
+        cache.invalidate(path);
+        Assert.assertNull(cache.get(path, ConsolFun.AVERAGE, end - 3000, end, 1));
+        cache.put(path, ConsolFun.AVERAGE, end - 3000, end, 1, fd, version);
+        Assert.assertNull(cache.get(path, ConsolFun.AVERAGE, end - 3000, end, 1));
+        Assert.assertEquals(Long.valueOf(1), cache.getStats().get("invalidations"));
+
+        //Nothing is kept for the stores without data
+        Assert.assertEquals(Long.valueOf(0), cache.getStats().get("stores"));
+        cache.invalidate(path + ".other");
+        Assert.assertEquals(Long.valueOf(0), cache.getStats().get("stores"));
+        cache.put(path, ConsolFun.AVERAGE, end - 3000, end, 1, fd, cache.getVersion(path));
+        Assert.assertEquals(Long.valueOf(1), cache.getStats().get("stores"));
+        cache.invalidate(path);
+        Assert.assertEquals(Long.valueOf(0), cache.getStats().get("stores"));
+    }
+
 }
@@ -0,0 +1,95 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import jrds.standalone.Rebalancer;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class TestStorePlacement {
+    static final private Logger logger = Logger.getLogger(TestStorePlacement.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.standalone.Rebalancer");
+    }
+
+    @Test
+    public void singleRoot() {
+        File root = new File("/var/lib/jrds");
+        StorePlacement placement = new StorePlacement(Arrays.asList(root));
+        Assert.assertEquals(new File(root, "host"), placement.getHostDir("host"));
+    }
+
+    @Test
+    public void addRoot() {
+        File root1 = new File("/disk1");
+        File root2 = new File("/disk2");
+        File root3 = new File("/disk3");
+        StorePlacement before = new StorePlacement(Arrays.asList(root1, root2));
+        StorePlacement after = new StorePlacement(Arrays.asList(root1, root2, root3));
+        int moved = 0;
+        int[] used = new int[2];
+        for(int i = 0; i < 1000; i++) {
+            String host = "host" + i;
+            File rootBefore = before.getRoot(host);
+            File rootAfter = after.getRoot(host);
+            used[rootBefore.equals(root1) ? 0 : 1]++;
+            if(! rootBefore.equals(rootAfter)) {
+                //Only the new root receive hosts
+                Assert.assertEquals(root3, rootAfter);
+                moved++;
+            }
+        }
+        Assert.assertTrue("moved " + moved, moved > 100 && moved < 600);
+        Assert.assertTrue(used[0] > 250 && used[1] > 250);
+    }
+
+    @Test
+    public void fanout() {
+        File hostDir = new File("/var/lib/jrds/host");
+        Assert.assertEquals(new File(hostDir, "store.rrd"), StorePlacement.getStoreFile(hostDir, "store.rrd", 0));
+        File f = StorePlacement.getStoreFile(hostDir, "store.rrd", 16);
+        Assert.assertEquals(hostDir, f.getParentFile().getParentFile());
+        Assert.assertTrue(f.getParentFile().getName().matches("[0-9a-f]{2}"));
+        Assert.assertEquals(f, StorePlacement.getStoreFile(hostDir, "store.rrd", 16));
+    }
+
+    @Test
+    public void rebalance() throws IOException {
+        File root1 = testFolder.newFolder("root1");
+        File root2 = testFolder.newFolder("root2");
+        List<File> stores = new ArrayList<File>();
+        for(int i = 0; i < 20; i++) {
+            File hostDir = new File(root1, "host" + i);
+            hostDir.mkdir();
+            File store = new File(hostDir, "store.rrd");
+            store.createNewFile();
+            stores.add(store);
+        }
+        StorePlacement placement = new StorePlacement(Arrays.asList(root1, root2));
+        Rebalancer r = new Rebalancer(placement, 4);
+        r.rebalance();
+        Assert.assertEquals(20, r.getMoved());
+        Assert.assertEquals(0, r.getFailed());
+        for(int i = 0; i < 20; i++) {
+            String host = "host" + i;
+            Assert.assertTrue(StorePlacement.getStoreFile(placement.getHostDir(host), "store.rrd", 4).isFile());
+        }
+    }
+
+}
@@ -0,0 +1,138 @@
+package jrds;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+
+import jrds.mockobjects.GetMoke;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.rrd4j.DsType;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+public class TestStoreUpgrader {
+    static final private Logger logger = Logger.getLogger(TestStoreUpgrader.class);
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @BeforeClass
+    static public void configure() throws IOException {
+        Tools.configure();
+        Tools.setLevel(logger, Level.TRACE, "jrds.StoreUpgrader");
+    }
+
+    private Probe<?,?> getProbe(final File rrdFile, ProbeDesc pd) {
+        Probe<?,?> p = new Probe<String, Number>() {
+            @Override
+            public String getRrdName() {
+                return rrdFile.getPath();
+            }
+            @Override
+            public Map<String, Number> getNewSampleValues() {
+                return Collections.emptyMap();
+            }
+            @Override
+            public String getSourceType() {
+                return "test";
+            }
+        };
+        p.setPd(pd);
+        p.setStep(300);
+        return p;
+    }
+
+    @Test
+    public void testUpgrade() throws IOException {
+        File rrdFile = new File(testFolder.getRoot(), "upgrade.rrd");
+        ProbeDesc pd = GetMoke.getPd();
+        RrdDef def = getProbe(rrdFile, pd).getRrdDef();
+        RrdDb db = new RrdDb(def);
+        long time = db.getLastUpdateTime() + 300;
+        Sample s = db.createSample(time);
+        s.setValue("MokeDs", 1);
+        s.update();
+        db.close();
+
+        //A datasource is added
+        pd.add("MokeDs2", DsType.GAUGE);
+        Probe<?,?> p = getProbe(rrdFile, pd);
+        File journal = new File(testFolder.getRoot(), "upgrade.journal");
+        StoreUpgrader upgrader = new StoreUpgrader(0, journal);
+        Assert.assertTrue(upgrader.upgrade(p));
+        upgrader.close();
+
+        db = new RrdDb(rrdFile.getCanonicalPath());
+        Assert.assertEquals(2, db.getDsCount());
+        Assert.assertEquals(time, db.getLastUpdateTime());
+        db.close();
+        Assert.assertEquals(Long.valueOf(1), upgrader.getStats().get("upgraded"));
+        Assert.assertTrue(journal.length() > 0);
+    }
+
+    @Test
+    public void testRecover() throws IOException {
+        File journal = new File(testFolder.getRoot(), "recover.journal");
+        File tmp = testFolder.newFile("JRDS_1.tmp");
+        //An upgrade was interrupted
+        FileWriter w = new FileWriter(journal);
+        w.write("start " + tmp.getPath() + " " + new File(testFolder.getRoot(), "store.rrd").getPath() + "\n");
+        w.close();
+        StoreUpgrader upgrader = new StoreUpgrader(0, journal);
+        upgrader.close();
+        Assert.assertFalse(tmp.exists());
+        Assert.assertEquals(Long.valueOf(1), upgrader.getStats().get("cleaned"));
+    }
+
+    @Test
+    public void testMigrate() throws IOException {
+        File rrdFile = new File(testFolder.getRoot(), "migrate.rrd");
+        RrdDef def = getProbe(rrdFile, GetMoke.getPd()).getRrdDef();
+        RrdDb db = new RrdDb(def, RrdBackendFactory.getFactory("FILE"));
+        long time = db.getLastUpdateTime() + 300;
+        Sample s = db.createSample(time);
+        s.setValue("MokeDs", 1);
+        s.update();
+        db.close();
+
+        StoreUpgrader upgrader = new StoreUpgrader(0, null);
+        Assert.assertTrue(upgrader.migrate(rrdFile, RrdBackendFactory.getFactory("FILE"), RrdBackendFactory.getFactory("NIO")));
+        db = new RrdDb(rrdFile.getCanonicalPath(), true, RrdBackendFactory.getFactory("NIO"));
+        Assert.assertEquals(time, db.getLastUpdateTime());
+        db.close();
+    }
+
+    @Test
+    public void testMigrateResume() throws IOException {
+        File rrdFile = new File(testFolder.getRoot(), "resume.rrd");
+        RrdDef def = getProbe(rrdFile, GetMoke.getPd()).getRrdDef();
+        new RrdDb(def, RrdBackendFactory.getFactory("FILE")).close();
+        File journal = new File(testFolder.getRoot(), "upgrade.journal");
+
+        StoreUpgrader upgrader = new StoreUpgrader(0, journal);
+        Assert.assertTrue(upgrader.migrate(rrdFile, RrdBackendFactory.getFactory("FILE"), RrdBackendFactory.getFactory("NIO")));
+        upgrader.close();
+
+        //Started again, the converted store is skipped
+        upgrader = new StoreUpgrader(0, journal);
+        Assert.assertTrue(upgrader.migrate(rrdFile, RrdBackendFactory.getFactory("FILE"), RrdBackendFactory.getFactory("NIO")));
+        Assert.assertEquals(Long.valueOf(1), upgrader.getStats().get("skipped"));
+        Assert.assertEquals(Long.valueOf(0), upgrader.getStats().get("upgraded"));
+        //Not for another backend
+        Assert.assertTrue(upgrader.migrate(rrdFile, RrdBackendFactory.getFactory("NIO"), RrdBackendFactory.getFactory("FILE")));
+        Assert.assertEquals(Long.valueOf(1), upgrader.getStats().get("upgraded"));
+        upgrader.close();
+    }
+
+}
@@ -192,6 +192,17 @@ public class UtilTest {
         Assert.assertEquals("%string", parsed);
     }
 
+    @Test
+    public void testParseTemplate5() {
+        Map<String, String> values = new HashMap<String, String>();
+        values.put("name", "100%s");
+        Template t = Template.compile("${name} ${name} ${missing} 50%");
+        Assert.assertSame(t, Template.compile("${name} ${name} ${missing} 50%"));
+        Assert.assertEquals("100%s 100%s null 50%", t.evaluate(values));
+        values.put("missing", "found");
+        Assert.assertEquals("100%s 100%s found 50%", Util.parseTemplate("${name} ${name} ${missing} 50%", null, values));
+    }
+
     @Test
     public void testNormalization1() {
         Probe<?,?> p = new jrds.mockobjects.DummyProbe() {
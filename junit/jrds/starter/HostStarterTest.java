@@ -0,0 +1,141 @@
+package jrds.starter;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jrds.HostInfo;
+import jrds.Probe;
+import jrds.PropertiesManager;
+import jrds.Tools;
+import jrds.mockobjects.MokeProbe;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class HostStarterTest {
+    static Logger logger = Logger.getLogger(HostStarterTest.class);
+
+    @Rule
+    public final TemporaryFolder testFolder = new TemporaryFolder();
+
+    private final AtomicInteger running = new AtomicInteger(0);
+    private final AtomicInteger maxRunning = new AtomicInteger(0);
+    private final AtomicInteger collected = new AtomicInteger(0);
+
+    @BeforeClass
+    static public void configure() throws Exception {
+        Tools.configure();
+
+        logger.setLevel(Level.TRACE);
+        Tools.setLevel(new String[] {StarterNode.class.toString(), HostStarter.class.toString()}, logger.getLevel());
+    }
+
+    private HostStarter makeHost(int parallelism, int probes) throws IOException {
+        return makeHost(parallelism, probes, 300, 50);
+    }
+
+    private HostStarter makeHost(int parallelism, int probes, int step, final long duration) throws IOException {
+        PropertiesManager pm = Tools.makePm(testFolder, "timeout=1", "step=300");
+        final CollectorExecutor helpers = new CollectorExecutor("test/probes", 3, 3);
+        Timer t = new Timer(Timer.DEFAULTNAME, pm.timers.get(Timer.DEFAULTNAME)) {
+            @Override
+            public CollectorExecutor getProbesExecutor() {
+                return helpers;
+            }
+        };
+        t.startCollect();
+        HostStarter host = new HostStarter(new HostInfo("localhost"));
+        host.setParent(t);
+        host.setParallelism(parallelism);
+        for(int i = 0; i < probes; i++) {
+            MokeProbe<String, Number> p = new MokeProbe<String, Number>("probe" + i) {
+                @Override
+                public void collect() {
+                    int now = running.incrementAndGet();
+                    synchronized(maxRunning) {
+                        maxRunning.set(Math.max(now, maxRunning.get()));
+                    }
+                    try {
+                        Thread.sleep(duration);
+                    } catch (InterruptedException e) {
+                    }
+                    running.decrementAndGet();
+                    collected.incrementAndGet();
+                }
+            };
+            p.setHost(host);
+            p.setStep(step);
+            host.addProbe(p);
+        }
+        return host;
+    }
+
+    @Test
+    public void sequential() throws IOException {
+        HostStarter host = makeHost(1, 5);
+        host.collectAll();
+        Assert.assertEquals("probes not collected", 5, collected.get());
+        Assert.assertEquals("probes collected in parallel", 1, maxRunning.get());
+    }
+
+    @Test
+    public void parallel() throws IOException {
+        HostStarter host = makeHost(4, 12);
+        host.collectAll();
+        Assert.assertEquals("probes not collected", 12, collected.get());
+        Assert.assertEquals("all probes should be finished", 0, running.get());
+        Assert.assertTrue("probes not collected in parallel", maxRunning.get() > 1);
+        Assert.assertTrue("too many probes collected in parallel", maxRunning.get() <= 4);
+    }
+
+    @Test
+    public void rotation() throws IOException {
+        //After 2s, the collect is too slow for a step of 2s, only 4 probes can be collected
+        HostStarter host = makeHost(1, 6, 2, 500);
+        host.collectAll();
+        Assert.assertEquals("probes not collected", 4, collected.get());
+        long[] skipped = new long[6];
+        int i = 0;
+        for(Probe<?,?> p: host.getAllProbes()) {
+            skipped[i++] = p.getSkippedCollects();
+        }
+        Assert.assertArrayEquals("bad skipped probes", new long[] {0, 0, 0, 0, 1, 1}, skipped);
+        //The second collect starts with the skipped probes
+        host.collectAll();
+        Assert.assertEquals("probes not collected", 8, collected.get());
+        i = 0;
+        for(Probe<?,?> p: host.getAllProbes()) {
+            skipped[i++] = p.getSkippedCollects();
+        }
+        Assert.assertArrayEquals("bad skipped probes", new long[] {0, 0, 1, 1, 1, 1}, skipped);
+        //The oldest collected go first, the probes skipped by the last collect are never skipped again
+        host.collectAll();
+        Assert.assertEquals("probes not collected", 12, collected.get());
+        i = 0;
+        for(Probe<?,?> p: host.getAllProbes()) {
+            skipped[i++] = p.getSkippedCollects();
+        }
+        Assert.assertArrayEquals("bad skipped probes", new long[] {0, 0, 1, 1, 2, 2}, skipped);
+    }
+
+    @Test
+    public void cost() throws IOException {
+        HostStarter host = makeHost(1, 2);
+        Assert.assertEquals("cost without collect", -1, host.getCollectCost());
+        host.collectAll();
+        Assert.assertTrue("host cost not learned", host.getCollectCost() >= 100);
+        for(Probe<?,?> p: host.getAllProbes()) {
+            Assert.assertTrue("probe cost not learned", host.getProbeCost(p) >= 50);
+        }
+        //An unknown cost comes first, then the longest
+        Assert.assertTrue("bad cost order", HostStarter.compareCost(-1, 100) < 0);
+        Assert.assertTrue("bad cost order", HostStarter.compareCost(200, 100) < 0);
+        Assert.assertEquals("bad cost order", 0, HostStarter.compareCost(100, 100));
+    }
+
+}
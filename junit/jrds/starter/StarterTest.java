@@ -102,4 +102,122 @@ public class StarterTest {
 		Assert.assertEquals(hl, n3.getHostList());
 	}
 
+	@Test
+	public void circuitBreaker() {
+		final int[] tries = new int[] {0};
+		StarterNode n = new StarterNode() { };
+		n.setStep(10);
+		Starter s = new Starter() {
+			@Override
+			public boolean start() {
+				tries[0]++;
+				return false;
+			}
+		};
+		n.registerStarter(s);
+		//The circuit is opened after 3 failures, then the starter is not tried any more
+		for(int i = 0; i < 5; i++) {
+			s.doStart();
+		}
+		Assert.assertEquals("bad tries count", 3, tries[0]);
+		Assert.assertFalse(s.isStarted());
+		CircuitBreaker breaker = s.getCircuitBreaker();
+		long now = System.currentTimeMillis();
+		Assert.assertEquals(CircuitBreaker.State.OPEN, breaker.getState(now));
+		Assert.assertEquals("bad trips count", 1, breaker.getTrips());
+
+		//Half open after the delay, a new failure double the delay
+		long retry = breaker.getRetryTime();
+		Assert.assertEquals(CircuitBreaker.State.HALFOPEN, breaker.getState(retry));
+		Assert.assertTrue(breaker.allow(retry));
+		breaker.failure(retry, 10000);
+		Assert.assertEquals("delay not doubled", retry + 20000, breaker.getRetryTime());
+
+		breaker.success();
+		Assert.assertEquals(CircuitBreaker.State.CLOSED, breaker.getState(now));
+		Assert.assertEquals(0, breaker.getRetryTime());
+	}
+
+	@Test
+	public void collectContext() {
+		StarterNode n1 = new StarterNode() { };
+		StarterNode n2 = new StarterNode(n1) { };
+		StarterNode n3 = new StarterNode(n1) { };
+		n1.startCollect();
+		n2.startCollect();
+		n3.startCollect();
+		Assert.assertTrue(n2.isCollectRunning());
+
+		//An interrupted thread don't stop the collect
+		Thread.currentThread().interrupt();
+		Assert.assertTrue(n2.isCollectRunning());
+		Assert.assertTrue("interrupt flag cleared", Thread.interrupted());
+
+		//Stopping a child don't stop the parent
+		n2.stopCollect();
+		Assert.assertFalse(n2.isCollectRunning());
+		Assert.assertTrue(n1.isCollectRunning());
+		Assert.assertTrue(n3.isCollectRunning());
+
+		//Stopping the parent stop all the children
+		n1.cancelCollect();
+		Assert.assertFalse(n1.isCollectRunning());
+		Assert.assertFalse(n3.isCollectRunning());
+		Assert.assertFalse("started after the parent stopped", n3.startCollect());
+	}
+
+	@Test
+	public void collectDeadline() {
+		CollectContext parent = new CollectContext(System.currentTimeMillis() + 1000);
+		CollectContext child = parent.child(Long.MAX_VALUE);
+		Assert.assertEquals("child after parent deadline", parent.getDeadline(), child.getDeadline());
+		Assert.assertTrue(child.getRemaining() <= 1000);
+		parent.cancel();
+		Assert.assertFalse(parent.child(Long.MAX_VALUE).isRunning());
+	}
+
+	@Test
+	public void collectCancel() {
+		final int[] aborted = new int[] {0};
+		Runnable abort = new Runnable() {
+			public void run() {
+				aborted[0]++;
+			}
+		};
+		CollectContext parent = new CollectContext(System.currentTimeMillis() + 1000);
+		CollectContext previous = CollectContext.setCurrent(parent.child(Long.MAX_VALUE));
+		try {
+			Assert.assertTrue("timeout after the deadline", CollectContext.boundTimeout(10000) <= 1000);
+			Assert.assertEquals("timeout increased", 10, CollectContext.boundTimeout(10));
+			CollectContext.onCurrentCancel(abort);
+		}
+		finally {
+			CollectContext.setCurrent(previous);
+		}
+		Assert.assertEquals("no context, timeout changed", 10000, CollectContext.boundTimeout(10000));
+
+		//A stopped collect let the running children finish
+		CollectContext stopped = new CollectContext(System.currentTimeMillis() + 1000);
+		CollectContext running = stopped.child(Long.MAX_VALUE);
+		running.onCancel(abort);
+		stopped.close();
+		Assert.assertFalse(stopped.isRunning());
+		Assert.assertTrue("child stopped with its parent", running.isRunning());
+		Assert.assertFalse("started after the parent stopped", stopped.child(Long.MAX_VALUE).isRunning());
+		Assert.assertEquals("aborted by a stop", 0, aborted[0]);
+		stopped.cancel();
+		Assert.assertFalse(running.isRunning());
+		Assert.assertEquals("I/O not aborted", 1, aborted[0]);
+		aborted[0] = 0;
+
+		//A finished collect don't abort anything
+		CollectContext finished = parent.child(Long.MAX_VALUE);
+		finished.onCancel(abort);
+		finished.close();
+		Assert.assertEquals("aborted too early", 0, aborted[0]);
+
+		//Cancelling the parent abort the I/O of the children
+		parent.cancel();
+		Assert.assertEquals("I/O not aborted", 1, aborted[0]);
+	}
 }
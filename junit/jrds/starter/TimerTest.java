@@ -1,6 +1,9 @@
 package jrds.starter;
 
 import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import jrds.PropertiesManager;
 import jrds.Tools;
@@ -43,4 +46,84 @@ public class TimerTest {
         Assert.assertEquals("bad step", 3600, t.getStep());
     }
 
+    @Test
+    public void spread() throws IOException {
+        PropertiesManager pm = Tools.makePm(testFolder, "timeout=10", "step=300", "collectSpread=40", "timers=fast", "timer.fast.step=30", "timer.fast.timeout=10");
+        Timer t = new Timer(Timer.DEFAULTNAME, pm.timers.get(Timer.DEFAULTNAME));
+        Assert.assertEquals("bad window", 120000, t.getSpreadWindow());
+        //No time to spread collects
+        Timer fast = new Timer("fast", pm.timers.get("fast"));
+        Assert.assertEquals("bad window", 0, fast.getSpreadWindow());
+
+        long window = t.getSpreadWindow();
+        for(String host: new String[] {"host01", "host02", "localhost", ""}) {
+            long offset = Timer.getOffset(host, window);
+            Assert.assertTrue("offset out of window", offset >= 0 && offset < window);
+            Assert.assertEquals("unstable offset", offset, Timer.getOffset(host, window));
+        }
+        Assert.assertTrue("close names, close offsets", Math.abs(Timer.getOffset("host01", window) - Timer.getOffset("host02", window)) > 1000);
+
+        //The longest collects start first
+        long budget = 280000;
+        long offset = Timer.getOffset("host01", window);
+        Assert.assertEquals("unknown cost moved", offset, Timer.getStartOffset("host01", -1, window, budget));
+        Assert.assertTrue("cost ignored", Timer.getStartOffset("host01", 140000, window, budget) <= offset / 2);
+        Assert.assertEquals("too long collect delayed", 0, Timer.getStartOffset("host01", budget, window, budget));
+    }
+
+    @Test
+    public void collectorExecutor() throws InterruptedException {
+        CollectorExecutor tpool = new CollectorExecutor("test", 1, 1);
+        final CountDownLatch blocker = new CountDownLatch(1);
+        Runnable r = new Runnable() {
+            public void run() {
+                try {
+                    blocker.await();
+                } catch (InterruptedException e) {
+                }
+            }
+        };
+        try {
+            //One running, one queued, one rejected
+            tpool.execute(r);
+            tpool.execute(r);
+            try {
+                tpool.execute(r);
+                Assert.fail("task not rejected");
+            } catch (RejectedExecutionException e) {
+            }
+            Assert.assertEquals("bad rejected count", 1, tpool.getRejectedCount());
+            Assert.assertEquals("bad queue depth", 1, tpool.getQueueDepth());
+            tpool.resize(3);
+            Assert.assertEquals("bad thread count", 3, tpool.getCorePoolSize());
+            tpool.resize(2);
+            Assert.assertEquals("bad thread count", 2, tpool.getMaximumPoolSize());
+        }
+        finally {
+            blocker.countDown();
+            tpool.shutdown();
+        }
+        Assert.assertTrue("pool not finished", tpool.awaitTermination(1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void statistics() {
+        CollectStatistics stats = new CollectStatistics();
+        Assert.assertEquals("empty percentile", 0, stats.getPercentile(50));
+        for(int i = 1; i <= 100; i++) {
+            stats.record(i * 10, i <= 90 ? CollectStatistics.Outcome.SUCCESS : CollectStatistics.Outcome.TIMEOUT);
+        }
+        stats.record(5, CollectStatistics.Outcome.FAILURE);
+        Assert.assertEquals("bad count", 101, stats.getCount());
+        Assert.assertEquals("bad success count", 90, stats.getCount(CollectStatistics.Outcome.SUCCESS));
+        Assert.assertEquals("bad timeout count", 10, stats.getCount(CollectStatistics.Outcome.TIMEOUT));
+        Assert.assertEquals("bad failure count", 1, stats.getCount(CollectStatistics.Outcome.FAILURE));
+        Assert.assertEquals("bad max", 1000, stats.getMax());
+        //Percentiles are upper bounds, within a factor 2
+        long p50 = stats.getPercentile(50);
+        Assert.assertTrue("bad median " + p50, p50 >= 500 && p50 <= 1024);
+        Assert.assertEquals("bad p99", 1000, stats.getPercentile(99));
+        Assert.assertEquals("bad summary", Long.valueOf(101), stats.toMap().get("count"));
+    }
+
 }
@@ -0,0 +1,76 @@
+package jrds;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.rrd4j.core.DsDef;
+import org.rrd4j.core.Sample;
+
+/**
+ * The collect mapping of a probe, resolved once to the index of the datastores.<p>
+ * The templates of the collect keys are parsed when it's build, so a collect only does
+ * a map lookup for each value and write the sample with an array, without any allocation.
+ * @author Fabrice Bacchella
+ *
+ * @param <KeyType> the type of the collect keys
+ */
+class CollectMapping<KeyType> {
+    private final Map<KeyType, Integer> indexes;
+    private final double[] defaults;
+    private final double[] buffer;
+
+    /**
+     * @param mapping the collect keys to datastore name, as given by {@link Probe#getCollectMapping()}
+     * @param dsDefs the datastores, in the order of the store
+     * @param defaultValues the default values of the datastores
+     */
+    CollectMapping(Map<KeyType, String> mapping, DsDef[] dsDefs, Map<String, Double> defaultValues) {
+        Map<String, Integer> dsIndexes = new HashMap<String, Integer>(dsDefs.length);
+        for(int i = 0; i < dsDefs.length; i++) {
+            dsIndexes.put(dsDefs[i].getDsName(), i);
+        }
+        indexes = new HashMap<KeyType, Integer>(mapping.size());
+        for(Map.Entry<KeyType, String> e: mapping.entrySet()) {
+            Integer index = dsIndexes.get(e.getValue());
+            if(index != null)
+                indexes.put(e.getKey(), index);
+        }
+        defaults = new double[dsDefs.length];
+        Arrays.fill(defaults, Double.NaN);
+        for(Map.Entry<String, Double> e: defaultValues.entrySet()) {
+            Integer index = dsIndexes.get(e.getKey());
+            if(index != null && e.getValue() != null)
+                defaults[index] = e.getValue();
+        }
+        buffer = new double[dsDefs.length];
+    }
+
+    /**
+     * Write the collected values in the sample, the datastores without values get their default value
+     * @param oneSample the sample to fill
+     * @param values the collected values
+     * @return the number of values not mapped to a datastore
+     */
+    synchronized int fill(Sample oneSample, Map<KeyType, Number> values) {
+        int dropped = 0;
+        System.arraycopy(defaults, 0, buffer, 0, defaults.length);
+        for(Map.Entry<KeyType, Number> e: values.entrySet()) {
+            Integer index = indexes.get(e.getKey());
+            if(index != null && e.getValue() != null)
+                buffer[index] = e.getValue().doubleValue();
+            else
+                dropped++;
+        }
+        oneSample.setValues(buffer);
+        return dropped;
+    }
+
+    /**
+     * @return the number of collect keys mapped to a datastore
+     */
+    int size() {
+        return indexes.size();
+    }
+
+}
@@ -46,7 +46,9 @@ public class Configuration {
         propertiesManager.importSystemProps();
         propertiesManager.update();
 
-        StoreOpener.prepare(propertiesManager.rrdbackend, propertiesManager.dbPoolSize);
+        StoreOpener.prepare(propertiesManager.rrdbackend, propertiesManager.dbPoolSize, propertiesManager.nioSyncPeriod, propertiesManager.nioMaxMapped);
+        StoreOpener.prepareFetchCache(propertiesManager.fetchCacheSize);
+        StoreOpener.prepareRecentWindows(propertiesManager.recentWindowHours * 3600L, propertiesManager.recentWindowSize);
 
         hostsList = new HostsList(propertiesManager);
     }
@@ -61,6 +63,8 @@ public class Configuration {
             public void run() {
                 if(hostsList != null) {
                     hostsList.stopTimers();
+                    if(hostsList.getSampleWriter() != null)
+                        hostsList.getSampleWriter().stop(propertiesManager.timeout * 1000L);
                     if(hostsList.getRenderer() != null)
                         hostsList.getRenderer().finish();                    
                 }
@@ -90,6 +94,10 @@ public class Configuration {
             }
         } catch (InterruptedException e) {
         }
+        //Flush the samples still waiting to be written
+        if(hostsList.getSampleWriter() != null) {
+            hostsList.getSampleWriter().stop(propertiesManager.timeout * 1000L);
+        }
         if(hostsList.getRenderer() != null) {
             hostsList.getRenderer().finish();            
         }
@@ -0,0 +1,199 @@
+package jrds;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.rrd4j.ConsolFun;
+import org.rrd4j.core.FetchData;
+
+/**
+ * A cache of the data fetched from the stores, shared by the graphs, the sums and the servlets.<p>
+ * The entries are identified by the store, the consolidation function, the resolution and the time range, that
+ * the probe align on its step, so close requests share the same entry. The cache is bounded by the size of the
+ * data, the least recently used entries are removed first. All the entries of a store are removed when a
+ * new sample is written in it.<p>
+ * The writes are stamped in a fixed table, indexed by the hash of the store path, so nothing is kept for the
+ * stores that are not in the cache. A collision in the table can only prevent a fetch from being kept.<p>
+ * The cached {@link FetchData} are shared, they must not be modified.
+ * @author Fabrice Bacchella
+ */
+public class FetchCache {
+
+    private static final class Key {
+        final String path;
+        final ConsolFun cf;
+        final long start;
+        final long end;
+        final long resolution;
+        final int hash;
+        Key(String path, ConsolFun cf, long start, long end, long resolution) {
+            this.path = path;
+            this.cf = cf;
+            this.start = start;
+            this.end = end;
+            this.resolution = resolution;
+            int h = path.hashCode();
+            h = 31 * h + cf.hashCode();
+            h = 31 * h + (int) (start ^ (start >>> 32));
+            h = 31 * h + (int) (end ^ (end >>> 32));
+            h = 31 * h + (int) (resolution ^ (resolution >>> 32));
+            this.hash = h;
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj)
+                return true;
+            if(! (obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return start == other.start && end == other.end && resolution == other.resolution
+                    && cf == other.cf && path.equals(other.path);
+        }
+    }
+
+    private static final class Entry {
+        final FetchData data;
+        final long size;
+        Entry(FetchData data) {
+            this.data = data;
+            this.size = ((long) data.getRowCount()) * (data.getColumnCount() + 1) * 8;
+        }
+    }
+
+    private static final int SLOTS = 4096;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    //The keys of the stores with cached data
+    private final Map<String, Set<Key>> stores = new HashMap<String, Set<Key>>();
+    //The stamp of the last write in the stores, by hash of their path
+    private final long[] modified = new long[SLOTS];
+    private long clock = 0;
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    /**
+     * @param maxBytes the maximum size of the cached data, in bytes
+     */
+    public FetchCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param path the store
+     * @param cf the consolidation function
+     * @param start the start of the fetch, in seconds
+     * @param end the end of the fetch, in seconds
+     * @param resolution the resolution of the fetch, in seconds
+     * @return the cached data, or null
+     */
+    public synchronized FetchData get(String path, ConsolFun cf, long start, long end, long resolution) {
+        Entry e = entries.get(new Key(path, cf, start, end, resolution));
+        if(e == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return e.data;
+    }
+
+    private int slot(String path) {
+        return (path.hashCode() & Integer.MAX_VALUE) % SLOTS;
+    }
+
+    /**
+     * The version of a store must be read before fetching it, a data fetched while a sample was stored is not kept
+     * @param path the store
+     * @return the stamp of the last write in the cache
+     */
+    public synchronized long getVersion(String path) {
+        return clock;
+    }
+
+    /**
+     * Add a fetched data in the cache
+     * @param path the store
+     * @param cf the consolidation function
+     * @param start the start of the fetch, in seconds
+     * @param end the end of the fetch, in seconds
+     * @param resolution the resolution of the fetch, in seconds
+     * @param data the fetched data
+     * @param version the version of the store, read before the fetch
+     */
+    public synchronized void put(String path, ConsolFun cf, long start, long end, long resolution, FetchData data, long version) {
+        //Modified during the fetch
+        if(modified[slot(path)] > version)
+            return;
+        Entry e = new Entry(data);
+        if(e.size > maxBytes)
+            return;
+        Key k = new Key(path, cf, start, end, resolution);
+        Entry old = entries.put(k, e);
+        if(old != null)
+            bytes -= old.size;
+        bytes += e.size;
+        Set<Key> keys = stores.get(path);
+        if(keys == null) {
+            keys = new HashSet<Key>();
+            stores.put(path, keys);
+        }
+        keys.add(k);
+        Iterator<Map.Entry<Key, Entry>> i = entries.entrySet().iterator();
+        while(bytes > maxBytes && i.hasNext()) {
+            Map.Entry<Key, Entry> eldest = i.next();
+            i.remove();
+            bytes -= eldest.getValue().size;
+            Set<Key> evictedKeys = stores.get(eldest.getKey().path);
+            evictedKeys.remove(eldest.getKey());
+            if(evictedKeys.isEmpty())
+                stores.remove(eldest.getKey().path);
+            evictions++;
+        }
+    }
+
+    /**
+     * Remove the data of a store, called when a sample is written in it
+     * @param path the store
+     */
+    public synchronized void invalidate(String path) {
+        modified[slot(path)] = ++clock;
+        Set<Key> keys = stores.remove(path);
+        if(keys == null)
+            return;
+        for(Key k: keys) {
+            Entry e = entries.remove(k);
+            if(e != null) {
+                bytes -= e.size;
+                invalidations++;
+            }
+        }
+    }
+
+    /**
+     * @return the counters of the cache, used for the status and JMX
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("entries", (long) entries.size());
+        stats.put("stores", (long) stores.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("invalidations", invalidations);
+        return stats;
+    }
+
+}
@@ -117,8 +117,7 @@ public class Graph implements WithACL {
             graphDef.setEndTime(endsec);
             PlottableMap customData = node.getCustomData();
             if(customData != null) {
-                long step = Math.max((endsec - startsec) / gd.getWidth(), 1);
-                customData.configure(startsec, endsec, step);
+                customData.configure(startsec, endsec, gd.getResolution(startsec, endsec));
             }
             setGraphDefData(graphDef, node.getProbe(), customData);
             if(gd.withLegend())
@@ -131,7 +130,7 @@ public class Graph implements WithACL {
     protected void setGraphDefData(RrdGraphDef graphDef, Probe<?, ?> defProbe,
             Map<String, ? extends Plottable> customData) {
         GraphDesc gd = getGraphDesc();
-        gd.fillGraphDef(graphDef, node.getProbe(), customData);        
+        gd.fillGraphDef(graphDef, node.getProbe(), customData, getStartSec(), getEndSec());        
     }
     
     protected GraphDesc getGraphDesc() {
@@ -179,8 +178,15 @@ public class Graph implements WithACL {
     }
 
     public void writePng(OutputStream out) throws IOException {
-        byte[] buffer = getRrdGraph().getRrdGraphInfo().getBytes();
-        out.write(buffer);
+        out.write(getPngBytes());
+    }
+
+    /**
+     * @return the rendered image
+     * @throws IOException
+     */
+    public byte[] getPngBytes() throws IOException {
+        return getRrdGraph().getRrdGraphInfo().getBytes();
     }
 
     /**
@@ -194,7 +200,7 @@ public class Graph implements WithACL {
         if(customData != null) {
             long startsec = getStartSec();
             long endsec = getEndSec();
-            customData.configure(startsec, endsec, 1);            
+            customData.configure(startsec, endsec, getGraphDesc().getResolution(startsec, endsec));            
         }
         DataProcessor dp = getGraphDesc().getPlottedDatas(node.getProbe(), customData, start.getTime() / 1000, end.getTime() / 1000);
         dp.processData();
@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -27,6 +28,7 @@ import jrds.webapp.WithACL;
 
 import org.apache.log4j.Logger;
 import org.rrd4j.ConsolFun;
+import org.rrd4j.core.FetchData;
 import org.rrd4j.data.DataProcessor;
 import org.rrd4j.data.Plottable;
 import org.rrd4j.graph.RrdGraphConstants;
@@ -799,7 +801,26 @@ implements Cloneable, WithACL {
      */
     public void fillGraphDef(RrdGraphDef graphDef, Probe<?, ?> defProbe,
             Map<String, ? extends Plottable> customData) {
+        fillGraphDef(graphDef, defProbe, customData, 0, 0);
+    }
+
+    /**
+     * Fill a GraphDef with values as defined by the graph desc. The stores are read
+     * with {@link Probe#fetchData(ConsolFun, long, long, long)}, so the data is shared through the fetch cache.
+     * @param graphDef the GraphDef to configure
+     * @param defProbe The probe to get values from
+     * @param customData some custom data, they override existing values in the associated probe
+     * @param start the start of the graph, in seconds
+     * @param end the end of the graph, in seconds, if not after start, rrd4j reads the stores itself
+     */
+    public void fillGraphDef(RrdGraphDef graphDef, Probe<?, ?> defProbe,
+            Map<String, ? extends Plottable> customData, long start, long end) {
         HostsList hl = defProbe.getHostList();
+        Map<String, FetchData> fetched = new HashMap<String, FetchData>();
+        long resolution = getResolution(start, end);
+        //The fetched columns, and the stores that rrd4j must read itself
+        Map<String, FetchData> columns = new HashMap<String, FetchData>();
+        Map<DsDesc, String> deferred = new LinkedHashMap<DsDesc, String>();
         List<DsDesc> toDo = new ArrayList<DsDesc>();
         //The datasources already found
         Set<String> datasources = new HashSet<String>();
@@ -862,8 +883,18 @@ implements Cloneable, WithACL {
 
                 complete = true;
                 if( ! datasources.contains(ds.name)) {
-                    String rrdName = probe.getRrdName();
-                    graphDef.datasource(ds.name, rrdName, ds.dsName, ds.cf);                
+                    FetchData fd = start < end ? fetch(fetched, probe, ds.cf, start, end, resolution) : null;
+                    if(isFetchable(columns, ds, fd)) {
+                        if(! columns.containsKey(ds.dsName)) {
+                            graphDef.datasource(ds.dsName, fd);
+                            columns.put(ds.dsName, fd);
+                        }
+                        if(! ds.name.equals(ds.dsName))
+                            graphDef.datasource(ds.name, ds.dsName);
+                    }
+                    else {
+                        deferred.put(ds, probe.getRrdName());
+                    }
                     datasources.add(ds.name);
                 }
                 else {
@@ -878,6 +909,12 @@ implements Cloneable, WithACL {
                 logger.error("No way to plot " + ds.name + " in " + name + " found");
             }
         }
+        //The stores read by rrd4j come last, it can't compare them with a fetched datasource that follows
+        String backend = StoreOpener.getBackendName();
+        for(Map.Entry<DsDesc, String> e: deferred.entrySet()) {
+            DsDesc ds = e.getKey();
+            graphDef.datasource(ds.name, e.getValue(), ds.dsName, ds.cf, backend);
+        }
         // The title line, only if values block is required
         if( withSummary) {
             graphDef.comment(""); //We simulate the color box
@@ -929,6 +966,10 @@ implements Cloneable, WithACL {
     public DataProcessor getPlottedDatas(Probe<?,?> probe, Map<String, Plottable> ownData, long start, long end) throws IOException {
         DataProcessor retValue = new DataProcessor(start, end);
         String rrdName = probe.getRrdName();
+        Map<String, FetchData> fetched = new HashMap<String, FetchData>();
+        long resolution = getResolution(start, end);
+        Map<String, FetchData> columns = new HashMap<String, FetchData>();
+        List<DsDesc> deferred = new ArrayList<DsDesc>();
 
         String lastName = null;
         for(DsDesc ds: allds) {            
@@ -941,7 +982,17 @@ implements Cloneable, WithACL {
                 }
                 //Or they might be on the associated rrd
                 else if(probe.dsExist(ds.dsName)) {
-                    retValue.addDatasource(ds.name, rrdName, ds.dsName, ds.cf);                             
+                    FetchData fd = fetch(fetched, probe, ds.cf, start, end, resolution);
+                    if(isFetchable(columns, ds, fd)) {
+                        if(! columns.containsKey(ds.dsName)) {
+                            retValue.addDatasource(ds.dsName, fd);
+                            columns.put(ds.dsName, fd);
+                        }
+                        if(! ds.name.equals(ds.dsName))
+                            retValue.addDatasource(ds.name, ds.dsName);
+                    }
+                    else
+                        deferred.add(ds);
                 }
             }
             else if(ds.rpn != null){
@@ -955,6 +1006,11 @@ implements Cloneable, WithACL {
             }
             lastName = ds.name; 
         }
+        //The stores read by rrd4j come last, it can't compare them with a fetched datasource that follows
+        String backend = StoreOpener.getBackendName();
+        for(DsDesc ds: deferred) {
+            retValue.addDatasource(ds.name, rrdName, ds.dsName, ds.cf, backend);
+        }
         if(logger.isTraceEnabled()) {
             logger.trace("Datastore for " + getName());
             for(String s: retValue.getSourceNames())
@@ -963,6 +1019,36 @@ implements Cloneable, WithACL {
         return retValue;
     }
 
+    /**
+     * Fetch the data of a probe once for each consolidation function used in a graph
+     * @return the data, or null if the fetch failed
+     */
+    private FetchData fetch(Map<String, FetchData> fetched, Probe<?,?> probe, ConsolFun cf, long start, long end, long resolution) {
+        String key = probe.getRrdName() + "/" + cf;
+        if(! fetched.containsKey(key))
+            fetched.put(key, probe.fetchData(cf, start, end, resolution));
+        return fetched.get(key);
+    }
+
+    /**
+     * A fetched datasource keeps the name of its datastore, so it can be used only if
+     * this name is not taken by another datasource of the graph, or by a column from another fetch
+     * @return true if the datasource can use the fetched data
+     */
+    private boolean isFetchable(Map<String, FetchData> columns, DsDesc ds, FetchData fd) {
+        if(fd == null)
+            return false;
+        if(columns.containsKey(ds.dsName))
+            return columns.get(ds.dsName) == fd;
+        if(ds.name.equals(ds.dsName))
+            return true;
+        for(DsDesc other: allds) {
+            if(ds.dsName.equals(other.name))
+                return false;
+        }
+        return true;
+    }
+
     protected void addLegend(RrdGraphDef def, String ds, GraphType gt, String legend) {
         if(legend == null)
             return;
@@ -1025,6 +1111,17 @@ implements Cloneable, WithACL {
         return width;
     }
 
+    /**
+     * The resolution needed to draw a time range, one point for each pixel of the graphic zone, so the
+     * coarsest archive that can fill the graph is read.
+     * @param start the start of the range, in seconds
+     * @param end the end of the range, in seconds
+     * @return the resolution, in seconds
+     */
+    public long getResolution(long start, long end) {
+        return Math.max((end - start) / getWidth(), 1);
+    }
+
     /**
      * @param width The width of the graphic zone to set.
      */
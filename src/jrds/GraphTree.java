@@ -9,11 +9,11 @@ package jrds;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 
 import org.apache.log4j.Logger;
 
@@ -48,8 +48,9 @@ public class GraphTree {
 	 *  
 	 */
 	private GraphTree(String name) {
-		graphsSet = new TreeMap<String, GraphNode>(jrds.Util.nodeComparator);
-		childsMap = new TreeMap<String, GraphTree>(jrds.Util.nodeComparator);
+		//Graphs are added while the tree is read, when a probe's store is checked late
+		graphsSet = new ConcurrentSkipListMap<String, GraphNode>(jrds.Util.nodeComparator);
+		childsMap = new ConcurrentSkipListMap<String, GraphTree>(jrds.Util.nodeComparator);
 		this.name = name;
 	}
 
@@ -60,7 +61,7 @@ public class GraphTree {
 	 */
 	public static GraphTree makeGraph(String root) {
 		GraphTree rootNode = new GraphTree(root);
-		rootNode.pathsMap = new HashMap<Integer, GraphTree>();
+		rootNode.pathsMap = new ConcurrentHashMap<Integer, GraphTree>();
 		rootNode.pathsMap.put(rootNode.getPath().hashCode(), rootNode);
 		return rootNode;
 	}
@@ -95,7 +96,9 @@ public class GraphTree {
 
 	private void _addGraphByPath(LinkedList<String> path, GraphNode nodesGraph) {
 		if(path.size() == 1 && nodesGraph != null ) {
-				graphsSet.put(path.getLast(), nodesGraph);
+				//The concurrent map refuses a null key, for a graph without a name
+				String graphName = path.getLast();
+				graphsSet.put(graphName != null ? graphName : "", nodesGraph);
 		}
 		else if(! path.isEmpty()){
 			String pathElem = path.removeFirst();
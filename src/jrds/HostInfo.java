@@ -1,10 +1,12 @@
 package jrds;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import jrds.starter.ConnectionInfo;
 
@@ -14,9 +16,12 @@ public class HostInfo {
     private String dnsName = null;
     private Set<String> tags = null;
     private File hostdir = null;
+    private int storeFanout = 0;
     private boolean hidden = false;
+    private int parallel = 0;
     private final Map<String, ConnectionInfo> cnxList = new HashMap<String, ConnectionInfo>();
-    private final Set<Probe<?,?>> probesList = new HashSet<Probe<?,?>>();
+    //A probe whose store check failed is removed by the checker threads
+    private final Set<Probe<?,?>> probesList = Collections.newSetFromMap(new ConcurrentHashMap<Probe<?,?>, Boolean>());
 
     public HostInfo(String name) {
         super();
@@ -40,6 +45,21 @@ public class HostInfo {
         return hostdir;
     }
 
+    /**
+     * @param storeFanout the number of sub directories used for the stores, 0 to keep them in the host directory
+     */
+    public void setStoreFanout(int storeFanout) {
+        this.storeFanout = storeFanout;
+    }
+
+    /**
+     * @param fileName the name of a store file
+     * @return the path of the store in the host directory
+     */
+    public File getStoreFile(String fileName) {
+        return StorePlacement.getStoreFile(hostdir, fileName, storeFanout);
+    }
+
     public void addTag(String tag) {
         if(tags == null)
             tags = new HashSet<String>();
@@ -85,6 +105,22 @@ public class HostInfo {
         this.hidden = hidden;
     }
 
+    /**
+     * The number of probes of this host that can be collected at the same time.
+     * 0 means the timer default is used.
+     * @return the parallel
+     */
+    public int getParallel() {
+        return parallel;
+    }
+
+    /**
+     * @param parallel the parallel to set
+     */
+    public void setParallel(int parallel) {
+        this.parallel = parallel;
+    }
+
     /**
      * @return the name
      */
@@ -115,6 +151,10 @@ public class HostInfo {
         probesList.add(p);
     }
 
+    public void removeProbe(Probe<?,?> p) {
+        probesList.remove(p);
+    }
+
     public Iterable<Probe<?,?>> getProbes() {
         return probesList;
     }
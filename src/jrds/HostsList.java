@@ -1,6 +1,7 @@
 
 package jrds;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collection;
@@ -12,8 +13,11 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.Timer;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import jrds.PropertiesManager.TimerInfo;
@@ -21,6 +25,7 @@ import jrds.configuration.ConfigObjectFactory;
 import jrds.factories.ArgFactory;
 import jrds.factories.ProbeMeta;
 import jrds.graphe.Sum;
+import jrds.starter.CollectorExecutor;
 import jrds.starter.HostStarter;
 import jrds.starter.Listener;
 import jrds.starter.Starter;
@@ -43,14 +48,22 @@ public class HostsList extends StarterNode {
     private final Set<HostInfo> hostList = new HashSet<HostInfo>();
     private final Set<Starter> topStarters = new HashSet<Starter>();
     private final Map<String, jrds.starter.Timer> timers = new HashMap<String, jrds.starter.Timer>();
-    private final Map<Integer, GraphNode> graphMap = new HashMap<Integer, GraphNode>();
-    private final Map<Integer, Probe<?,?>> probeMap= new HashMap<Integer, Probe<?,?>>();
+    //The probes checked in the background are added once the configuration is done
+    private final Map<Integer, GraphNode> graphMap = new ConcurrentHashMap<Integer, GraphNode>();
+    private final Map<Integer, Probe<?,?>> probeMap= new ConcurrentHashMap<Integer, Probe<?,?>>();
     private final Map<String, GraphTree> treeMap = new LinkedHashMap<String, GraphTree>(3);
     private final Map<String, Filter> filters = new TreeMap<String, Filter>(String.CASE_INSENSITIVE_ORDER);
     private Map<String, Tab> tabs = new LinkedHashMap<String, Tab>();
     private String firstTab = null;
     private Renderer renderer = null;
-    private Timer collectTimer;
+    private SampleWriter sampleWriter = null;
+    private StoreChecker storeChecker = null;
+    private StoreUpgrader storeUpgrader = null;
+    private boolean probesPublished = false;
+    private ACL defaultACL = null;
+    private ScheduledExecutorService collectTimer;
+    private final Map<String, CollectorExecutor> collectors = new HashMap<String, CollectorExecutor>();
+    private final Map<String, CollectorExecutor> probesCollectors = new HashMap<String, CollectorExecutor>();
     // The list of roles known to jrds
     private Set<String> roles = new HashSet<String>();
     private Set<String> defaultRoles = Collections.emptySet();
@@ -121,10 +134,19 @@ public class HostsList extends StarterNode {
         }
         log(Level.DEBUG, "timers %s", timers);
 
-        renderer = new Renderer(50, pm.tmpdir);
+        renderer = new Renderer(pm.renderCacheSize);
+
+        if(pm.writerThreads > 0 && ! pm.readonly)
+            sampleWriter = new SampleWriter("jrds-writer/" + thisgeneration, pm.writerThreads, pm.writerQueue);
+
+        storeUpgrader = new StoreUpgrader(pm.upgradeRate, pm.upgradeJournal);
+        //The stores are checked in the background, the hosts don't wait for them
+        if(pm.checkThreads > 0)
+            storeChecker = new StoreChecker("jrds-checker/" + thisgeneration, pm.checkThreads, new File(pm.tmpdir, "templates"));
 
         log(Level.DEBUG, "Starting parsing descriptions");
         ConfigObjectFactory conf = new ConfigObjectFactory(pm);
+        conf.setStoreChecker(storeChecker);
         conf.setGraphDescMap();
         conf.setProbeDescMap();
         conf.setMacroMap();
@@ -166,6 +188,19 @@ public class HostsList extends StarterNode {
                 }
             }
             timer.configureStarters(pm);            
+
+            //The collector threads are kept from one collect to the other
+            TimerInfo ti = pm.timers.get(timer.getName());
+            int queueSize = ti.collectorQueue;
+            //Default queue can hold all the hosts of the timer
+            if(queueSize <= 0)
+                queueSize = timer.getHostsCount();
+            collectors.put(timer.getName(), new CollectorExecutor(timer.getName(), timer.getNumCollectors(), Math.max(queueSize, 1)));
+            //Helpers threads, for hosts that collect many probes at the same time
+            int helpers = timer.getNumCollectors() * (timer.getMaxParallelism() - 1);
+            if(helpers > 0) {
+                probesCollectors.put(timer.getName(), new CollectorExecutor(timer.getName() + "/probes", helpers, helpers));
+            }
         }
 
         log(Level.DEBUG, "top starters added %s", topStarterClasses);
@@ -179,17 +214,13 @@ public class HostsList extends StarterNode {
             }           
         }
 
-        for(HostInfo host: hostList) {
-            for(Probe<?,?> p: host.getProbes()) {
-                addProbe(p);
-                // Some probe are done outside of a starter
-                // Don't forget them
-                if(p.getHostList() == null) {
-                    log(Level.INFO, p.toString());
-                    p.setParent(this);
-                }
-            }
+        //Small configurations are shown with all their probes, the others are added once their store is checked
+        if(storeChecker != null && ! storeChecker.await(pm.checkWait * 1000L)) {
+            log(Level.INFO, "%d stores still checked, their probes will be added later", storeChecker.getPending());
         }
+        if(pm.security)
+            defaultACL = pm.defaultACL;
+        addCheckedProbes();
 
         //Configure the default ACL of all automatic filters
         for(Filter filter: filters.values()) {
@@ -235,19 +266,86 @@ public class HostsList extends StarterNode {
 
         if(pm.security) {
             for(GraphNode gn: graphMap.values()) {
-                gn.addACL(pm.defaultACL);
-                checkRoles(gn, GraphTree.HOSTROOT, gn.getTreePathByHost());
-                checkRoles(gn, GraphTree.VIEWROOT, gn.getTreePathByView());
+                secureGraph(gn);
             }
         }
+        //The probes checked since are added now, the next ones will be added when checked
+        synchronized(this) {
+            addCheckedProbes();
+            probesPublished = true;
+        }
         started = true;
     }
 
+    /**
+     * Add the probes whose store was checked and that are not already added
+     */
+    private synchronized void addCheckedProbes() {
+        for(HostInfo host: hostList) {
+            for(Probe<?,?> p: host.getProbes()) {
+                if(p.isCheckPending() || probeMap.get(p.hashCode()) == p)
+                    continue;
+                // Some probe are done outside of a starter
+                // Don't forget them
+                if(p.getHostList() == null) {
+                    log(Level.INFO, p.toString());
+                    p.setParent(this);
+                }
+                if(probesPublished)
+                    publishProbe(p);
+                else
+                    addProbe(p);
+            }
+        }
+    }
+
+    /**
+     * Called by the {@link StoreChecker} when the store of a probe is checked. A probe with an unusable store
+     * is removed from its host, the other are shown once the configuration is done.
+     * @param p the probe
+     * @param usable true if the store can be used
+     */
+    synchronized void storeChecked(Probe<?,?> p, boolean usable) {
+        p.setDeferredCheck(false);
+        if(! usable) {
+            if(p.getParent() instanceof HostStarter)
+                ((HostStarter) p.getParent()).removeProbe(p);
+        }
+        else if(probesPublished) {
+            publishProbe(p);
+        }
+    }
+
+    /**
+     * Add a probe after the configuration, its graphs get the ACL they would have got then
+     */
+    private void publishProbe(Probe<?,?> p) {
+        addProbe(p);
+        if(defaultACL != null) {
+            for(GraphNode gn: p.getGraphList()) {
+                secureGraph(gn);
+            }
+        }
+    }
+
+    private void secureGraph(GraphNode gn) {
+        gn.addACL(defaultACL);
+        checkRoles(gn, GraphTree.HOSTROOT, gn.getTreePathByHost());
+        checkRoles(gn, GraphTree.VIEWROOT, gn.getTreePathByView());
+    }
+
     public void startTimers() {
-        if(started)
-            collectTimer = new Timer("jrds-main-timer/" + thisgeneration, true);
-        for(jrds.starter.Timer t: timers.values()) {
-            t.startTimer(collectTimer);  
+        if(started) {
+            collectTimer = new ScheduledThreadPoolExecutor(Math.max(timers.size(), 1), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "jrds-main-timer/" + thisgeneration);
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            for(jrds.starter.Timer t: timers.values()) {
+                t.startTimer(collectTimer);  
+            }
         }
         for(Starter s: this.topStarters) {
             s.doStart();
@@ -260,11 +358,25 @@ public class HostsList extends StarterNode {
     public void stopTimers() {
         started = false;
         if(collectTimer != null)
-            collectTimer.cancel();
+            collectTimer.shutdown();
         collectTimer = null;
+        //Running collects are stopped, but the collector threads are allowed to finish
+        for(jrds.starter.Timer t: timers.values()) {
+            t.cancelCollect();
+        }
+        for(CollectorExecutor e: collectors.values()) {
+            e.shutdown();
+        }
+        for(CollectorExecutor e: probesCollectors.values()) {
+            e.shutdown();
+        }
         for(Starter s: this.topStarters) {
             s.doStop();
         }
+        if(storeChecker != null)
+            storeChecker.stop();
+        if(storeUpgrader != null)
+            storeUpgrader.close();
     }
 
     String makeTabs(List<String> tabsList, Set<Tab> moretabs, Map<String, Tab> customTabMap, Map<String, Tab> tabs){
@@ -528,6 +640,27 @@ public class HostsList extends StarterNode {
         return renderer;
     }
 
+    /**
+     * @return the write-behind stage of the collect, or null if the samples are written by the collector threads
+     */
+    public SampleWriter getSampleWriter() {
+        return sampleWriter;
+    }
+
+    /**
+     * @return the background checker of the stores, or null if they are checked when the probes are created
+     */
+    public StoreChecker getStoreChecker() {
+        return storeChecker;
+    }
+
+    /**
+     * @return the upgrader used when the definition of a store changed
+     */
+    public StoreUpgrader getStoreUpgrader() {
+        return storeUpgrader;
+    }
+
     /* (non-Javadoc)
      * @see jrds.starter.StarterNode#isCollectRunning()
      */
@@ -577,6 +710,24 @@ public class HostsList extends StarterNode {
         return timers.values();
     }
 
+    /**
+     * Return the collector threads pool of a timer
+     * @param timerName the name of the timer
+     * @return the pool, or null if the timer is unknown
+     */
+    public CollectorExecutor getCollectorExecutor(String timerName) {
+        return collectors.get(timerName);
+    }
+
+    /**
+     * Return the threads pool used to collect the probes of a host in parallel
+     * @param timerName the name of the timer
+     * @return the pool, or null if no host of the timer collect probes in parallel
+     */
+    public CollectorExecutor getProbesExecutor(String timerName) {
+        return probesCollectors.get(timerName);
+    }
+
     /**
      * @return the thisgeneration
      */
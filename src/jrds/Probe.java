@@ -8,9 +8,9 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
@@ -19,6 +19,8 @@ import javax.xml.parsers.ParserConfigurationException;
 import jrds.factories.ProbeMeta;
 import jrds.probe.IndexedProbe;
 import jrds.probe.UrlProbe;
+import jrds.starter.CollectContext;
+import jrds.starter.CollectStatistics;
 import jrds.starter.HostStarter;
 import jrds.starter.StarterNode;
 
@@ -26,12 +28,9 @@ import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 import org.rrd4j.ConsolFun;
 import org.rrd4j.core.ArcDef;
-import org.rrd4j.core.Archive;
-import org.rrd4j.core.Datasource;
 import org.rrd4j.core.DsDef;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.core.FetchRequest;
-import org.rrd4j.core.Header;
 import org.rrd4j.core.RrdDb;
 import org.rrd4j.core.RrdDef;
 import org.rrd4j.core.Sample;
@@ -61,10 +60,28 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
     private Collection<GraphNode> graphList = new ArrayList<GraphNode>();
     private ProbeDesc pd;
     private long uptime = Long.MAX_VALUE;
-    private boolean finished = false;
+    private volatile boolean finished = false;
+    //The store is checked in the background, the probe is not collected until then
+    private volatile boolean deferredCheck = false;
     private String label = null;
     private Logger namedLogger = Logger.getLogger("jrds.Probe.EmptyProbe");
     private volatile boolean running = false;
+    private final AtomicLong skipped = new AtomicLong(0);
+    private final AtomicLong overruns = new AtomicLong(0);
+    private final AtomicLong cancelled = new AtomicLong(0);
+    private final CollectStatistics collectStats = new CollectStatistics();
+    private volatile CollectMapping<KeyType> compiledMapping = null;
+    //The last sample stored, so the last values are read without opening the store
+    private volatile LastSample lastSample = null;
+
+    private static final class LastSample {
+        final long time;
+        final Map<String, Number> values;
+        LastSample(long time, Map<String, Number> values) {
+            this.time = time;
+            this.values = values;
+        }
+    }
 
     /**
      * A special case constructor, mainly used by virtual probe
@@ -121,8 +138,7 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
 
     public String getRrdName() {
         String rrdName = getName().replaceAll("/","_");
-        return monitoredHost.getHostDir() +
-                Util.getFileSeparator() + rrdName + ".rrd";
+        return monitoredHost.getStoreFile(rrdName + ".rrd").getPath();
     }
 
     private final String parseTemplate(String template) {
@@ -157,108 +173,18 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
     protected void create() throws IOException {
         log(Level.INFO, "Need to create rrd");
         RrdDef def = getRrdDef();
-        RrdDb rrdDb = new RrdDb(def);
+        StoreChecker checker = getStoreChecker();
+        if(checker != null && checker.copyTemplate(def, StoreChecker.fingerprint(def)))
+            return;
+        RrdDb rrdDb = new RrdDb(def, StoreOpener.getBackend());
         rrdDb.close();
     }
 
-    private void upgrade() {
-        RrdDb rrdSource = null;
-        try {
-            log(Level.WARN,"Definition is changed, the store needs to be upgraded");
-            File source = new File(getRrdName());
-            rrdSource = new RrdDb(source.getCanonicalPath());
-
-            RrdDef rrdDef = getRrdDef();
-            File dest = File.createTempFile("JRDS_", ".tmp", source.getParentFile());
-            rrdDef.setPath(dest.getCanonicalPath());
-            RrdDb rrdDest = new RrdDb(rrdDef);
-
-            log(Level.DEBUG, "updating %s to %s",source, dest);
-
-            Set<String> badDs = new HashSet<String>();
-            Header header = rrdSource.getHeader();
-            int dsCount = header.getDsCount();;
-            header.copyStateTo(rrdDest.getHeader());
-            for (int i = 0; i < dsCount; i++) {
-                Datasource srcDs = rrdSource.getDatasource(i);
-                String dsName = srcDs.getName();
-                Datasource dstDS = rrdDest.getDatasource(dsName);
-                if (dstDS != null ) {
-                    try {
-                        srcDs.copyStateTo(dstDS);
-                        log(Level.TRACE, "Update %s", dsName);
-                    } catch (RuntimeException e) {
-                        badDs.add(dsName);
-                        log(Level.ERROR, e, "Datasource %s can't be upgraded: %s", dsName,  e.getMessage());
-                    }
-                }
-            }
-            int robinMigrated = 0;
-            for (int i = 0; i < rrdSource.getArcCount(); i++) {
-                Archive srcArchive = rrdSource.getArchive(i);
-                ConsolFun consolFun = srcArchive.getConsolFun();
-                int steps = srcArchive.getSteps();
-                Archive dstArchive = rrdDest.getArchive(consolFun, steps);
-                if (dstArchive != null) {
-                    if ( dstArchive.getConsolFun().equals(srcArchive.getConsolFun())  &&
-                            dstArchive.getSteps() == srcArchive.getSteps() ) {
-                        for (int k = 0; k < dsCount; k++) {
-                            Datasource srcDs = rrdSource.getDatasource(k);
-                            String dsName = srcDs.getName();
-                            try {
-                                int j = rrdDest.getDsIndex(dsName);
-                                if (j >= 0 && ! badDs.contains(dsName)) {
-                                    log(Level.TRACE, "Upgrade of %s from %s", dsName, srcArchive);
-                                    srcArchive.getArcState(k).copyStateTo(dstArchive.getArcState(j));
-                                    srcArchive.getRobin(k).copyStateTo(dstArchive.getRobin(j));
-                                    robinMigrated++;
-                                }
-                            }
-                            catch (IllegalArgumentException e) {
-                                log(Level.TRACE, "Datastore %s removed", dsName);
-                            }
-
-                        }
-                        log(Level.TRACE, "Update %s", srcArchive);
-                    }
-                }
-            }
-            log(Level.DEBUG, "Robin migrated: %s", robinMigrated);
-
-            rrdDest.close();
-            rrdSource.close();
-            log(Level.DEBUG, "Size difference : %d", (dest.length() - source.length()));
-            copyFile(dest.getCanonicalPath(), source.getCanonicalPath());
-        } catch (IOException e) {
-            log(Level.ERROR, e, "Upgrade failed: %s", e);
-        }
-        finally {
-            if(rrdSource != null)
-                try {
-                    rrdSource.close();
-                } catch (IOException e) {
-                }
-        }
-    }
-
-    private static void copyFile(String sourcePath, String destPath)
-            throws IOException {
-        File source = new File(sourcePath);
-        File dest = new File(destPath);
-        File destOld = new File(destPath + ".old");
-        if (!dest.renameTo(destOld)) {
-            throw new IOException("Could not rename file " + destPath + " from " + destOld);
-        }
-        if (!source.renameTo(dest)) {
-            throw new IOException("Could not rename file " + destPath + " from " + sourcePath);
-        }
-        deleteFile(destOld);
-    }
-
-    private static void deleteFile(File file) throws IOException {
-        if (file.exists() && !file.delete()) {
-            throw new IOException("Could not delete file: " + file.getCanonicalPath());
-        }
+    private StoreUpgrader getStoreUpgrader() {
+        HostsList hl = getHostList();
+        if(hl != null && hl.getStoreUpgrader() != null)
+            return hl.getStoreUpgrader();
+        return new StoreUpgrader(0, null);
     }
 
     /**
@@ -270,6 +196,29 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
      * @throws RrdException
      */
     public boolean checkStore()  {
+        if(! checkProbe())
+            return false;
+
+        finished = checkStoreFile();
+        //The store is now known to match the datastores definition
+        if(finished) {
+            compiledMapping = compileMapping();
+            lastSample = null;
+            try {
+                readLastSample();
+            } catch (Exception e) {
+                log(Level.DEBUG, e, "Unable to read the last values: %s", e.getMessage());
+            }
+        }
+        return finished;
+    }
+
+    /**
+     * Check that the probe is complete and resolve its name, without looking at the store.
+     * It's done by {@link #checkStore()}, but it can be called first when the store is checked later.
+     * @return true if the probe can be used
+     */
+    public boolean checkProbe() {
         if(pd == null) {
             log(Level.ERROR, "Missing Probe description");
             return false;
@@ -282,17 +231,46 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
         //Name can be set by other means
         if(name == null)
             name = parseTemplate(getPd().getProbeName());
+        return true;
+    }
 
-        finished = checkStoreFile();
-        return finished;
+    /**
+     * Used by the {@link StoreChecker}, the probe is not collected while its store is checked.
+     * @param deferredCheck true if the store is checked in the background
+     */
+    void setDeferredCheck(boolean deferredCheck) {
+        this.deferredCheck = deferredCheck;
+    }
+
+    /**
+     * @return true if the store is still checked in the background
+     */
+    boolean isCheckPending() {
+        return deferredCheck;
+    }
+
+    private StoreChecker getStoreChecker() {
+        HostsList hl = getHostList();
+        return hl == null ? null : hl.getStoreChecker();
+    }
+
+    /**
+     * Resolve the collect mapping to the index of the datastores. It's done once, when the store is checked.
+     * @return the compiled mapping
+     */
+    private CollectMapping<KeyType> compileMapping() {
+        CollectMapping<KeyType> mapping = new CollectMapping<KeyType>(getCollectMapping(), getDsDefs(), getPd().getDefaultValues());
+        log(Level.TRACE, "%d collect keys mapped", mapping.size());
+        return mapping;
     }
 
     protected boolean checkStoreFile() {
         File rrdFile = new File(getRrdName());
 
-        File rrdDir = monitoredHost.getHostDir();
+        //The host directory, or its sub directory if the stores are spread
+        File rrdDir = rrdFile.getParentFile();
         if (!rrdDir.isDirectory()) {
-            if( ! rrdDir.mkdir()) {
+            if( ! rrdDir.mkdirs()) {
                 try {
                     log(Level.ERROR, "prode dir %s creation failed ", rrdDir.getCanonicalPath());
                 } catch (IOException e) {
@@ -303,37 +281,37 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
 
         boolean retValue = false;
         RrdDb rrdDb = null;
+        StoreChecker checker = getStoreChecker();
         try {
-            if ( rrdFile.isFile() ) {
-                rrdDb = new RrdDb(getRrdName());
+            RrdDef newDef = getRrdDef();
+            String newFingerprint = StoreChecker.fingerprint(newDef);
+            //Not modified since the last check, no need to open it
+            if(checker != null && rrdFile.isFile() && checker.isUnchanged(rrdFile, newFingerprint)) {
+                return true;
+            }
+            if ( StoreOpener.exists(getRrdName()) ) {
+                rrdDb = new RrdDb(getRrdName(), StoreOpener.getBackend());
                 //old definition
-                RrdDef tmpdef = rrdDb.getRrdDef();
-                Date startTime = new Date();
-                tmpdef.setStartTime(startTime);
-                String oldDef = tmpdef.dump();
-                long oldstep = tmpdef.getStep();
-                log(Level.TRACE, "Definition found: %s\n", oldDef);
-
-                //new definition
-                tmpdef = getRrdDef();
-                tmpdef.setStartTime(startTime);
-                String newDef = tmpdef.dump();
-                long newstep = tmpdef.getStep();
-
-                if(newstep != oldstep ) {
+                RrdDef oldDef = rrdDb.getRrdDef();
+                log(Level.TRACE, "Definition found: %s\n", oldDef.dump());
+
+                if(newDef.getStep() != oldDef.getStep() ) {
                     log(Level.ERROR, "step changed, you're in trouble" );
                     return false;
                 }
-                else if(! newDef.equals(oldDef)) {
+                else if(! newFingerprint.equals(StoreChecker.fingerprint(oldDef))) {
 
                     rrdDb.close();
                     rrdDb = null;
-                    upgrade();
-                    rrdDb = new RrdDb(getRrdName());
+                    getStoreUpgrader().upgrade(this);
+                    rrdDb = new RrdDb(getRrdName(), StoreOpener.getBackend());
                 }
                 log(Level.TRACE, "******");
             } else
                 create();
+            //The stores packed in a container have no file of their own
+            if(checker != null && rrdFile.isFile())
+                checker.saveFingerprint(rrdFile, newFingerprint);
             retValue = true;
         } catch (Exception e) {
             log(Level.ERROR, e, "Store %s unusable: %s", getRrdName(), e);
@@ -412,39 +390,53 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
     }
 
     /**
-     * Store the values on the rrd backend.
-     * @param oneSample
+     * Write a filled sample in the store, using the write-behind stage of the host list if there is one.
+     * The store is released before returning, the write-behind stage only keeps the time and values.
+     * @param rrdDb the store used to create the sample
+     * @param oneSample the sample
+     * @param timeout how long to wait for the write-behind stage, in ms
+     * @return true if the sample was written or queued
      */
-    private boolean updateSample(Sample oneSample) {
-        if(isCollectRunning()) {
-            Map<KeyType, ValueType> sampleVals = getNewSampleValues();
-            return injectSample(oneSample, sampleVals);
+    protected boolean storeSample(RrdDb rrdDb, Sample oneSample, long timeout) {
+        HostsList hl = getHostList();
+        SampleWriter writer = hl != null ? hl.getSampleWriter() : null;
+        if(writer != null) {
+            //Only the values are queued, the store is released now and opened again by the writer
+            long time = oneSample.getTime();
+            double[] values = oneSample.getValues().clone();
+            StoreOpener.releaseRrd(rrdDb);
+            return writer.write(this, time, values, timeout);
+        }
+        try {
+            //The update clears the values of the sample
+            double[] values = oneSample.getValues().clone();
+            oneSample.update();
+            sampleStored(rrdDb, oneSample, values);
+            return true;
+        } catch (IOException e) {
+            log(Level.ERROR, e, "Error while storing sample: %s", e.getMessage());
+            return false;
+        } finally {
+            StoreOpener.releaseRrd(rrdDb);
         }
-        return false;
     }
 
     public boolean injectSample(Sample oneSample, Map<KeyType, ValueType> sampleVals) {
         if (sampleVals != null) {
             log(Level.TRACE, "Collected values: %s", sampleVals);
             if(getUptime() * pd.getUptimefactor() >= pd.getHeartBeatDefault()) {
-                //Set the default values that might be defined in the probe description
-                for(Map.Entry<String, Double> e: getPd().getDefaultValues().entrySet()) {
-                    oneSample.setValue(e.getKey(), e.getValue());
+                //The mapping is usually compiled by checkStore
+                CollectMapping<KeyType> mapping = compiledMapping;
+                if(mapping == null) {
+                    mapping = compileMapping();
+                    compiledMapping = mapping;
                 }
-                Map<?, String> nameMap = getCollectMapping();
-                log(Level.TRACE, "Collect keys: %s", nameMap);
                 Map<KeyType, Number>filteredSamples = filterValues(sampleVals);
                 log(Level.TRACE, "Filtered values: %s", filteredSamples);
-                for(Map.Entry<KeyType, Number> e: filteredSamples.entrySet()) {
-                    String dsName = nameMap.get(e.getKey());
-                    double value = e.getValue().doubleValue();
-                    if (dsName != null) {
-                        oneSample.setValue(dsName, value);
-                    }
-                    else {
-                        log(Level.TRACE, "Dropped entry: %s", e.getKey());
-                    }
-                }
+                //Default values that might be defined in the probe description are set for missing values
+                int dropped = mapping.fill(oneSample, filteredSamples);
+                if(dropped > 0)
+                    log(Level.TRACE, "Dropped %d entries", dropped);
                 modifySample(oneSample, sampleVals);
                 return true;
             }
@@ -463,7 +455,11 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
         long start = System.currentTimeMillis();
         boolean interrupted = true;
         if(! finished) {
-            log(Level.ERROR, "Using an unfinished probe");
+            //A store checked in the background is not an error
+            if(deferredCheck)
+                log(Level.DEBUG, "Store not checked yet");
+            else
+                log(Level.ERROR, "Using an unfinished probe");
             return;
         }
         if(running) {
@@ -476,19 +472,28 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
             running = true;
             log(Level.DEBUG,"launching collect");
             RrdDb rrdDb = null;
+            //The connections used by the probe will find the deadline there
+            CollectContext context = getCollectContext();
+            CollectContext previous = CollectContext.setCurrent(context);
+            CollectStatistics.Outcome outcome = null;
             try {
-                //No collect if the thread was interrupted
+                //No collect if the collect was stopped
                 if( isCollectRunning()) {
-                    rrdDb = StoreOpener.getRrd(getRrdName());
-                    Sample onesample = rrdDb.createSample();
-                    boolean updated = updateSample(onesample);
+                    //The store is only opened once the values are read, a slow agent don't hold it
+                    Map<KeyType, ValueType> sampleVals = getNewSampleValues();
                     //The collect might have been stopped
                     //during the reading of samples
-                    if( updated && isCollectRunning()) {
-                        if(namedLogger.isDebugEnabled())
-                            log(Level.DEBUG, "%s", onesample.dump());
-                        onesample.update();
-                        interrupted = false;
+                    if(sampleVals != null && isCollectRunning()) {
+                        rrdDb = StoreOpener.getRrd(getRrdName());
+                        Sample onesample = rrdDb.createSample(Util.getTimestamp(new Date(start)));
+                        if(injectSample(onesample, sampleVals) && isCollectRunning()) {
+                            if(namedLogger.isDebugEnabled())
+                                log(Level.DEBUG, "%s", onesample.dump());
+                            //The store is released by storeSample
+                            RrdDb toWrite = rrdDb;
+                            rrdDb = null;
+                            interrupted = ! storeSample(toWrite, onesample, context != null ? context.getRemaining() : 0);
+                        }
                     }
                 }
             }
@@ -516,17 +521,66 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
             finally  {
                 if(rrdDb != null)
                     StoreOpener.releaseRrd(rrdDb);
+                CollectContext.setCurrent(previous);
+                if(context != null && ! context.isRunning()) {
+                    cancelled.incrementAndGet();
+                    outcome = CollectStatistics.Outcome.TIMEOUT;
+                }
+                else if(context != null && System.currentTimeMillis() > context.getDeadline()) {
+                    overruns.incrementAndGet();
+                    outcome = CollectStatistics.Outcome.TIMEOUT;
+                    log(Level.WARN, "Collect ended after the deadline");
+                }
                 stopCollect();
             }
+            long end = System.currentTimeMillis();
             if(interrupted) {
-                long end = System.currentTimeMillis();
                 float elapsed = ((float)(end - start))/1000;
                 log(Level.DEBUG, "Interrupted after %.2fs", elapsed);
             }
+            if(outcome == null)
+                outcome = interrupted ? CollectStatistics.Outcome.FAILURE : CollectStatistics.Outcome.SUCCESS;
+            collectStats.record(end - start, outcome);
             running = false;
         }
     }
 
+    /**
+     * Called when the host collect was too slow and this probe was not collected
+     */
+    public void skipCollect() {
+        skipped.incrementAndGet();
+        log(Level.DEBUG, "Collect skipped");
+    }
+
+    /**
+     * @return the number of collects skipped because the host collect was too slow
+     */
+    public long getSkippedCollects() {
+        return skipped.get();
+    }
+
+    /**
+     * @return the number of collects that ended after their deadline
+     */
+    public long getOverruns() {
+        return overruns.get();
+    }
+
+    /**
+     * @return the number of collects stopped before their end, because the collect cycle was cancelled
+     */
+    public long getCancelledCollects() {
+        return cancelled.get();
+    }
+
+    /**
+     * @return the latency and outcomes of the collects of this probe
+     */
+    public CollectStatistics getCollectStatistics() {
+        return collectStats;
+    }
+
     /**
      * Return the string value of the probe as a path constitued of
      * the host name / the probe name
@@ -563,19 +617,66 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
      * @return The date
      */
     public Date getLastUpdate() {
-        Date lastUpdate = null;
-        RrdDb rrdDb = null;
+        LastSample last = lastSample;
+        if(last == null) {
+            try {
+                last = readLastSample();
+            } catch (Exception e) {
+                throw new RuntimeException("Unable to get last update date for " + getQualifiedName(), e);
+            }
+        }
+        return Util.getDate(last.time);
+    }
+
+    /**
+     * Read the last sample from the store and keep it, it's only needed once, the samples stored later are kept
+     * by {@link #sampleStored(RrdDb, Sample, double[])}
+     * @return the last sample
+     * @throws IOException
+     */
+    private LastSample readLastSample() throws IOException {
+        RrdDb rrdDb = StoreOpener.getRrd(getRrdName());
         try {
-            rrdDb = StoreOpener.getRrd(getRrdName());
-            lastUpdate = Util.getDate(rrdDb.getLastUpdateTime());
-        } catch (Exception e) {
-            throw new RuntimeException("Unable to get last update date for " + getQualifiedName(), e);
+            String[] dsNames = rrdDb.getDsNames();
+            Map<String, Number> values = new HashMap<String, Number>(dsNames.length);
+            for(int i = 0; i < dsNames.length ; i ++) {
+                values.put(dsNames[i], rrdDb.getDatasource(i).getLastValue());
+            }
+            LastSample last = new LastSample(rrdDb.getLastUpdateTime(), values);
+            //A sample might have been stored meanwhile
+            synchronized(this) {
+                if(lastSample == null || lastSample.time < last.time)
+                    lastSample = last;
+                return lastSample;
+            }
+        } finally {
+            StoreOpener.releaseRrd(rrdDb);
         }
-        finally {
-            if(rrdDb != null)
-                StoreOpener.releaseRrd(rrdDb);
+    }
+
+    /**
+     * Called once a sample is written in the store, its time and values are kept as the last ones
+     * and the recent window of the store is updated
+     * @param rrdDb the store, still opened
+     * @param oneSample the sample written
+     * @param values the values written, read before the update that clears them from the sample
+     */
+    void sampleStored(RrdDb rrdDb, Sample oneSample, double[] values) {
+        String[] dsNames = oneSample.getDsNames();
+        Map<String, Number> lastValues = new HashMap<String, Number>(dsNames.length);
+        for(int i = 0; i < dsNames.length; i++) {
+            lastValues.put(dsNames[i], values[i]);
         }
-        return lastUpdate;
+        LastSample last = new LastSample(oneSample.getTime(), lastValues);
+        synchronized(this) {
+            lastSample = last;
+        }
+        FetchCache cache = StoreOpener.getFetchCache();
+        if(cache != null)
+            cache.invalidate(getRrdName());
+        RecentWindows windows = StoreOpener.getRecentWindows();
+        if(windows != null)
+            windows.store(getRrdName(), rrdDb, oneSample.getTime(), values);
     }
 
     public boolean dsExist(String dsName) {
@@ -610,15 +711,41 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
      * @param fetchStart Starting timestamp for fetch request.
      * @param fetchEnd   Ending timestamp for fetch request.
      * @param resolution Fetch resolution.
-     * @return Request object that should be used to actually fetch data from RRD
+     * @return Request object that should be used to actually fetch data from RRD, it can be shared
+     * with other users through the {@link FetchCache}, so it must not be modified
      */
     public FetchData fetchData(ConsolFun consolFun, long fetchStart, long fetchEnd, long resolution) {
-        FetchData retValue = null;
+        //The range is aligned on the step, so close requests share the cached data
+        long step = getStep();
+        if(step > 0) {
+            fetchStart -= fetchStart % step;
+            if(fetchEnd % step != 0)
+                fetchEnd += step - fetchEnd % step;
+        }
+        String rrdName = getRrdName();
+        FetchCache cache = StoreOpener.getFetchCache();
+        long version = 0;
+        if(cache != null) {
+            FetchData cached = cache.get(rrdName, consolFun, fetchStart, fetchEnd, resolution);
+            if(cached != null)
+                return cached;
+            version = cache.getVersion(rrdName);
+        }
+        //The recent data are kept in memory
+        RecentWindows windows = StoreOpener.getRecentWindows();
+        FetchData retValue = windows != null ? windows.fetch(rrdName, consolFun, fetchStart, fetchEnd, resolution) : null;
+        if(retValue != null) {
+            if(cache != null)
+                cache.put(rrdName, consolFun, fetchStart, fetchEnd, resolution, retValue, version);
+            return retValue;
+        }
         RrdDb rrdDb = null;
         try {
-            rrdDb = StoreOpener.getRrd(getRrdName());
+            rrdDb = StoreOpener.getRrd(rrdName);
             FetchRequest fr = rrdDb.createFetchRequest(consolFun, fetchStart, fetchEnd, resolution);
             retValue = fr.fetchData();
+            if(cache != null)
+                cache.put(rrdName, consolFun, fetchStart, fetchEnd, resolution, retValue, version);
         } catch (Exception e) {
             log(Level.ERROR, e, "Unable to fetch data: %s", e.getMessage());
         }
@@ -630,22 +757,16 @@ public abstract class Probe<KeyType, ValueType> extends StarterNode implements C
     }
 
     public Map<String, Number> getLastValues() {
-        Map<String, Number> retValues = new HashMap<String, Number>();
-        RrdDb rrdDb = null;
-        try {
-            rrdDb = StoreOpener.getRrd(getRrdName());
-            String[] dsNames = rrdDb.getDsNames();
-            for(int i = 0; i < dsNames.length ; i ++) {
-                retValues.put(dsNames[i], rrdDb.getDatasource(i).getLastValue());
+        LastSample last = lastSample;
+        if(last == null) {
+            try {
+                last = readLastSample();
+            } catch (Exception e) {
+                log(Level.ERROR, e, "Unable to get last values: %s", e.getMessage());
+                return new HashMap<String, Number>();
             }
-        } catch (Exception e) {
-            log(Level.ERROR, e, "Unable to get last values: %s", e.getMessage());
-        }
-        finally {
-            if(rrdDb != null)
-                StoreOpener.releaseRrd(rrdDb);
         }
-        return retValues;
+        return new HashMap<String, Number>(last.values);
     }
 
     /**
@@ -2,7 +2,9 @@ package jrds;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
+import jrds.starter.CollectContext;
 import jrds.starter.Connection;
 
 import org.apache.log4j.Level;
@@ -61,7 +63,26 @@ public abstract class ProbeConnected<KeyType, ValueType, ConnectionClass extends
         }
         //Uptime is collected only once, by the connexion
         setUptime(cnx);
-        return getNewSampleValuesConnected(cnx);
+        if(cnx.isThreadSafe())
+            return getNewSampleValuesConnected(cnx);
+        //The connection is shared with the other probes of the host, it's not waited after the end of the collect
+        CollectContext context = getCollectContext();
+        long wait = context != null ? context.getRemaining() : getTimeout() * 1000L;
+        try {
+            if( ! cnx.getCollectLock().tryLock(wait, TimeUnit.MILLISECONDS)) {
+                log(Level.WARN, "Connection %s still busy at the end of the collect", cnx);
+                return null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        try {
+            return getNewSampleValuesConnected(cnx);
+        }
+        finally {
+            cnx.getCollectLock().unlock();
+        }
     }
 
     /**
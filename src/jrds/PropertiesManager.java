@@ -48,6 +48,9 @@ public class PropertiesManager extends Properties {
         public int step;
         public int timeout;
         public int numCollectors;
+        public int collectorQueue;
+        public int spread;
+        public int hostParallelism;
     }
 
     private final FileFilter filter = new  FileFilter() {
@@ -302,6 +305,25 @@ public class PropertiesManager extends Properties {
         autocreate = parseBoolean(getProperty("autocreate", "false"));
         configdir = prepareDir(getProperty("configdir"), autocreate, true);
         rrddir = prepareDir(getProperty("rrddir"), autocreate, false);
+        //More store roots, the hosts are spread over all of them
+        storePlacement = null;
+        if(rrddir != null) {
+            List<File> roots = new ArrayList<File>();
+            roots.add(rrddir);
+            for(String path: getProperty("rrddirs", "").split(",")) {
+                path = path.trim();
+                if(path.isEmpty())
+                    continue;
+                File root = prepareDir(path, autocreate, false);
+                //The hosts placed on a missing root would silently change of root
+                if(root == null)
+                    throw new RuntimeException("Store root " + path + " can't be used");
+                if(! roots.contains(root))
+                    roots.add(root);
+            }
+            storePlacement = new StorePlacement(roots);
+        }
+        storeFanout = parseInteger(getProperty("storeFanout", "0"));
         //Different place to find the temp directory
         tmpdir = prepareDir(getProperty("tmpdir"), autocreate, true);
         if(tmpdir == null)
@@ -319,6 +341,9 @@ public class PropertiesManager extends Properties {
         step = parseInteger(getProperty("step", "300"));
         timeout = parseInteger(getProperty("timeout", "10"));
         numCollectors = parseInteger(getProperty("collectorThreads", "1"));
+        collectorQueue = parseInteger(getProperty("collectorQueue", "0"));
+        collectSpread = parseInteger(getProperty("collectSpread", "40"));
+        hostParallelism = parseInteger(getProperty("hostParallelism", "1"));
         String propertiesList = getProperty("timers", "");
         if(! propertiesList.trim().isEmpty()) {
             for(String timerName: propertiesList.split(",")) {
@@ -327,6 +352,9 @@ public class PropertiesManager extends Properties {
                 ti.step = parseInteger(getProperty("timer." + timerName + ".step", Integer.toString(step)));
                 ti.timeout = parseInteger(getProperty("timer." + timerName + ".timeout", Integer.toString(timeout)));
                 ti.numCollectors = parseInteger(getProperty("timer." + timerName + ".collectorThreads", Integer.toString(numCollectors)));
+                ti.collectorQueue = parseInteger(getProperty("timer." + timerName + ".collectorQueue", Integer.toString(collectorQueue)));
+                ti.spread = parseInteger(getProperty("timer." + timerName + ".collectSpread", Integer.toString(collectSpread)));
+                ti.hostParallelism = parseInteger(getProperty("timer." + timerName + ".hostParallelism", Integer.toString(hostParallelism)));
 
                 timers.put(timerName, ti);
             }
@@ -336,9 +364,29 @@ public class PropertiesManager extends Properties {
         ti.step = step;
         ti.timeout = timeout;
         ti.numCollectors = numCollectors;
+        ti.collectorQueue = collectorQueue;
+        ti.spread = collectSpread;
+        ti.hostParallelism = hostParallelism;
         timers.put(Timer.DEFAULTNAME, ti);
 
-        dbPoolSize = parseInteger(getProperty("dbPoolSize", "10")) + numCollectors;
+        nioSyncPeriod = parseInteger(getProperty("nioSyncPeriod", "300"));
+        nioMaxMapped = parseInteger(getProperty("nioMaxMapped", "0")) * 1024L * 1024L;
+        fetchCacheSize = parseInteger(getProperty("fetchCacheSize", "16")) * 1024L * 1024L;
+        renderCacheSize = parseInteger(getProperty("renderCacheSize", "16")) * 1024L * 1024L;
+        recentWindowHours = parseInteger(getProperty("recentWindowHours", "2"));
+        recentWindowSize = parseInteger(getProperty("recentWindowSize", "32")) * 1024L * 1024L;
+        writerThreads = parseInteger(getProperty("writerThreads", "2"));
+        writerQueue = parseInteger(getProperty("writerQueue", "64"));
+        checkThreads = parseInteger(getProperty("checkThreads", "4"));
+        checkWait = parseInteger(getProperty("checkWait", "10"));
+        upgradeRate = parseInteger(getProperty("upgradeRate", "0")) * 1024L;
+        String journal = getProperty("upgradeJournal");
+        upgradeJournal = journal != null && ! journal.trim().isEmpty() ? new File(journal.trim()) : null;
+        //Each collector and writer thread keeps a store open while it's working
+        dbPoolSize = parseInteger(getProperty("dbPoolSize", "10")) + numCollectors + writerThreads;
+
+        circuitThreshold = parseInteger(getProperty("circuitThreshold", "3"));
+        circuitMaxDelay = parseInteger(getProperty("circuitMaxDelay", "3600"));
 
         strictparsing = parseBoolean(getProperty("strictparsing", "false"));
         try {
@@ -492,13 +540,32 @@ public class PropertiesManager extends Properties {
 
     public File configdir;
     public File rrddir;
+    public StorePlacement storePlacement;
+    public int storeFanout;
     public File tmpdir;
     public String urlpngroot;
     public String logfile;
     public int step;
     public Map<String, TimerInfo> timers = new HashMap<String, TimerInfo>();
     public int numCollectors;
+    public int collectorQueue;
+    public int collectSpread;
+    public int hostParallelism;
     public int dbPoolSize;
+    public int writerThreads;
+    public int writerQueue;
+    public int checkThreads;
+    public int checkWait;
+    public long upgradeRate;
+    public File upgradeJournal;
+    public int nioSyncPeriod;
+    public long nioMaxMapped;
+    public long fetchCacheSize;
+    public long renderCacheSize;
+    public int recentWindowHours;
+    public long recentWindowSize;
+    public int circuitThreshold = 3;
+    public int circuitMaxDelay = 3600;
     public final Set<URI> libspath = new HashSet<URI>();
     public boolean strictparsing = false;
     public ClassLoader extensionClassLoader;
@@ -0,0 +1,358 @@
+package jrds;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.core.ArcDef;
+import org.rrd4j.core.DsDef;
+import org.rrd4j.core.FetchData;
+import org.rrd4j.core.RrdBackend;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.Sample;
+
+/**
+ * The recent data of the stores, kept in memory at the resolution of the step, so the graphs of the last hours
+ * don't read the stores.<p>
+ * A window is a small store with the same datasources and only the archives of one step, limited to the
+ * configured duration. It's created from the state of the store the first time a sample is written, so it's
+ * filled from the start with the recent history, and then it's updated with the same samples than the store.<p>
+ * The windows are kept outside of the heap, the total size is bounded. When it's full, the windows not updated
+ * for a whole period are dropped, and if there is still no room, the new windows are refused for a while.
+ * @author Fabrice Bacchella
+ */
+public class RecentWindows {
+    static private final Logger logger = Logger.getLogger(RecentWindows.class);
+    //How long the new windows are refused once there is no room for them, in seconds
+    static private final long RETRYDELAY = 60;
+
+    private final class OffHeapBackend extends RrdBackend {
+        private ByteBuffer buffer = null;
+
+        OffHeapBackend(String path) {
+            super(path);
+        }
+
+        @Override
+        protected void write(long offset, byte[] b) throws IOException {
+            ByteBuffer dup = buffer.duplicate();
+            dup.position((int) offset);
+            dup.put(b);
+        }
+
+        @Override
+        protected void read(long offset, byte[] b) throws IOException {
+            ByteBuffer dup = buffer.duplicate();
+            dup.position((int) offset);
+            dup.get(b);
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return buffer == null ? 0 : buffer.capacity();
+        }
+
+        @Override
+        protected void setLength(long length) throws IOException {
+            if(buffer != null || ! reserve(length))
+                throw new IOException("No room for the recent window " + getPath());
+            buffer = ByteBuffer.allocateDirect((int) length);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(buffer != null)
+                release(buffer.capacity());
+            buffer = null;
+        }
+    }
+
+    private final RrdBackendFactory factory = new RrdBackendFactory() {
+        @Override
+        protected RrdBackend open(String path, boolean readOnly) throws IOException {
+            return new OffHeapBackend(path);
+        }
+        @Override
+        protected boolean exists(String path) throws IOException {
+            return false;
+        }
+        protected boolean shouldValidateHeader(String path) throws IOException {
+            return false;
+        }
+        @Override
+        public String getName() {
+            return "RECENT";
+        }
+    };
+
+    private static final class Window {
+        final RrdDb db;
+        final long step;
+        final Set<ConsolFun> cfs;
+        volatile long lastUpdate;
+        Window(RrdDb db, long step, Set<ConsolFun> cfs) throws IOException {
+            this.db = db;
+            this.step = step;
+            this.cfs = cfs;
+            this.lastUpdate = db.getLastUpdateTime();
+        }
+    }
+
+    private final long duration;
+    private long maxBytes;
+    private final Map<String, Window> windows = new HashMap<String, Window>();
+    //The stores without archives at the step resolution
+    private final Set<String> refused = new HashSet<String>();
+    private long bytes = 0;
+    private long retryAfter = 0;
+    private long noRoom = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long created = 0;
+    private long dropped = 0;
+
+    /**
+     * @param duration how long the recent data are kept, in seconds
+     * @param maxBytes the maximum size of all the windows
+     */
+    public RecentWindows(long duration, long maxBytes) {
+        this.duration = duration;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Check that there is room for a new window, the stale windows are dropped if needed. When there is still
+     * no room, the new windows are refused without looking again for {@link #RETRYDELAY} seconds.
+     */
+    private synchronized boolean hasRoom(long length) {
+        if(bytes + length <= maxBytes)
+            return true;
+        long now = System.currentTimeMillis() / 1000;
+        if(now >= retryAfter) {
+            dropStale(now);
+            if(bytes + length <= maxBytes)
+                return true;
+            retryAfter = now + RETRYDELAY;
+            Util.log(this, logger, Level.INFO, null, "No room left for the recent windows, %d bytes used, the new ones are refused for %ds", bytes, RETRYDELAY);
+        }
+        noRoom++;
+        return false;
+    }
+
+    private synchronized boolean reserve(long length) {
+        if(! hasRoom(length))
+            return false;
+        bytes += length;
+        return true;
+    }
+
+    private synchronized void release(long length) {
+        bytes -= length;
+    }
+
+    private void dropStale(long now) {
+        Iterator<Window> i = windows.values().iterator();
+        while(i.hasNext()) {
+            Window w = i.next();
+            if(now - w.lastUpdate > duration) {
+                i.remove();
+                dropped++;
+                close(w);
+            }
+        }
+    }
+
+    private void close(Window w) {
+        synchronized(w) {
+            try {
+                w.db.close();
+            } catch (IOException e) {
+            }
+        }
+    }
+
+    /**
+     * Update the window of a store with a sample just written in it. The window is created if needed.
+     * @param path the path of the store
+     * @param db the store, still opened
+     * @param time the time of the sample written
+     * @param values the values written, a sample is cleared once it's written
+     */
+    public void store(String path, RrdDb db, long time, double[] values) {
+        Window w;
+        synchronized(this) {
+            if(refused.contains(path))
+                return;
+            w = windows.get(path);
+            //No room for a new window yet
+            if(w == null && System.currentTimeMillis() / 1000 < retryAfter) {
+                noRoom++;
+                return;
+            }
+        }
+        try {
+            if(w != null && w.db.getDsCount() == db.getDsCount()) {
+                synchronized(w) {
+                    Sample copy = w.db.createSample(time);
+                    copy.setValues(values);
+                    copy.update();
+                    w.lastUpdate = time;
+                }
+                return;
+            }
+        } catch (Exception e) {
+            Util.log(this, logger, Level.DEBUG, e, "Window of %s dropped: %s", path, e.getMessage());
+        }
+        remove(path);
+        create(path, db);
+    }
+
+    private void create(String path, RrdDb db) {
+        try {
+            RrdDef storeDef = db.getRrdDef();
+            long step = storeDef.getStep();
+            RrdDef def = new RrdDef("recent:" + path, db.getLastUpdateTime(), step);
+            for(DsDef ds: storeDef.getDsDefs()) {
+                def.addDatasource(ds);
+            }
+            Set<ConsolFun> cfs = EnumSet.noneOf(ConsolFun.class);
+            long rows = Math.max(duration / step, 1);
+            for(ArcDef arc: storeDef.getArcDefs()) {
+                //Only the archives at the step resolution, not longer than in the store
+                if(arc.getSteps() == 1 && ! cfs.contains(arc.getConsolFun())) {
+                    def.addArchive(arc.getConsolFun(), arc.getXff(), 1, (int) Math.min(rows, arc.getRows()));
+                    cfs.add(arc.getConsolFun());
+                }
+            }
+            if(cfs.isEmpty()) {
+                refuse(path);
+                return;
+            }
+            //Checked before copying the store
+            if(! hasRoom(def.getEstimatedSize()))
+                return;
+            RrdDb windowDb = new RrdDb(def, factory);
+            Window w;
+            try {
+                //The recent history is copied from the store
+                db.copyStateTo(windowDb);
+                w = new Window(windowDb, step, cfs);
+            } catch (IOException e) {
+                windowDb.close();
+                throw e;
+            } catch (RuntimeException e) {
+                windowDb.close();
+                throw e;
+            }
+            synchronized(this) {
+                windows.put(path, w);
+                created++;
+            }
+        } catch (IOException e) {
+            //It will be tried again later
+            Util.log(this, logger, Level.DEBUG, e, "No window for %s: %s", path, e.getMessage());
+        } catch (RuntimeException e) {
+            Util.log(this, logger, Level.DEBUG, e, "No window for %s: %s", path, e.getMessage());
+            refuse(path);
+        }
+    }
+
+    private synchronized void refuse(String path) {
+        refused.add(path);
+    }
+
+    /**
+     * Fetch the data of a store from its window, if the range fits in it
+     * @param path the path of the store
+     * @param cf the consolidation function
+     * @param start the start of the range
+     * @param end the end of the range
+     * @param resolution the resolution needed
+     * @return the data, or null if they must be read from the store
+     */
+    public FetchData fetch(String path, ConsolFun cf, long start, long end, long resolution) {
+        Window w;
+        synchronized(this) {
+            w = windows.get(path);
+            if(w == null || resolution > w.step || ! w.cfs.contains(cf)) {
+                misses++;
+                return null;
+            }
+        }
+        FetchData fd = null;
+        synchronized(w) {
+            try {
+                if(start >= w.db.getArchive(cf, 1).getStartTime())
+                    fd = w.db.createFetchRequest(cf, start, end, resolution).fetchData();
+            } catch (IOException e) {
+                Util.log(this, logger, Level.DEBUG, e, "Window of %s unusable: %s", path, e.getMessage());
+            }
+        }
+        synchronized(this) {
+            if(fd != null)
+                hits++;
+            else
+                misses++;
+        }
+        return fd;
+    }
+
+    /**
+     * Drop the window of a store, it will be created again with the next sample
+     * @param path the path of the store
+     */
+    public void remove(String path) {
+        Window w;
+        synchronized(this) {
+            w = windows.remove(path);
+            refused.remove(path);
+            if(w != null)
+                dropped++;
+        }
+        if(w != null)
+            close(w);
+    }
+
+    /**
+     * @return how long the recent data are kept, in seconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * @param maxBytes the maximum size of all the windows
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @return the counters of the windows, used for the status and JMX
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("windows", (long) windows.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("created", created);
+        stats.put("refused", (long) refused.size());
+        stats.put("noRoom", noRoom);
+        stats.put("dropped", dropped);
+        return stats;
+    }
+
+}
@@ -2,47 +2,84 @@ package jrds;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.ReentrantLock;
 
-import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
 
+/**
+ * Render the graphs in the background and keep the images in memory.<p>
+ * A rendered graph is identified by its node, its time range, already aligned on the step, and its limits, so
+ * the same relative period requested at different times within a step share the image. The size of the images
+ * is bounded, the least recently used are removed first. A render still running is never removed.<p>
+ * The concurrent requests for the same graph share a single render, they wait for the one already running
+ * instead of rendering the graph again.
+ */
 public class Renderer {
-    final int PRIME = 31;
-    final File tmpDir;
+    //The memory used by an entry, besides the image
+    static private final long ENTRYOVERHEAD = 512;
+
+    /**
+     * The identity of a rendered graph
+     */
+    private static final class Key {
+        final GraphNode node;
+        final long start;
+        final long end;
+        final long min;
+        final long max;
+        final int hash;
+        Key(Graph graph) {
+            this.node = graph.getNode();
+            this.start = graph.getStart().getTime();
+            this.end = graph.getEnd().getTime();
+            this.min = Double.doubleToLongBits(graph.getMin());
+            this.max = Double.doubleToLongBits(graph.getMax());
+            int h = node.hashCode();
+            h = 31 * h + (int) (start ^ (start >>> 32));
+            h = 31 * h + (int) (end ^ (end >>> 32));
+            h = 31 * h + (int) (min ^ (min >>> 32));
+            h = 31 * h + (int) (max ^ (max >>> 32));
+            this.hash = h;
+        }
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+        @Override
+        public boolean equals(Object obj) {
+            if(this == obj)
+                return true;
+            if(! (obj instanceof Key))
+                return false;
+            Key other = (Key) obj;
+            return start == other.start && end == other.end && min == other.min && max == other.max
+                    && node.equals(other.node);
+        }
+    }
 
     public class RendererRun implements Runnable {
-        Graph graph;
-        boolean finished = false;
-        final ReentrantLock running = new ReentrantLock(); 
-        File destFile;
+        final Graph graph;
+        final Key key;
+        volatile boolean finished = false;
+        final ReentrantLock running = new ReentrantLock();
+        private volatile byte[] png = null;
 
-        public RendererRun(Graph graph) throws IOException {
+        RendererRun(Graph graph, Key key) {
             this.graph = graph;
-            destFile = new File(tmpDir, Integer.toHexString(graph.hashCode()) + ".png");
-        }
-
-        @Override
-        protected void finalize() throws Throwable {
-            clean();
-            super.finalize();
+            this.key = key;
         }
 
         public void run() {
@@ -56,45 +93,44 @@ public class Renderer {
         }
 
         public boolean isReady() {
-            boolean retValue = false;
             //isReady is sometimes call before run
             if(! finished ) {
                 writeImg();
             }
-            if(destFile.isFile() && destFile.canRead() && destFile.length() > 0)
-                retValue = true;
-            return retValue;
-
+            return png != null;
         }
 
         public void send(OutputStream out) throws IOException {
-            if(isReady()){
-                WritableByteChannel outC = Channels.newChannel(out);
-                FileInputStream inStream = new FileInputStream(destFile);
-                FileChannel inC = inStream.getChannel();
-                inC.transferTo(0, destFile.length(), outC);
-                inStream.close();
+            byte[] current = isReady() ? png : null;
+            //Might be evicted meanwhile
+            if(current != null) {
+                out.write(current);
             }
         }
 
         public void write() throws IOException {
             OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(
                     graph.getPngName())));
-            send(out);
-            out.close();
+            try {
+                send(out);
+            } finally {
+                out.close();
+            }
         }
 
+        /**
+         * Drop the image
+         */
         public void clean(){
-            if(logger.isTraceEnabled()) {
-                logger.trace("clean in");
-                for(StackTraceElement e: Thread.currentThread().getStackTrace()) {
-                    logger.trace("    " + e.toString());
-                }
-            }
-            if(destFile.isFile())
-                if( ! destFile.delete() && destFile.isFile()) {
-                    logger.warn("Failed to delete " + destFile.getPath());
-                }
+            png = null;
+        }
+
+        /**
+         * @return the size of the image, 0 if it's not rendered
+         */
+        long getSize() {
+            byte[] current = png;
+            return current == null ? 0 : current.length;
         }
 
         private synchronized void writeImg() {
@@ -102,20 +138,14 @@ public class Renderer {
             try {
                 if( ! finished) {
                     long starttime = System.currentTimeMillis();
-                    OutputStream out = new BufferedOutputStream(new FileOutputStream(destFile));
-                    long middletime = System.currentTimeMillis();
-                    graph.writePng(out);
+                    png = graph.getPngBytes();
                     if(logger.isTraceEnabled()) {
                         long endtime = System.currentTimeMillis();
-                        long duration1 = (middletime - starttime );
-                        long duration2 = (endtime - middletime );
-                        logger.trace("Graph " + graph.getQualifiedName() + " renderding ran for (ms) " + duration1 + ":" + duration2);	
+                        logger.trace("Graph " + graph.getQualifiedName() + " renderding ran for (ms) " + (endtime - starttime));
                     }
                 }
-            } catch (FileNotFoundException e) {
-                logger.error("Error with temporary output file: " +e);
             } catch (IOException e) {
-                logger.error("Error with temporary output file: " +e);
+                logger.error("Error rendering graph: " +e);
                 Throwable cause = e.getCause();
                 if(cause != null)
                     logger.error("    Cause was: " + cause);
@@ -132,9 +162,12 @@ public class Renderer {
                     logger.error(message, e);
                 else
                     logger.error(message);
-            } finally {						
+            } finally {
                 //Always set to true, we do not try again in case of failure
-                finished = true;
+                if(! finished) {
+                    finished = true;
+                    renderDone(this);
+                }
                 running.unlock();
             }
         }
@@ -147,7 +180,6 @@ public class Renderer {
     };
 
     static private final Logger logger = Logger.getLogger(Renderer.class);
-    static private final float hashTableLoadFactor = 0.75f;
     final private Object counter = new Object() {
         int i = 0;
         @Override
@@ -156,7 +188,7 @@ public class Renderer {
         }
     };
 
-    private final ExecutorService tpool =  Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 3, 
+    private final ExecutorService tpool =  Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors() * 3,
             new ThreadFactory() {
         public Thread newThread(Runnable r) {
             String threadName = "RendererThread" + counter;
@@ -167,78 +199,115 @@ public class Renderer {
         }
     }
             );
-    private int cacheSize;
-    private Map<Integer, RendererRun> rendered;
+    private final long maxBytes;
+    //In access order, the least recently used first
+    private final LinkedHashMap<Key, RendererRun> rendered = new LinkedHashMap<Key, RendererRun>(16, 0.75f, true);
+    //The graphs by their hash code, used as an id in the URLs, the colliding ids are removed
+    private final Map<Integer, RendererRun> ids = new HashMap<Integer, RendererRun>();
+    private long bytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    //The renders avoided because the same graph was already being rendered
+    private long coalesced = 0;
+    private long failures = 0;
 
-    public Renderer(int cacheSize, File tmpDir) {
-        this.tmpDir = tmpDir;
-        this.cacheSize = cacheSize;
-        Map<Integer, RendererRun> m = new LinkedHashMap<Integer, RendererRun>(cacheSize + 5 , hashTableLoadFactor, true) {
-            private static final long serialVersionUID = 1L;
+    /**
+     * @param maxBytes the maximum size of the rendered images kept
+     */
+    public Renderer(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
 
-            /* (non-Javadoc)
-             * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
-             */
-            @Override
-            protected boolean removeEldestEntry(Entry<Integer, RendererRun> eldest) {
-                RendererRun rr = eldest.getValue();
-                if( rr != null && rr.finished &&  size() > Renderer.this.cacheSize) {
-                    return true;
-                }
-                else if (rr != null &&  size() > Renderer.this.cacheSize){
-                    Util.log(null, logger, Level.DEBUG, null, "Graph queue too short, it's now %d instead of %d", size(), Renderer.this.cacheSize);
-                }
-                return false;
+    /**
+     * Find the render of a graph, it's started if needed. A render still running is always shared.
+     * @param graph the graph
+     * @param reuse if a finished render can be used, if not it's done again
+     */
+    private RendererRun getRun(Graph graph, boolean reuse) {
+        Key key = new Key(graph);
+        RendererRun runRender;
+        synchronized(this) {
+            runRender = rendered.get(key);
+            if(runRender != null && ! runRender.finished) {
+                coalesced++;
+                return runRender;
             }
-
-            /* (non-Javadoc)
-             * @see java.util.HashMap#remove(java.lang.Object)
-             */
-            @Override
-            public RendererRun remove(Object key) {
-                RendererRun rr =  super.remove(key);
-                rr.clean();
-                return rr;
+            else if(runRender != null && reuse) {
+                hits++;
+                return runRender;
             }
-
-            /* (non-Javadoc)
-             * @see java.lang.Object#finalize()
-             */
-            @Override
-            protected void finalize() throws Throwable {
-                for(RendererRun rr: this.values()) {
-                    rr.clean();
-                }
-                super.finalize();
+            else if(runRender != null) {
+                rendered.remove(key);
+                remove(runRender);
             }
+            misses++;
+            runRender = new RendererRun(graph, key);
+            rendered.put(key, runRender);
+            bytes += ENTRYOVERHEAD;
+            int id = graph.hashCode();
+            RendererRun previous = ids.get(id);
+            if(previous == null || previous.key.equals(key))
+                ids.put(id, runRender);
+            else
+                ids.remove(id);
+            evict();
+        }
+        try {
+            tpool.execute(runRender);
+        }
+        catch(RejectedExecutionException ex) {
+            logger.warn("Render thread dropped for graph " + graph);
+        }
+        logger.debug("wants to render " + runRender);
+        return runRender;
+    }
 
-        };
-        rendered =  Collections.synchronizedMap(m);	
+    /**
+     * Called when a render is finished, to count its size. A failed render is not kept, the next request
+     * will try again instead of always rendering synchronously.
+     */
+    private synchronized void renderDone(RendererRun runRender) {
+        if(rendered.get(runRender.key) != runRender)
+            return;
+        if(runRender.png == null) {
+            failures++;
+            rendered.remove(runRender.key);
+            remove(runRender);
+            return;
+        }
+        bytes += runRender.getSize();
+        evict();
     }
 
-    public void render(Graph graph) throws IOException {
-        if( ! rendered.containsKey(graph.hashCode())) {
-            synchronized(rendered){
-                if( ! rendered.containsKey(graph.hashCode())) {
-                    RendererRun runRender = new RendererRun(graph);
-                    // Create graphics object
-                    rendered.put(graph.hashCode(), runRender);
-                    try {
-                        tpool.execute(runRender);
-                    }
-                    catch(RejectedExecutionException ex) {
-                        logger.warn("Render thread dropped for graph " + graph);
-                    }
-                    logger.debug("wants to render " + runRender);
-                }
-            }
+    private void evict() {
+        Iterator<RendererRun> i = rendered.values().iterator();
+        while(bytes > maxBytes && i.hasNext()) {
+            RendererRun rr = i.next();
+            if(! rr.finished)
+                continue;
+            i.remove();
+            remove(rr);
+            evictions++;
         }
     }
 
-    public Graph getGraph(int key) {
+    private void remove(RendererRun rr) {
+        bytes -= ENTRYOVERHEAD + rr.getSize();
+        int id = rr.graph.hashCode();
+        if(ids.get(id) == rr)
+            ids.remove(id);
+        //Not cleaned, a request might still be sending it
+    }
+
+    public void render(Graph graph) throws IOException {
+        getRun(graph, true);
+    }
+
+    public synchronized Graph getGraph(int key) {
         Graph g = null;
         if(key != 0) {
-            RendererRun rr = rendered.get(key);
+            RendererRun rr = ids.get(key);
             if(rr != null)
                 g = rr.graph;
         }
@@ -246,31 +315,13 @@ public class Renderer {
     }
 
     public boolean isReady(Graph graph) {
-        RendererRun runRender = null;
-        runRender = rendered.get(graph.hashCode());
-        if( runRender == null) {
-            try {
-                render(graph);
-                runRender = rendered.get(graph.hashCode());
-            }
-            // If cannot launch render, will always be false
-            catch (IOException e) {
-                logger.error("graph " + graph + " will not be calculated:" + e);
-                runRender = null;
-            }
-        }
-        return (runRender != null) && runRender.isReady();
+        return getRun(graph, true).isReady();
     }
 
     public void send(Graph graph, OutputStream out) throws IOException {
-        RendererRun runRender = null;
-        try {
-            runRender = rendered.get(graph.hashCode());
-        } catch (Exception e) {
-            logger.error("Error with probe: " + e);
-        }
-        if(runRender != null && runRender.isReady()) {
-            runRender.send(out);
+        byte[] png = getPng(graph);
+        if(png != null) {
+            out.write(png);
         }
         else {
             logger.info("No valid precalculated render found for " + graph);
@@ -279,33 +330,54 @@ public class Renderer {
         }
     }
 
-    public FileChannel sendInfo(Graph graph) {
-        RendererRun runRender = null;
-        try {
-            runRender = rendered.get(graph.hashCode());
-        } catch (Exception e) {
-            logger.error("Error with probe: " + e);
-        }
-        if(runRender != null && runRender.isReady()) {
-            try {
-                return new FileInputStream(runRender.destFile).getChannel();
-            } catch (FileNotFoundException e) {
-                return null;
-            }
-        }
-        else {
-            return null;
-        }	    
+    /**
+     * @param graph the graph
+     * @return the rendered image, or null if it failed
+     */
+    public byte[] getPng(Graph graph) {
+        return getPng(graph, true);
+    }
+
+    /**
+     * Get the image of a graph, the concurrent requests for the same graph wait for the same render
+     * @param graph the graph
+     * @param reuse if an image already rendered can be used, if not it's rendered again
+     * @return the rendered image, or null if it failed
+     */
+    public byte[] getPng(Graph graph, boolean reuse) {
+        RendererRun runRender = getRun(graph, reuse);
+        return runRender.isReady() ? runRender.png : null;
     }
 
-    public Collection<RendererRun> getWaitings() {
-        return rendered.values();
+    public synchronized Collection<RendererRun> getWaitings() {
+        return new ArrayList<RendererRun>(rendered.values());
+    }
+
+    /**
+     * @return the counters of the cache, used for the status and JMX
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("entries", (long) rendered.size());
+        stats.put("bytes", bytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("hits", hits);
+        stats.put("misses", misses);
+        stats.put("evictions", evictions);
+        stats.put("coalesced", coalesced);
+        stats.put("failures", failures);
+        return stats;
     }
 
     public void finish() {
         tpool.shutdownNow();
-        for(RendererRun rr: rendered.values()) {
-            rr.clean();
+        synchronized(this) {
+            for(RendererRun rr: rendered.values()) {
+                rr.clean();
+            }
+            rendered.clear();
+            ids.clear();
+            bytes = 0;
         }
     }
 }
@@ -0,0 +1,281 @@
+package jrds;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import jrds.starter.CollectStatistics;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.Sample;
+
+/**
+ * The write-behind stage of the collect.<p>
+ * A probe push the time and values of its sample, a small pool of writer threads open the stores
+ * and update them. The samples of a batch are grouped by store, so each store is opened once for all its
+ * samples. Each store is always written by the same thread, so the samples of a probe are written in order. The queues are bounded, a collect waits for a free slot until its deadline and
+ * the sample is dropped if there is still none.<p>
+ * When it's stopped, the queued samples are written before the threads end, the samples submitted after that
+ * are written by the submitting thread.<p>
+ * With a backend that keeps the modified stores in memory, they are written at the end of each batch.
+ * @author Fabrice Bacchella
+ */
+public class SampleWriter {
+    static private final Logger logger = Logger.getLogger(SampleWriter.class);
+    static private final int BATCHSIZE = 64;
+
+    private static final class PendingSample {
+        final Probe<?,?> probe;
+        final long time;
+        final double[] values;
+        final long queued;
+        PendingSample(Probe<?,?> probe, long time, double[] values) {
+            this.probe = probe;
+            this.time = time;
+            this.values = values;
+            this.queued = System.currentTimeMillis();
+        }
+    }
+
+    private final String name;
+    private final List<BlockingQueue<PendingSample>> queues;
+    private final List<Thread> writers;
+    private volatile boolean running = true;
+
+    private final AtomicLong queued = new AtomicLong(0);
+    private final AtomicLong written = new AtomicLong(0);
+    private final AtomicLong dropped = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final CollectStatistics writeStats = new CollectStatistics();
+    private final CollectStatistics lagStats = new CollectStatistics();
+
+    /**
+     * Build the writer and start its threads
+     * @param name the name used for the threads
+     * @param numWriters the number of writer threads
+     * @param queueSize the number of samples that can be waiting, shared between the threads
+     */
+    public SampleWriter(String name, int numWriters, int queueSize) {
+        if(numWriters < 1)
+            throw new IllegalArgumentException("At least one writer thread is needed");
+        this.name = name;
+        int shardSize = Math.max(queueSize / numWriters, 1);
+        queues = new ArrayList<BlockingQueue<PendingSample>>(numWriters);
+        writers = new ArrayList<Thread>(numWriters);
+        for(int i = 0; i < numWriters; i++) {
+            final BlockingQueue<PendingSample> queue = new ArrayBlockingQueue<PendingSample>(shardSize);
+            queues.add(queue);
+            Thread t = new Thread(name + "/WriterThread" + i) {
+                @Override
+                public void run() {
+                    drain(queue);
+                }
+            };
+            t.setDaemon(true);
+            writers.add(t);
+        }
+        for(Thread t: writers) {
+            t.start();
+        }
+    }
+
+    private void drain(BlockingQueue<PendingSample> queue) {
+        List<PendingSample> batch = new ArrayList<PendingSample>(BATCHSIZE);
+        while(true) {
+            try {
+                PendingSample first = queue.poll(1, TimeUnit.SECONDS);
+                if(first == null) {
+                    if(running)
+                        continue;
+                    else
+                        return;
+                }
+                batch.add(first);
+                queue.drainTo(batch, BATCHSIZE - 1);
+                long now = System.currentTimeMillis();
+                Map<String, List<PendingSample>> byStore = new LinkedHashMap<String, List<PendingSample>>();
+                for(PendingSample ps: batch) {
+                    lagStats.record(now - ps.queued, CollectStatistics.Outcome.SUCCESS);
+                    List<PendingSample> samples = byStore.get(ps.probe.getRrdName());
+                    if(samples == null) {
+                        samples = new ArrayList<PendingSample>();
+                        byStore.put(ps.probe.getRrdName(), samples);
+                    }
+                    samples.add(ps);
+                }
+                for(Map.Entry<String, List<PendingSample>> e: byStore.entrySet()) {
+                    store(e.getKey(), e.getValue());
+                }
+                //The stores packed in containers are written once for the whole batch
+                StoreOpener.commit();
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write the samples of a store, it's opened once for all of them
+     * @param rrdName the path of the store
+     * @param samples the samples, in the order of collect
+     * @return the number of samples written
+     */
+    private int store(String rrdName, List<PendingSample> samples) {
+        RrdDb db = null;
+        int stored = 0;
+        try {
+            db = StoreOpener.getRrd(rrdName);
+        } catch (Exception e) {
+            samples.get(0).probe.log(Level.ERROR, e, "Error while opening store: %s", e.getMessage());
+            failed.addAndGet(samples.size());
+            return 0;
+        }
+        try {
+            for(PendingSample ps: samples) {
+                if(store(db, ps))
+                    stored++;
+            }
+        } finally {
+            StoreOpener.releaseRrd(db);
+        }
+        return stored;
+    }
+
+    private boolean store(RrdDb db, PendingSample ps) {
+        long start = System.currentTimeMillis();
+        CollectStatistics.Outcome outcome = CollectStatistics.Outcome.FAILURE;
+        try {
+            Sample sample = db.createSample(ps.time);
+            //The update clears the values of the sample, the queued ones are kept
+            sample.setValues(ps.values.clone());
+            sample.update();
+            ps.probe.sampleStored(db, sample, ps.values);
+            written.incrementAndGet();
+            outcome = CollectStatistics.Outcome.SUCCESS;
+            return true;
+        } catch (ArithmeticException ex) {
+            ps.probe.log(Level.WARN, ex, "Error while storing sample: %s", ex.getMessage());
+        } catch (Exception e) {
+            ps.probe.log(Level.ERROR, e, "Error while storing sample: %s", e.getMessage());
+        } finally {
+            if(outcome != CollectStatistics.Outcome.SUCCESS)
+                failed.incrementAndGet();
+            writeStats.record(System.currentTimeMillis() - start, outcome);
+        }
+        return false;
+    }
+
+    /**
+     * Queue a sample. Only its values are queued, the store is opened by the writer thread.
+     * @param probe the probe that collected the sample
+     * @param time the time of the sample, in seconds
+     * @param values the values of the sample, in the order of the data sources of the store
+     * @param timeout how long to wait for a free slot in the queue, in ms
+     * @return false if the sample was dropped or failed to be written
+     */
+    public boolean write(Probe<?,?> probe, long time, double[] values, long timeout) {
+        PendingSample ps = new PendingSample(probe, time, values);
+        if(! running)
+            return store(probe.getRrdName(), Collections.singletonList(ps)) == 1;
+        BlockingQueue<PendingSample> queue = queues.get((probe.getRrdName().hashCode() & Integer.MAX_VALUE) % queues.size());
+        try {
+            if(queue.offer(ps, Math.max(timeout, 0), TimeUnit.MILLISECONDS)) {
+                //Stopped meanwhile, the writer thread might be gone
+                if(! running && queue.remove(ps))
+                    return store(probe.getRrdName(), Collections.singletonList(ps)) == 1;
+                queued.incrementAndGet();
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        dropped.incrementAndGet();
+        probe.log(Level.WARN, "Write queue full, sample dropped");
+        return false;
+    }
+
+    /**
+     * Write the queued samples and stop the writer threads
+     * @param timeout how long to wait for the queued samples, in ms
+     */
+    public void stop(long timeout) {
+        running = false;
+        long deadline = System.currentTimeMillis() + timeout;
+        for(Thread t: writers) {
+            try {
+                t.join(Math.max(deadline - System.currentTimeMillis(), 1));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        //Too slow, the remaining samples are lost
+        int lost = 0;
+        for(BlockingQueue<PendingSample> queue: queues) {
+            while(queue.poll() != null) {
+                lost++;
+            }
+        }
+        if(lost > 0) {
+            dropped.addAndGet(lost);
+            Util.log(this, logger, Level.ERROR, null, "%d samples not written", lost);
+        }
+        for(Thread t: writers) {
+            t.interrupt();
+        }
+    }
+
+    /**
+     * @return the number of samples waiting to be written
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for(BlockingQueue<PendingSample> queue: queues) {
+            depth += queue.size();
+        }
+        return depth;
+    }
+
+    /**
+     * @return the duration of the stores updates
+     */
+    public CollectStatistics getWriteStatistics() {
+        return writeStats;
+    }
+
+    /**
+     * @return the time spent by the samples in the queue
+     */
+    public CollectStatistics getLagStatistics() {
+        return lagStats;
+    }
+
+    /**
+     * @return the counters of the writer, used for the status and JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("depth", (long) getQueueDepth());
+        stats.put("queued", queued.get());
+        stats.put("written", written.get());
+        stats.put("dropped", dropped.get());
+        stats.put("failed", failed.get());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "writer:" + name;
+    }
+
+}
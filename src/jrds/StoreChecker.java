@@ -0,0 +1,294 @@
+package jrds;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.core.ArcDef;
+import org.rrd4j.core.DsDef;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdNioBackendFactory;
+import org.rrd4j.core.RrdRandomAccessFileBackendFactory;
+
+/**
+ * Check the stores of the probes in the background, on a bounded pool of threads.<p>
+ * A probe is collected once its store is checked, the others probes don't wait for it.
+ * The definition of a store is summarized in a fingerprint, saved in a file next to the store. When the fingerprint
+ * and the size of the file did not change, the store is not opened. The missing stores are copied from a
+ * template, created once for each definition.
+ * @author Fabrice Bacchella
+ */
+public class StoreChecker {
+    static private final Logger logger = Logger.getLogger(StoreChecker.class);
+    static private final String FINGERPRINTSUFFIX = ".fingerprint";
+
+    private final String name;
+    private final ExecutorService executor;
+    private final File templatesDir;
+    private final ConcurrentMap<String, File> templates = new ConcurrentHashMap<String, File>();
+    private final AtomicInteger pending = new AtomicInteger(0);
+
+    private final AtomicLong submitted = new AtomicLong(0);
+    private final AtomicLong checked = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong fingerprintHits = new AtomicLong(0);
+    private final AtomicLong copied = new AtomicLong(0);
+
+    /**
+     * @param name the name used for the threads
+     * @param numThreads the number of stores checked at the same time
+     * @param templatesDir where the templates of the stores are created
+     */
+    public StoreChecker(String name, int numThreads, File templatesDir) {
+        if(numThreads < 1)
+            throw new IllegalArgumentException("At least one checker thread is needed");
+        this.name = name;
+        this.templatesDir = templatesDir;
+        final AtomicInteger threadCount = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(numThreads, numThreads, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, StoreChecker.this.name + "/CheckerThread" + threadCount.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Check the store of a probe in the background. The probe will not be collected nor shown until it's done,
+     * a probe whose check failed is removed from its host.
+     * @param p the probe to check
+     */
+    public void check(final Probe<?,?> p) {
+        p.setDeferredCheck(true);
+        pending.incrementAndGet();
+        submitted.incrementAndGet();
+        executor.execute(new Runnable() {
+            public void run() {
+                boolean usable = false;
+                try {
+                    usable = p.checkStore();
+                    if(usable) {
+                        checked.incrementAndGet();
+                    }
+                    else {
+                        failed.incrementAndGet();
+                        p.log(Level.ERROR, "Store check failed, the probe is removed");
+                    }
+                } catch (RuntimeException e) {
+                    failed.incrementAndGet();
+                    p.log(Level.ERROR, e, "Store check failed, the probe is removed: %s", e.getMessage());
+                } finally {
+                    //Done, the hosts list shows the probe or removes it
+                    HostsList hl = p.getHostList();
+                    if(hl != null)
+                        hl.storeChecked(p, usable);
+                    else
+                        p.setDeferredCheck(false);
+                    if(pending.decrementAndGet() == 0) {
+                        synchronized(pending) {
+                            pending.notifyAll();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Wait for the submitted checks
+     * @param timeout how long to wait, in ms
+     * @return true if all the checks are done
+     */
+    public boolean await(long timeout) {
+        long deadline = System.currentTimeMillis() + timeout;
+        synchronized(pending) {
+            while(pending.get() > 0) {
+                long wait = deadline - System.currentTimeMillis();
+                if(wait <= 0)
+                    return false;
+                try {
+                    pending.wait(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the checker, the waiting checks are abandoned
+     */
+    public void stop() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * @param rrdFile the store
+     * @param fingerprint the fingerprint of the expected definition
+     * @return true if the fingerprint saved with the store is the same and the store was not modified since
+     */
+    public boolean isUnchanged(File rrdFile, String fingerprint) {
+        File fpFile = new File(rrdFile.getPath() + FINGERPRINTSUFFIX);
+        if(! fpFile.isFile())
+            return false;
+        String saved;
+        try {
+            BufferedReader r = new BufferedReader(new FileReader(fpFile));
+            try {
+                saved = r.readLine();
+            } finally {
+                r.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+        if((fingerprint + " " + rrdFile.length()).equals(saved)) {
+            fingerprintHits.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Save the fingerprint of a checked store
+     * @param rrdFile the store
+     * @param fingerprint the fingerprint of its definition
+     */
+    public void saveFingerprint(File rrdFile, String fingerprint) {
+        File fpFile = new File(rrdFile.getPath() + FINGERPRINTSUFFIX);
+        try {
+            Writer w = new FileWriter(fpFile);
+            try {
+                w.write(fingerprint + " " + rrdFile.length() + "\n");
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            Util.log(this, logger, Level.WARN, e, "Unable to save the fingerprint of %s: %s", rrdFile, e.getMessage());
+        }
+    }
+
+    /**
+     * Create a store by copying a template with the same definition. Only the file backends can be copied.
+     * @param def the definition of the store
+     * @param fingerprint the fingerprint of the definition
+     * @return false if the store needs to be created
+     */
+    public boolean copyTemplate(RrdDef def, String fingerprint) {
+        RrdBackendFactory backend = StoreOpener.getBackend();
+        if(templatesDir == null || ! (backend instanceof RrdNioBackendFactory || backend instanceof RrdRandomAccessFileBackendFactory))
+            return false;
+        File dest = new File(def.getPath()).getAbsoluteFile();
+        File tmp = null;
+        try {
+            File template = getTemplate(def, fingerprint);
+            File destDir = dest.getParentFile();
+            if(! destDir.isDirectory() && ! destDir.mkdirs())
+                throw new IOException("Unable to create the directory " + destDir);
+            //Copied in a temporary file, so a crash don't leave a truncated store
+            tmp = File.createTempFile("JRDS_", ".tmp", destDir);
+            Util.copyFile(template, tmp);
+            if(! tmp.renameTo(dest)) {
+                tmp.delete();
+                return false;
+            }
+            copied.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            if(tmp != null)
+                tmp.delete();
+            //The template might have been removed, it will be created again
+            templates.remove(fingerprint);
+            Util.log(this, logger, Level.WARN, e, "Unable to copy a template to %s: %s", dest, e.getMessage());
+            return false;
+        }
+    }
+
+    private File getTemplate(RrdDef def, String fingerprint) throws IOException {
+        File template = templates.get(fingerprint);
+        if(template != null)
+            return template;
+        synchronized(templates) {
+            template = templates.get(fingerprint);
+            if(template == null) {
+                if(! templatesDir.isDirectory() && ! templatesDir.mkdirs())
+                    throw new IOException("Unable to create the templates directory " + templatesDir);
+                template = new File(templatesDir, fingerprint.replace('/', '_') + ".rrd");
+                String path = def.getPath();
+                def.setPath(template.getCanonicalPath());
+                try {
+                    new RrdDb(def, StoreOpener.getBackend()).close();
+                } finally {
+                    def.setPath(path);
+                }
+                templates.put(fingerprint, template);
+            }
+        }
+        return template;
+    }
+
+    /**
+     * A compact summary of a store definition, the path and the start time are not used.
+     * @param def the definition
+     * @return the fingerprint
+     */
+    public static String fingerprint(RrdDef def) {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(def.getVersion()).append(' ').append(def.getStep());
+        for(DsDef ds: def.getDsDefs()) {
+            buffer.append(' ').append(ds.dump());
+        }
+        for(ArcDef arc: def.getArcDefs()) {
+            buffer.append(' ').append(arc.dump());
+        }
+        return Util.stringSignature(buffer.toString());
+    }
+
+    /**
+     * @return the number of stores still waiting to be checked
+     */
+    public int getPending() {
+        return pending.get();
+    }
+
+    /**
+     * @return the counters of the checker, used for the status and JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("pending", (long) pending.get());
+        stats.put("submitted", submitted.get());
+        stats.put("checked", checked.get());
+        stats.put("failed", failed.get());
+        stats.put("fingerprintHits", fingerprintHits.get());
+        stats.put("copied", copied.get());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "checker:" + name;
+    }
+
+}
@@ -0,0 +1,397 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * A single file that holds many stores.<p>
+ * The file starts with a magic string, followed by the stores, each one with its own header: a state byte, the
+ * name of the store, its length and then its content. The directory is built in memory when the file is opened,
+ * a truncated store at the end of the file is dropped. A new store is always appended, a removed store is only
+ * marked as dead, its space is not reused.<p>
+ * A new store is pending until its content is committed and forced to the disk, only then it's marked as live and
+ * the store it replaces is marked as dead. So after a crash, either the old or the new store is found.<p>
+ * The content of the stores in use is kept in memory. The writes are kept there until {@link #commit()}, that
+ * write all the modified stores at once, in the order of the file.
+ * @author Fabrice Bacchella
+ */
+public class StoreContainer {
+    static private final Logger logger = Logger.getLogger(StoreContainer.class);
+    static private final byte[] MAGIC = "JRDSCTR1".getBytes();
+    static private final byte LIVE = 1;
+    static private final byte DEAD = 0;
+    static private final byte PENDING = 2;
+
+    private static final class Entry {
+        final String name;
+        final long headerOffset;
+        final long dataOffset;
+        final int length;
+        byte[] data = null;
+        int users = 0;
+        boolean live = true;
+        //The store replaced by a pending one, marked as dead once the new one is live
+        Entry replaced = null;
+        int dirtyStart = Integer.MAX_VALUE;
+        int dirtyEnd = 0;
+        Entry(String name, long headerOffset, long dataOffset, int length) {
+            this.name = name;
+            this.headerOffset = headerOffset;
+            this.dataOffset = dataOffset;
+            this.length = length;
+        }
+        boolean isDirty() {
+            return dirtyStart < dirtyEnd;
+        }
+    }
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    //In file order, so the commit writes sequentially
+    private final Map<String, Entry> directory = new LinkedHashMap<String, Entry>();
+    private final List<Entry> pending = new ArrayList<Entry>();
+    private long end;
+    private long commits = 0;
+    private long bytesWritten = 0;
+
+    /**
+     * Open a container, it's created if needed
+     * @param file the container file
+     * @throws IOException
+     */
+    public StoreContainer(File file) throws IOException {
+        this.file = file;
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        try {
+            load();
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    private void load() throws IOException {
+        long size = channel.size();
+        if(size == 0) {
+            channel.write(ByteBuffer.wrap(MAGIC), 0);
+            end = MAGIC.length;
+            return;
+        }
+        ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+        channel.read(magic, 0);
+        if(! ByteBuffer.wrap(MAGIC).equals(magic.flip()))
+            throw new IOException(file + " is not a stores container");
+        long offset = MAGIC.length;
+        ByteBuffer fixed = ByteBuffer.allocate(3);
+        while(offset < size) {
+            fixed.clear();
+            if(channel.read(fixed, offset) < 3)
+                break;
+            fixed.flip();
+            byte state = fixed.get();
+            int nameLength = fixed.getShort() & 0xffff;
+            ByteBuffer header = ByteBuffer.allocate(nameLength + 8);
+            if(channel.read(header, offset + 3) < nameLength + 8)
+                break;
+            header.flip();
+            byte[] name = new byte[nameLength];
+            header.get(name);
+            long length = header.getLong();
+            long dataOffset = offset + 3 + nameLength + 8;
+            if(length < 0 || length > Integer.MAX_VALUE || dataOffset + length > size)
+                break;
+            if(state == LIVE) {
+                String storeName = new String(name, "UTF-8");
+                directory.put(storeName, new Entry(storeName, offset, dataOffset, (int) length));
+            }
+            offset = dataOffset + length;
+        }
+        //A store was being added when it crashed
+        if(offset < size) {
+            Util.log(this, logger, Level.WARN, null, "%d bytes lost at the end of %s", size - offset, file);
+            channel.truncate(offset);
+        }
+        end = offset;
+    }
+
+    /**
+     * @param name the name of a store
+     * @return true if the container holds this store
+     */
+    public synchronized boolean contains(String name) {
+        return directory.containsKey(name);
+    }
+
+    /**
+     * @return the names of the stores in the container
+     */
+    public synchronized List<String> getNames() {
+        return new ArrayList<String>(directory.keySet());
+    }
+
+    /**
+     * Start using a store, its content is read if needed
+     * @param name the name of the store
+     * @return false if the store doesn't exist
+     * @throws IOException
+     */
+    synchronized boolean acquire(String name) throws IOException {
+        Entry e = directory.get(name);
+        if(e == null)
+            return false;
+        load(e);
+        e.users++;
+        return true;
+    }
+
+    /**
+     * Stop using a store, its content is dropped from memory once it's committed
+     * @param name the name of the store
+     */
+    synchronized void release(String name) {
+        Entry e = directory.get(name);
+        if(e == null)
+            return;
+        e.users = Math.max(e.users - 1, 0);
+        if(e.users == 0 && ! e.isDirty())
+            e.data = null;
+    }
+
+    private void load(Entry e) throws IOException {
+        if(e.data != null)
+            return;
+        byte[] data = new byte[e.length];
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        while(buffer.hasRemaining()) {
+            if(channel.read(buffer, e.dataOffset + buffer.position()) < 0)
+                throw new IOException("Store " + e.name + " truncated in " + file);
+        }
+        e.data = data;
+    }
+
+    /**
+     * Allocate the space for a store. An existing store with the same length is kept, an existing one with another
+     * length is replaced by an empty store. The new store is pending until the next commit.
+     * @param name the name of the store
+     * @param length the size of the store
+     * @throws IOException
+     */
+    synchronized void allocate(String name, long length) throws IOException {
+        if(length < 0 || length > Integer.MAX_VALUE)
+            throw new IOException("Invalid store size " + length);
+        Entry old = directory.get(name);
+        if(old != null && old.length == length)
+            return;
+        byte[] nameBytes = name.getBytes("UTF-8");
+        ByteBuffer header = ByteBuffer.allocate(3 + nameBytes.length + 8);
+        header.put(PENDING).putShort((short) nameBytes.length).put(nameBytes).putLong(length);
+        header.flip();
+        long headerOffset = end;
+        long dataOffset = headerOffset + header.remaining();
+        //The space is reserved before the header is written, so a crash don't leave a store out of the file
+        raf.setLength(dataOffset + length);
+        channel.write(header, headerOffset);
+        end = dataOffset + length;
+        Entry e = new Entry(name, headerOffset, dataOffset, (int) length);
+        e.data = new byte[(int) length];
+        e.live = false;
+        if(old != null && old.live) {
+            e.replaced = old;
+        }
+        else if(old != null) {
+            //Replacing a store still pending, it's never used
+            e.replaced = old.replaced;
+            pending.remove(old);
+            markDead(old);
+        }
+        if(old != null)
+            e.users = old.users;
+        directory.put(name, e);
+        pending.add(e);
+    }
+
+    /**
+     * Remove a store, its space is not reclaimed
+     * @param name the name of the store
+     * @return false if there was no such store
+     * @throws IOException
+     */
+    public synchronized boolean remove(String name) throws IOException {
+        Entry e = directory.remove(name);
+        if(e == null)
+            return false;
+        markDead(e);
+        if(e.replaced != null)
+            markDead(e.replaced);
+        pending.remove(e);
+        return true;
+    }
+
+    /**
+     * Rename a store, an existing store with the new name is removed. The old name is removed only once the store is
+     * live with its new name, so a crash can't lose it.
+     * @param from the current name of the store
+     * @param to the new name of the store
+     * @return false if there was no such store
+     * @throws IOException
+     */
+    public synchronized boolean rename(String from, String to) throws IOException {
+        Entry e = directory.get(from);
+        if(e == null)
+            return false;
+        //The content is copied to a new store, so the header keeps its size
+        load(e);
+        allocate(to, e.length);
+        Entry renamed = directory.get(to);
+        System.arraycopy(e.data, 0, renamed.data, 0, e.length);
+        renamed.dirtyStart = 0;
+        renamed.dirtyEnd = e.length;
+        commit();
+        remove(from);
+        return true;
+    }
+
+    private void markDead(Entry e) throws IOException {
+        setState(e, DEAD);
+    }
+
+    private void setState(Entry e, byte state) throws IOException {
+        channel.write(ByteBuffer.wrap(new byte[] {state}), e.headerOffset);
+    }
+
+    synchronized long getLength(String name) throws IOException {
+        Entry e = getEntry(name);
+        return e.length;
+    }
+
+    synchronized void read(String name, long offset, byte[] b) throws IOException {
+        Entry e = getEntry(name);
+        if(offset < 0 || offset + b.length > e.length)
+            throw new IOException("Read outside of the store " + name);
+        load(e);
+        System.arraycopy(e.data, (int) offset, b, 0, b.length);
+    }
+
+    synchronized void write(String name, long offset, byte[] b) throws IOException {
+        Entry e = getEntry(name);
+        if(offset < 0 || offset + b.length > e.length)
+            throw new IOException("Write outside of the store " + name);
+        load(e);
+        System.arraycopy(b, 0, e.data, (int) offset, b.length);
+        e.dirtyStart = Math.min(e.dirtyStart, (int) offset);
+        e.dirtyEnd = Math.max(e.dirtyEnd, (int) offset + b.length);
+    }
+
+    private Entry getEntry(String name) throws IOException {
+        Entry e = directory.get(name);
+        if(e == null)
+            throw new IOException("No store " + name + " in " + file);
+        return e;
+    }
+
+    /**
+     * Write all the modified stores. The pending stores are then forced to the disk, marked as live and the stores
+     * they replace are marked as dead.
+     * @return the number of stores written
+     * @throws IOException
+     */
+    public synchronized int commit() throws IOException {
+        int written = 0;
+        for(Entry e: directory.values()) {
+            if(e.isDirty()) {
+                ByteBuffer buffer = ByteBuffer.wrap(e.data, e.dirtyStart, e.dirtyEnd - e.dirtyStart);
+                long position = e.dataOffset + e.dirtyStart;
+                while(buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+                bytesWritten += e.dirtyEnd - e.dirtyStart;
+                e.dirtyStart = Integer.MAX_VALUE;
+                e.dirtyEnd = 0;
+                written++;
+            }
+            if(e.users == 0)
+                e.data = null;
+        }
+        if(! pending.isEmpty()) {
+            //The content must be on the disk before the header says it's usable
+            channel.force(true);
+            for(Entry e: pending) {
+                setState(e, LIVE);
+                e.live = true;
+            }
+            channel.force(false);
+            for(Entry e: pending) {
+                if(e.replaced != null)
+                    markDead(e.replaced);
+                e.replaced = null;
+            }
+            pending.clear();
+        }
+        if(written > 0)
+            commits++;
+        return written;
+    }
+
+    /**
+     * @return true if some stores are modified and not committed
+     */
+    public synchronized boolean isDirty() {
+        for(Entry e: directory.values()) {
+            if(e.isDirty())
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Commit the modified stores and close the file
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        try {
+            commit();
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * @return the counters of the container
+     */
+    public synchronized Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        long loaded = 0;
+        for(Entry e: directory.values()) {
+            if(e.data != null)
+                loaded += e.length;
+        }
+        stats.put("stores", (long) directory.size());
+        stats.put("size", end);
+        stats.put("loadedBytes", loaded);
+        stats.put("commits", commits);
+        stats.put("bytesWritten", bytesWritten);
+        return stats;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public String toString() {
+        return "container:" + file;
+    }
+
+}
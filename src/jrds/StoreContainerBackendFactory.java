@@ -0,0 +1,246 @@
+package jrds;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.core.RrdBackend;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdNioBackendFactory;
+
+/**
+ * A backend that packs all the stores of a directory, so all the stores of a host, or of a sub directory when
+ * they are spread, in a single {@link StoreContainer} file.<p>
+ * The path of a store is kept as usual, the container is a file named {@value #CONTAINERNAME} in the directory
+ * of the store, and the store is named by its file name. So the graphs and the fetch don't see any difference.<p>
+ * The modified stores are written when the write-behind stage ends a batch, and every sync period for the
+ * others writes. It's used with <code>rrdbackendclass=jrds.StoreContainerBackendFactory</code>.
+ * @author Fabrice Bacchella
+ */
+public class StoreContainerBackendFactory extends RrdBackendFactory {
+    static private final Logger logger = Logger.getLogger(StoreContainerBackendFactory.class);
+    static public final String NAME = "CONTAINER";
+    static public final String CONTAINERNAME = "stores.jrdc";
+
+    private final class ContainerBackend extends RrdBackend {
+        private final StoreContainer container;
+        private final String name;
+        private final boolean readOnly;
+        private boolean acquired;
+
+        ContainerBackend(String path, StoreContainer container, String name, boolean readOnly) throws IOException {
+            super(path);
+            this.container = container;
+            this.name = name;
+            this.readOnly = readOnly;
+            this.acquired = container.acquire(name);
+        }
+
+        @Override
+        protected void write(long offset, byte[] b) throws IOException {
+            if(readOnly)
+                throw new IOException("Store " + getPath() + " opened read only");
+            container.write(name, offset, b);
+        }
+
+        @Override
+        protected void read(long offset, byte[] b) throws IOException {
+            container.read(name, offset, b);
+        }
+
+        @Override
+        public long getLength() throws IOException {
+            return container.getLength(name);
+        }
+
+        @Override
+        protected void setLength(long length) throws IOException {
+            if(readOnly)
+                throw new IOException("Store " + getPath() + " opened read only");
+            container.allocate(name, length);
+            if(! acquired)
+                acquired = container.acquire(name);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(acquired)
+                container.release(name);
+            acquired = false;
+        }
+    }
+
+    private final Map<File, StoreContainer> containers = new HashMap<File, StoreContainer>();
+    private int syncPeriod = RrdNioBackendFactory.DEFAULT_SYNC_PERIOD;
+    private Timer syncTimer = null;
+
+    @Override
+    protected RrdBackend open(String path, boolean readOnly) throws IOException {
+        File store = new File(path);
+        StoreContainer container = getContainer(store, ! readOnly);
+        if(container == null)
+            throw new FileNotFoundException("No container for " + path);
+        return new ContainerBackend(path, container, store.getName(), readOnly);
+    }
+
+    @Override
+    protected boolean exists(String path) throws IOException {
+        File store = new File(path);
+        StoreContainer container = getContainer(store, false);
+        return container != null && container.contains(store.getName());
+    }
+
+    protected boolean shouldValidateHeader(String path) throws IOException {
+        return true;
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    private synchronized StoreContainer getContainer(File store, boolean create) throws IOException {
+        File containerFile = new File(store.getAbsoluteFile().getParentFile(), CONTAINERNAME);
+        StoreContainer container = containers.get(containerFile);
+        if(container == null) {
+            if(! create && ! containerFile.isFile())
+                return null;
+            container = new StoreContainer(containerFile);
+            containers.put(containerFile, container);
+            startSync();
+        }
+        return container;
+    }
+
+    private void startSync() {
+        if(syncTimer != null || syncPeriod <= 0)
+            return;
+        syncTimer = new Timer("StoreContainerSync", true);
+        syncTimer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                commit();
+            }
+        }, syncPeriod * 1000L, syncPeriod * 1000L);
+    }
+
+    /**
+     * @param path the path of a store
+     * @return true if the store exists in its container
+     */
+    public boolean contains(String path) {
+        try {
+            return exists(path);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Rename a store inside its container, both paths must be in the same directory
+     * @param from the current path of the store
+     * @param to the new path of the store
+     * @throws IOException
+     */
+    public void rename(String from, String to) throws IOException {
+        File fromFile = new File(from);
+        File toFile = new File(to);
+        if(! fromFile.getAbsoluteFile().getParentFile().equals(toFile.getAbsoluteFile().getParentFile()))
+            throw new IOException("Can't move " + from + " to another container");
+        StoreContainer container = getContainer(fromFile, false);
+        if(container == null || ! container.rename(fromFile.getName(), toFile.getName()))
+            throw new FileNotFoundException("No store " + from);
+    }
+
+    /**
+     * Remove a store from its container
+     * @param path the path of the store
+     * @return false if there was no such store
+     * @throws IOException
+     */
+    public boolean remove(String path) throws IOException {
+        File store = new File(path);
+        StoreContainer container = getContainer(store, false);
+        return container != null && container.remove(store.getName());
+    }
+
+    /**
+     * Write the modified stores of all the containers
+     * @return the number of stores written
+     */
+    public int commit() {
+        int written = 0;
+        for(StoreContainer container: getContainers()) {
+            try {
+                written += container.commit();
+            } catch (IOException e) {
+                Util.log(this, logger, Level.ERROR, e, "Unable to write %s: %s", container.getFile(), e.getMessage());
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Commit and close all the containers, they will be opened again if needed
+     */
+    public void close() {
+        List<StoreContainer> closed;
+        synchronized(this) {
+            closed = new ArrayList<StoreContainer>(containers.values());
+            containers.clear();
+            if(syncTimer != null)
+                syncTimer.cancel();
+            syncTimer = null;
+        }
+        for(StoreContainer container: closed) {
+            try {
+                container.close();
+            } catch (IOException e) {
+                Util.log(this, logger, Level.ERROR, e, "Unable to close %s: %s", container.getFile(), e.getMessage());
+            }
+        }
+    }
+
+    private synchronized List<StoreContainer> getContainers() {
+        return new ArrayList<StoreContainer>(containers.values());
+    }
+
+    /**
+     * @param syncPeriod how often the modified stores are written, in seconds
+     */
+    public synchronized void setSyncPeriod(int syncPeriod) {
+        this.syncPeriod = syncPeriod;
+        if(syncTimer != null) {
+            syncTimer.cancel();
+            syncTimer = null;
+            if(! containers.isEmpty())
+                startSync();
+        }
+    }
+
+    /**
+     * @return the counters of all the containers, used for the status and JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        List<StoreContainer> opened = getContainers();
+        stats.put("containers", (long) opened.size());
+        for(StoreContainer container: opened) {
+            for(Map.Entry<String, Long> e: container.getStats().entrySet()) {
+                Long previous = stats.get(e.getKey());
+                stats.put(e.getKey(), e.getValue() + (previous != null ? previous : 0));
+            }
+        }
+        return stats;
+    }
+
+}
@@ -2,13 +2,14 @@ package jrds;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.log4j.Logger;
 import org.rrd4j.core.RrdBackendFactory;
 import org.rrd4j.core.RrdDb;
-import org.rrd4j.core.RrdDbPool;
+import org.rrd4j.core.RrdNioBackendFactory;
 import org.rrd4j.core.RrdRandomAccessFileBackendFactory;
 
 /**
@@ -17,12 +18,14 @@ import org.rrd4j.core.RrdRandomAccessFileBackendFactory;
 public final class StoreOpener {
     static final private Logger logger = Logger.getLogger(StoreOpener.class);
 
-    private static RrdDbPool instance = null;
+    private static StorePool instance = null;
 
     private static final AtomicLong waitTime = new AtomicLong(0);
     private static final AtomicInteger lockCount = new AtomicInteger(0);
     private static RrdBackendFactory backend;
     private static boolean usepool = false;
+    private static FetchCache fetchCache = null;
+    private static RecentWindows recentWindows = null;
 
     /**
      * Retrieves the RrdDb instance matching a specific RRD datasource name
@@ -67,6 +70,40 @@ public final class StoreOpener {
         }
     }
 
+    /**
+     * Close a pooled store, so the next users will open the file again
+     * @param path the canonical path of the store
+     * @param timeout how long to wait for the current users, in ms
+     * @return false if the store is still in use
+     */
+    public final static boolean evict(String path, long timeout) {
+        if(usepool)
+            return instance.evict(path, timeout);
+        return true;
+    }
+
+    /**
+     * Close a pooled store and block it, the next users wait until {@link #unblock(String)} is called.
+     * It's used to replace the file of a store.
+     * @param path the canonical path of the store
+     * @param timeout how long to wait for the current users, in ms
+     * @return false if the store is still in use
+     */
+    public final static boolean block(String path, long timeout) {
+        if(usepool)
+            return instance.block(path, timeout);
+        return true;
+    }
+
+    /**
+     * Allow again the users of a store blocked with {@link #block(String, long)}
+     * @param path the canonical path of the store
+     */
+    public final static void unblock(String path) {
+        if(usepool)
+            instance.unblock(path);
+    }
+
     public static final void prepare(String backend) {
         usepool = false;
         if(backend != null) {
@@ -80,7 +117,20 @@ public final class StoreOpener {
     }
 
     public static final void prepare(String backend, int dbPoolSize) {
+        prepare(backend, dbPoolSize, RrdNioBackendFactory.DEFAULT_SYNC_PERIOD, 0);
+    }
+
+    /**
+     * Prepare the stores backend, the file based backends are pooled.
+     * @param backend the name of the backend
+     * @param dbPoolSize the maximum number of opened stores
+     * @param syncPeriod how often the memory mapped stores are written to disk, in seconds
+     * @param maxMappedBytes the maximum size of the memory mapped stores kept opened, 0 for no limit
+     */
+    public static final void prepare(String backend, int dbPoolSize, int syncPeriod, long maxMappedBytes) {
         usepool = false;
+        if(syncPeriod > 0)
+            RrdNioBackendFactory.setSyncPeriod(syncPeriod);
         if(backend != null) {
             try {
                 RrdBackendFactory.setDefaultFactory(backend);
@@ -92,21 +142,123 @@ public final class StoreOpener {
             }
         }
         StoreOpener.backend = RrdBackendFactory.getDefaultFactory();
+        if(syncPeriod > 0 && StoreOpener.backend instanceof StoreContainerBackendFactory)
+            ((StoreContainerBackendFactory) StoreOpener.backend).setSyncPeriod(syncPeriod);
 
-        if(RrdRandomAccessFileBackendFactory.class.isAssignableFrom(StoreOpener.backend.getClass())) {
+        boolean mapped = RrdNioBackendFactory.class.isAssignableFrom(StoreOpener.backend.getClass());
+        if(mapped || RrdRandomAccessFileBackendFactory.class.isAssignableFrom(StoreOpener.backend.getClass())) {
             try {
-                instance = RrdDbPool.getInstance();
-                instance.setCapacity(dbPoolSize);
+                //The pool is kept when the configuration is reloaded, the stores might still be in use
+                if(instance != null && instance.getBackend() == StoreOpener.backend) {
+                    instance.setCapacity(dbPoolSize);
+                }
+                else {
+                    if(instance != null)
+                        instance.reset();
+                    instance = new StorePool(StoreOpener.backend, dbPoolSize);
+                }
+                //Only the mapped files use memory
+                instance.setMaxBytes(mapped ? maxMappedBytes : 0);
                 usepool = true;
             } catch (Exception e) {
+                logger.error("Unable to build the stores pool: " + e.getMessage());
             }
         }
         logger.debug(Util.delayedFormatString("Store backend used is %s",  StoreOpener.backend));
     }
 
+    /**
+     * @return the backend used to open and create the stores
+     */
+    public static RrdBackendFactory getBackend() {
+        if(backend == null)
+            return RrdBackendFactory.getDefaultFactory();
+        return backend;
+    }
+
+    /**
+     * @return the name of the backend, to give it to rrd4j when it reads the stores itself, null if it's its default one
+     */
+    public static String getBackendName() {
+        RrdBackendFactory backend = getBackend();
+        return backend == RrdBackendFactory.getDefaultFactory() ? null : backend.getName();
+    }
+
+    /**
+     * Check if a store exists, even if the backend don't use a file for each store
+     * @param path the path of the store
+     * @return true if the store exists
+     */
+    public static boolean exists(String path) {
+        RrdBackendFactory backend = getBackend();
+        if(backend instanceof StoreContainerBackendFactory)
+            return ((StoreContainerBackendFactory) backend).contains(path);
+        return new File(path).isFile();
+    }
+
+    /**
+     * Write the stores modified since the last commit, if the backend keeps them in memory
+     */
+    public static void commit() {
+        RrdBackendFactory backend = getBackend();
+        if(backend instanceof StoreContainerBackendFactory)
+            ((StoreContainerBackendFactory) backend).commit();
+    }
+
+    /**
+     * @return the counters of the stores containers, or null if they are not used
+     */
+    public static Map<String, Long> getContainerStats() {
+        RrdBackendFactory backend = getBackend();
+        if(backend instanceof StoreContainerBackendFactory)
+            return ((StoreContainerBackendFactory) backend).getStats();
+        return null;
+    }
+
+    /**
+     * Prepare the cache of fetched data
+     * @param maxBytes the maximum size of the cached data, 0 to disable it
+     */
+    public static final void prepareFetchCache(long maxBytes) {
+        fetchCache = maxBytes > 0 ? new FetchCache(maxBytes) : null;
+    }
+
+    /**
+     * @return the cache of fetched data, or null if it's disabled
+     */
+    public static FetchCache getFetchCache() {
+        return fetchCache;
+    }
+
+    /**
+     * Prepare the in memory windows of the recent data. They are kept when the configuration is reloaded with the
+     * same duration.
+     * @param duration how long the recent data are kept, in seconds, 0 to disable them
+     * @param maxBytes the maximum size of all the windows, 0 to disable them
+     */
+    public static final void prepareRecentWindows(long duration, long maxBytes) {
+        if(duration <= 0 || maxBytes <= 0)
+            recentWindows = null;
+        else if(recentWindows != null && recentWindows.getDuration() == duration)
+            recentWindows.setMaxBytes(maxBytes);
+        else
+            recentWindows = new RecentWindows(duration, maxBytes);
+    }
+
+    /**
+     * @return the in memory windows of the recent data, or null if they are disabled
+     */
+    public static RecentWindows getRecentWindows() {
+        return recentWindows;
+    }
+
     public static final void stop() {
         logger.info("Average wait time: " +  waitTime.doubleValue() / lockCount.doubleValue() + " ms");
-
+        //The stores not used are closed, so they are flushed
+        if(usepool && instance != null)
+            instance.reset();
+        if(getBackend() instanceof StoreContainerBackendFactory)
+            ((StoreContainerBackendFactory) getBackend()).close();
     }
 
     public static final void reset() {
@@ -115,7 +267,7 @@ public final class StoreOpener {
     /**
      * @return the instance
      */
-    public static RrdDbPool getInstance() {
+    public static StorePool getInstance() {
         return instance;
     }
 
@@ -123,17 +275,17 @@ public final class StoreOpener {
      * @param rrdDb
      * @return
      * @throws IOException
-     * @see org.rrd4j.core.RrdDbPool#getOpenCount(org.rrd4j.core.RrdDb)
+     * @see jrds.StorePool#getOpenCount(java.lang.String)
      */
     public static int getOpenCount(RrdDb rrdDb) throws IOException {
-        return instance.getOpenCount(rrdDb);
+        return instance.getOpenCount(rrdDb.getPath());
     }
 
     /**
      * @param path
      * @return
      * @throws IOException
-     * @see org.rrd4j.core.RrdDbPool#getOpenCount(java.lang.String)
+     * @see jrds.StorePool#getOpenCount(java.lang.String)
      */
     public static int getOpenCount(String path) throws IOException {
         return instance.getOpenCount(path);
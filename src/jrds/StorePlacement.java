@@ -0,0 +1,98 @@
+package jrds;
+
+import java.io.File;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Spread the hosts directories over many store roots, so the I/O can be spread over many disks.<p>
+ * The root of a host is chosen with a consistent hash of its name, each root is placed many times on a ring and a
+ * host uses the first root after its own hash. When a root is added, only the hosts that go to the new root move.
+ * With a single root, the host directory is the same than before, directly in the root.<p>
+ * Inside a host directory, the stores can be spread in a fixed number of sub directories, named by the hash of
+ * the store.
+ * @author Fabrice Bacchella
+ */
+public class StorePlacement {
+    static private final int VIRTUALNODES = 128;
+
+    private final List<File> roots;
+    private final TreeMap<Long, File> ring = new TreeMap<Long, File>();
+
+    /**
+     * @param roots the directories that hold the hosts directories
+     */
+    public StorePlacement(List<File> roots) {
+        if(roots.isEmpty())
+            throw new IllegalArgumentException("At least one store root is needed");
+        this.roots = Collections.unmodifiableList(new ArrayList<File>(roots));
+        for(File root: roots) {
+            for(int i = 0; i < VIRTUALNODES; i++) {
+                ring.put(hash(root.getPath() + "#" + i), root);
+            }
+        }
+    }
+
+    /**
+     * @param hostName the name of a host
+     * @return the root used by this host
+     */
+    public File getRoot(String hostName) {
+        if(roots.size() == 1)
+            return roots.get(0);
+        Map.Entry<Long, File> e = ring.ceilingEntry(hash(hostName));
+        if(e == null)
+            e = ring.firstEntry();
+        return e.getValue();
+    }
+
+    /**
+     * @param hostName the name of a host
+     * @return the directory of the host
+     */
+    public File getHostDir(String hostName) {
+        return new File(getRoot(hostName), hostName);
+    }
+
+    /**
+     * @return the directories that hold the hosts directories
+     */
+    public List<File> getRoots() {
+        return roots;
+    }
+
+    /**
+     * Resolve the path of a store in a host directory
+     * @param hostDir the host directory
+     * @param fileName the name of the store file
+     * @param fanout the number of sub directories, 0 to keep the stores directly in the host directory
+     * @return the store file
+     */
+    public static File getStoreFile(File hostDir, String fileName, int fanout) {
+        if(fanout <= 0)
+            return new File(hostDir, fileName);
+        int bucket = (int) ((hash(fileName) & Long.MAX_VALUE) % fanout);
+        return new File(new File(hostDir, String.format("%02x", bucket)), fileName);
+    }
+
+    private static long hash(String key) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("MD5 not available", e);
+        }
+        byte[] digest = md5.digest(key.getBytes());
+        long h = 0;
+        for(int i = 0; i < 8; i++) {
+            h = (h << 8) | (digest[i] & 0xff);
+        }
+        return h;
+    }
+
+}
@@ -0,0 +1,656 @@
+package jrds;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+
+/**
+ * A pool of opened stores, used instead of the rrd4j's {@link org.rrd4j.core.RrdDbPool}.<p>
+ * The opened stores are spread in stripes using their path, each with its own lock, so
+ * requests for different files don't wait for each other. The number of opened files is bounded.
+ * A store not used any more is kept opened, and closed when the budget is reached and a new one is needed, the
+ * least recently used first. If all the opened stores are used, a request waits for one to be released.<p>
+ * The files are opened and closed outside of the stripe lock, a placeholder entry makes the other requests for
+ * the same file wait meanwhile.<p>
+ * A store can be blocked while its file is replaced, the requests for it wait until it's unblocked.<p>
+ * The number of requests and the time spent waiting are counted for each file. The counters of at most
+ * {@value #MAXFILESTATS} files are kept, the files that waited the least are forgotten first.
+ * @author Fabrice Bacchella
+ */
+public class StorePool {
+    static private final Logger logger = Logger.getLogger(StorePool.class);
+    static private final int STRIPES = 16;
+    static public final int MAXFILESTATS = 4096;
+
+    /**
+     * The counters of a store file
+     */
+    public static final class FileStats {
+        private final AtomicLong requests = new AtomicLong(0);
+        private final AtomicLong opens = new AtomicLong(0);
+        private final AtomicLong waitTime = new AtomicLong(0);
+
+        /**
+         * @return the number of requests for this file
+         */
+        public long getRequests() {
+            return requests.get();
+        }
+
+        /**
+         * @return how many time the file was opened
+         */
+        public long getOpens() {
+            return opens.get();
+        }
+
+        /**
+         * @return the time spent waiting for the file, in ms
+         */
+        public long getWaitTime() {
+            return waitTime.get();
+        }
+    }
+
+    private static final class Entry {
+        //Null while the file is being opened
+        RrdDb db = null;
+        long size = 0;
+        int usage = 0;
+        boolean closing = false;
+        /**
+         * @return false if the file is being opened or closed
+         */
+        boolean isReady() {
+            return db != null && ! closing;
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock lock = new ReentrantLock();
+        final Map<String, Entry> entries = new HashMap<String, Entry>();
+        //The stores being replaced, they can't be opened
+        final Set<String> blocked = new HashSet<String>();
+    }
+
+    private final RrdBackendFactory backend;
+    private volatile int capacity;
+    private final Stripe[] stripes = new Stripe[STRIPES];
+    //The released stores, in access order, the first one is the next to be closed
+    private final LinkedHashMap<String, Entry> idle = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private final Object budget = new Object();
+    private final AtomicInteger openCount = new AtomicInteger(0);
+    private final AtomicLong openBytes = new AtomicLong(0);
+    private volatile long maxBytes = 0;
+    private final ConcurrentMap<String, FileStats> filesStats = new ConcurrentHashMap<String, FileStats>();
+    int maxFilesStats = MAXFILESTATS;
+
+    private final AtomicLong requests = new AtomicLong(0);
+    private final AtomicLong opens = new AtomicLong(0);
+    private final AtomicLong evictions = new AtomicLong(0);
+    private final AtomicLong waits = new AtomicLong(0);
+    private final AtomicLong waitTime = new AtomicLong(0);
+
+    /**
+     * @param backend the backend used to open the stores
+     * @param capacity the maximum number of opened files
+     */
+    public StorePool(RrdBackendFactory backend, int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The pool capacity must be positive");
+        this.backend = backend;
+        this.capacity = capacity;
+        for(int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    private Stripe getStripe(String path) {
+        return stripes[(path.hashCode() & Integer.MAX_VALUE) % STRIPES];
+    }
+
+    private FileStats fileStats(String path) {
+        FileStats stats = filesStats.get(path);
+        if(stats == null) {
+            FileStats previous = filesStats.putIfAbsent(path, stats = new FileStats());
+            if(previous != null)
+                stats = previous;
+            else if(filesStats.size() > maxFilesStats)
+                pruneFilesStats();
+        }
+        return stats;
+    }
+
+    /**
+     * Forget the counters of the files that waited the least, a quarter of them is removed
+     * so it's not done at each new file
+     */
+    private void pruneFilesStats() {
+        synchronized(filesStats) {
+            int toRemove = filesStats.size() - maxFilesStats * 3 / 4;
+            if(toRemove <= 0 || filesStats.size() <= maxFilesStats)
+                return;
+            List<Map.Entry<String, FileStats>> files = sortedFilesStats();
+            for(Map.Entry<String, FileStats> e: files.subList(files.size() - toRemove, files.size())) {
+                filesStats.remove(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+    /**
+     * @return the files counters, the longest wait time first
+     */
+    private List<Map.Entry<String, FileStats>> sortedFilesStats() {
+        List<Map.Entry<String, FileStats>> files = new ArrayList<Map.Entry<String, FileStats>>(filesStats.entrySet());
+        Collections.sort(files, new Comparator<Map.Entry<String, FileStats>>() {
+            public int compare(Map.Entry<String, FileStats> o1, Map.Entry<String, FileStats> o2) {
+                long w1 = o1.getValue().getWaitTime();
+                long w2 = o2.getValue().getWaitTime();
+                return w1 > w2 ? -1 : (w1 == w2 ? 0 : 1);
+            }
+        });
+        return files;
+    }
+
+    /**
+     * Get a store, it must be released with {@link #release(RrdDb)}
+     * @param path the canonical path of the store
+     * @return the store
+     * @throws IOException
+     */
+    public RrdDb requestRrdDb(String path) throws IOException {
+        long start = System.currentTimeMillis();
+        FileStats stats = fileStats(path);
+        requests.incrementAndGet();
+        stats.requests.incrementAndGet();
+        try {
+            Stripe stripe = getStripe(path);
+            Entry opening = null;
+            boolean reserved = false;
+            while(opening == null) {
+                awaitUnblocked(stripe, path);
+                boolean busy = false;
+                stripe.lock.lock();
+                try {
+                    Entry e = stripe.entries.get(path);
+                    if(e != null && e.isReady()) {
+                        if(e.usage++ == 0) {
+                            synchronized(idle) {
+                                idle.remove(path);
+                            }
+                        }
+                        //Opened meanwhile, the slot is not needed
+                        if(reserved)
+                            openCount.decrementAndGet();
+                        return e.db;
+                    }
+                    busy = e != null;
+                    if(! busy && reserved) {
+                        //Blocked meanwhile, it will be opened once the file is replaced
+                        if(stripe.blocked.contains(path)) {
+                            openCount.decrementAndGet();
+                            reserved = false;
+                            continue;
+                        }
+                        opening = new Entry();
+                        opening.usage = 1;
+                        stripe.entries.put(path, opening);
+                    }
+                } finally {
+                    stripe.lock.unlock();
+                }
+                if(busy) {
+                    //Opened or closed by another thread
+                    pause();
+                }
+                else if(opening == null) {
+                    //Get a slot in the budget before opening it, without holding the stripe
+                    reserve();
+                    reserved = true;
+                }
+            }
+            RrdDb db;
+            try {
+                db = new RrdDb(path, backend);
+            } catch (IOException ex) {
+                abandon(stripe, path);
+                throw ex;
+            } catch (RuntimeException ex) {
+                abandon(stripe, path);
+                throw ex;
+            }
+            long size = new File(path).length();
+            stripe.lock.lock();
+            try {
+                opening.db = db;
+                opening.size = size;
+            } finally {
+                stripe.lock.unlock();
+            }
+            openBytes.addAndGet(size);
+            opens.incrementAndGet();
+            stats.opens.incrementAndGet();
+            synchronized(budget) {
+                budget.notifyAll();
+            }
+            //Keep the opened size in the budget, it can only be checked once the file is opened
+            while(maxBytes > 0 && openBytes.get() > maxBytes && evictIdle());
+            return db;
+        } finally {
+            long duration = System.currentTimeMillis() - start;
+            waitTime.addAndGet(duration);
+            stats.waitTime.addAndGet(duration);
+        }
+    }
+
+    /**
+     * The file failed to open, remove its placeholder and give back its slot
+     */
+    private void abandon(Stripe stripe, String path) {
+        stripe.lock.lock();
+        try {
+            stripe.entries.remove(path);
+        } finally {
+            stripe.lock.unlock();
+        }
+        openCount.decrementAndGet();
+        synchronized(budget) {
+            budget.notifyAll();
+        }
+    }
+
+    /**
+     * Wait for a store to be released, opened or closed
+     * @throws IOException if interrupted
+     */
+    private void pause() throws IOException {
+        waits.incrementAndGet();
+        synchronized(budget) {
+            try {
+                budget.wait(100);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a store");
+            }
+        }
+    }
+
+    private void awaitUnblocked(Stripe stripe, String path) throws IOException {
+        while(true) {
+            stripe.lock.lock();
+            try {
+                if(! stripe.blocked.contains(path))
+                    return;
+            } finally {
+                stripe.lock.unlock();
+            }
+            pause();
+        }
+    }
+
+    private void reserve() throws IOException {
+        while(true) {
+            int current = openCount.get();
+            if(current < capacity) {
+                if(openCount.compareAndSet(current, current + 1))
+                    return;
+                continue;
+            }
+            if(evictIdle())
+                continue;
+            //Every opened store is in use, wait for one to be released
+            pause();
+        }
+    }
+
+    private boolean evictIdle() {
+        String victim;
+        synchronized(idle) {
+            Iterator<String> i = idle.keySet().iterator();
+            if(! i.hasNext())
+                return false;
+            victim = i.next();
+        }
+        Stripe stripe = getStripe(victim);
+        Entry toClose = null;
+        stripe.lock.lock();
+        try {
+            Entry e = stripe.entries.get(victim);
+            synchronized(idle) {
+                if(e != null && e.usage == 0 && e.isReady() && idle.remove(victim) != null) {
+                    e.closing = true;
+                    toClose = e;
+                }
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if(toClose != null) {
+            close(stripe, victim, toClose);
+            evictions.incrementAndGet();
+        }
+        //Even if another thread took it, something changed
+        return true;
+    }
+
+    /**
+     * Release a store requested with {@link #requestRrdDb(String)}
+     * @param db the store
+     * @throws IOException
+     */
+    public void release(RrdDb db) throws IOException {
+        if(db == null)
+            return;
+        String path = db.getPath();
+        Stripe stripe = getStripe(path);
+        boolean released = false;
+        stripe.lock.lock();
+        try {
+            Entry e = stripe.entries.get(path);
+            if(e != null && e.db == db) {
+                if(--e.usage <= 0) {
+                    e.usage = 0;
+                    synchronized(idle) {
+                        idle.put(path, e);
+                    }
+                    released = true;
+                }
+            }
+            else {
+                //Not from the pool
+                db.close();
+            }
+        } finally {
+            stripe.lock.unlock();
+        }
+        if(released) {
+            //The capacity was reduced
+            while(openCount.get() > capacity && evictIdle());
+            synchronized(budget) {
+                budget.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Close a store, waiting for its users to release it. It's used when the file is replaced.
+     * @param path the canonical path of the store
+     * @param timeout how long to wait for the users, in ms
+     * @return true if the store is not opened anymore
+     */
+    public boolean evict(String path, long timeout) {
+        return evict(path, timeout, false);
+    }
+
+    /**
+     * Close a store, waiting for its users to release it, and block it until {@link #unblock(String)} is called.
+     * The requests for the store wait meanwhile, so the file can be replaced.
+     * @param path the canonical path of the store
+     * @param timeout how long to wait for the users, in ms
+     * @return true if the store is closed and blocked, false if it's still in use
+     */
+    public boolean block(String path, long timeout) {
+        return evict(path, timeout, true);
+    }
+
+    /**
+     * Allow again the requests for a store blocked with {@link #block(String, long)}
+     * @param path the canonical path of the store
+     */
+    public void unblock(String path) {
+        Stripe stripe = getStripe(path);
+        stripe.lock.lock();
+        try {
+            stripe.blocked.remove(path);
+        } finally {
+            stripe.lock.unlock();
+        }
+        synchronized(budget) {
+            budget.notifyAll();
+        }
+    }
+
+    private boolean evict(String path, long timeout, boolean block) {
+        long deadline = System.currentTimeMillis() + timeout;
+        Stripe stripe = getStripe(path);
+        while(true) {
+            Entry toClose = null;
+            stripe.lock.lock();
+            try {
+                Entry e = stripe.entries.get(path);
+                //Already blocked by someone else, wait for it
+                boolean busy = block && stripe.blocked.contains(path);
+                if(e == null && ! busy) {
+                    if(block)
+                        stripe.blocked.add(path);
+                    return true;
+                }
+                if(e != null && e.usage == 0 && e.isReady()) {
+                    synchronized(idle) {
+                        idle.remove(path);
+                    }
+                    e.closing = true;
+                    toClose = e;
+                    if(block)
+                        stripe.blocked.add(path);
+                }
+            } finally {
+                stripe.lock.unlock();
+            }
+            if(toClose != null) {
+                close(stripe, path, toClose);
+                return true;
+            }
+            if(System.currentTimeMillis() >= deadline)
+                return false;
+            //Still in use, wait for a release
+            synchronized(budget) {
+                try {
+                    budget.wait(100);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Close all the stores not in use
+     */
+    public void reset() {
+        while(true) {
+            synchronized(idle) {
+                if(idle.isEmpty())
+                    return;
+            }
+            evictIdle();
+        }
+    }
+
+    /**
+     * Close a store marked as closing, its entry is kept meanwhile so it's not opened again before it's closed
+     */
+    private void close(Stripe stripe, String path, Entry e) {
+        try {
+            e.db.close();
+        } catch (IOException ex) {
+            Util.log(this, logger, Level.ERROR, ex, "Unable to close %s: %s", path, ex);
+        }
+        stripe.lock.lock();
+        try {
+            stripe.entries.remove(path);
+        } finally {
+            stripe.lock.unlock();
+        }
+        openCount.decrementAndGet();
+        openBytes.addAndGet(-e.size);
+        synchronized(budget) {
+            budget.notifyAll();
+        }
+    }
+
+    /**
+     * @param path the canonical path of a store
+     * @return the number of users of this store, 0 if it's not opened
+     */
+    public int getOpenCount(String path) {
+        Stripe stripe = getStripe(path);
+        stripe.lock.lock();
+        try {
+            Entry e = stripe.entries.get(path);
+            return e == null ? 0 : e.usage;
+        } finally {
+            stripe.lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of opened files
+     */
+    public int getOpenFileCount() {
+        return openCount.get();
+    }
+
+    /**
+     * @return the paths of the opened files
+     */
+    public String[] getOpenFiles() {
+        List<String> files = new ArrayList<String>();
+        for(Stripe stripe: stripes) {
+            stripe.lock.lock();
+            try {
+                files.addAll(stripe.entries.keySet());
+            } finally {
+                stripe.lock.unlock();
+            }
+        }
+        return files.toArray(new String[files.size()]);
+    }
+
+    /**
+     * @return the maximum number of opened files
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Change the maximum number of opened files, the files above it are closed when released
+     * @param capacity the new capacity
+     */
+    public void setCapacity(int capacity) {
+        if(capacity < 1)
+            throw new IllegalArgumentException("The pool capacity must be positive");
+        this.capacity = capacity;
+        while(openCount.get() > capacity && evictIdle());
+        synchronized(budget) {
+            budget.notifyAll();
+        }
+    }
+
+    /**
+     * Bound the size of the opened files, the idle ones are closed, least recently used first, when it's reached.
+     * It's used with memory mapped stores, to bound the mapped memory.
+     * @param maxBytes the maximum size in bytes, 0 if there is no limit
+     */
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = Math.max(maxBytes, 0);
+        while(this.maxBytes > 0 && openBytes.get() > this.maxBytes && evictIdle());
+    }
+
+    /**
+     * @return the size of the opened files, in bytes
+     */
+    public long getOpenBytes() {
+        return openBytes.get();
+    }
+
+    /**
+     * @return the backend used to open the stores
+     */
+    public RrdBackendFactory getBackend() {
+        return backend;
+    }
+
+    /**
+     * @param path the canonical path of a store
+     * @return the counters for this file, or null if it was never requested
+     */
+    public FileStats getFileStats(String path) {
+        return filesStats.get(path);
+    }
+
+    /**
+     * @return the counters of the files requested, at most {@value #MAXFILESTATS}
+     */
+    public Map<String, FileStats> getFilesStats() {
+        return filesStats;
+    }
+
+    /**
+     * @param count the number of files to return
+     * @return the files with the longest wait time, the longest first, with their wait time in ms
+     */
+    public Map<String, Long> getSlowestFiles(int count) {
+        List<Map.Entry<String, FileStats>> files = sortedFilesStats();
+        Map<String, Long> slowest = new LinkedHashMap<String, Long>(count);
+        for(Map.Entry<String, FileStats> e: files) {
+            if(slowest.size() >= count)
+                break;
+            slowest.put(e.getKey(), e.getValue().getWaitTime());
+        }
+        return slowest;
+    }
+
+    /**
+     * @return the total time spent waiting for a store, in ms
+     */
+    public long getWaitTime() {
+        return waitTime.get();
+    }
+
+    /**
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the global counters of the pool, used for the status and JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("capacity", (long) capacity);
+        stats.put("openFiles", (long) openCount.get());
+        stats.put("maxBytes", maxBytes);
+        stats.put("openBytes", openBytes.get());
+        stats.put("requests", requests.get());
+        stats.put("opens", opens.get());
+        stats.put("evictions", evictions.get());
+        stats.put("waits", waits.get());
+        stats.put("waitTime", waitTime.get());
+        return stats;
+    }
+
+}
@@ -0,0 +1,445 @@
+package jrds;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.rrd4j.ConsolFun;
+import org.rrd4j.core.Archive;
+import org.rrd4j.core.Datasource;
+import org.rrd4j.core.Header;
+import org.rrd4j.core.RrdBackendFactory;
+import org.rrd4j.core.RrdDb;
+import org.rrd4j.core.RrdDef;
+
+/**
+ * Upgrade the stores whose definition changed.<p>
+ * A store is rebuilt in a temporary file in the same directory, the state of each datasource and each archive
+ * is copied, and the new file replaces the old one with a single rename, so a reader sees either the old or the
+ * new store. The opened copy of the store is closed in the pool before the rename, the following users will open the
+ * new one.<p>
+ * Many stores can be upgraded at the same time, the I/O can be throttled with a maximum rate shared by all the
+ * threads. The upgrades are written in a journal, when a run is interrupted, the temporary files left by the
+ * unfinished upgrades are removed when the journal is opened again. The stores already upgraded are not touched
+ * again, their definition matches.<p>
+ * It's also used to convert the stores from a backend to another one. The conversions are journaled with the target
+ * backend, a store already converted to it by a previous run is skipped.
+ * @author Fabrice Bacchella
+ */
+public class StoreUpgrader {
+    static private final Logger logger = Logger.getLogger(StoreUpgrader.class);
+    static private final long REPORTINTERVAL = 10000;
+    static private final long EVICTTIMEOUT = 60000;
+
+    private final long bytesPerSecond;
+    private final File journalFile;
+    private Writer journal = null;
+
+    private final Object throttleLock = new Object();
+    private long throttleStart = 0;
+    private long throttleBytes = 0;
+
+    private final AtomicLong upgraded = new AtomicLong(0);
+    private final AtomicLong failed = new AtomicLong(0);
+    private final AtomicLong bytes = new AtomicLong(0);
+    private final AtomicLong cleaned = new AtomicLong(0);
+    private final AtomicLong skipped = new AtomicLong(0);
+    //The stores converted by the previous runs, as the target backend and the path
+    private final Set<String> migrated = new HashSet<String>();
+    private final long started = System.currentTimeMillis();
+    private long lastReport = started;
+
+    /**
+     * @param bytesPerSecond the maximum rate of the upgrades, counting the read and the written bytes, 0 for no limit
+     * @param journalFile the journal of the upgrades, or null
+     */
+    public StoreUpgrader(long bytesPerSecond, File journalFile) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.journalFile = journalFile;
+        if(journalFile != null) {
+            try {
+                recover();
+                journal = new FileWriter(journalFile, true);
+            } catch (IOException e) {
+                Util.log(this, logger, Level.ERROR, e, "Unable to open the upgrade journal %s: %s", journalFile, e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Remove the temporary files of the upgrades that were not finished
+     * @throws IOException
+     */
+    private void recover() throws IOException {
+        if(! journalFile.isFile())
+            return;
+        //The temporary files of the upgrades started, by store
+        Map<String, String> running = new HashMap<String, String>();
+        Set<String> done = new HashSet<String>();
+        BufferedReader r = new BufferedReader(new FileReader(journalFile));
+        try {
+            String line;
+            while((line = r.readLine()) != null) {
+                String[] fields = line.split(" ", 3);
+                if(fields.length == 3 && "start".equals(fields[0])) {
+                    running.put(fields[2], fields[1]);
+                }
+                else if(fields.length == 2 && ("done".equals(fields[0]) || "failed".equals(fields[0]))) {
+                    running.remove(fields[1]);
+                    done.add(fields[1]);
+                }
+                else if(fields.length == 3 && "migrated".equals(fields[0])) {
+                    running.remove(fields[2]);
+                    done.add(fields[2]);
+                    migrated.add(fields[1] + " " + fields[2]);
+                }
+            }
+        } finally {
+            r.close();
+        }
+        for(Map.Entry<String, String> e: running.entrySet()) {
+            File tmp = new File(e.getValue());
+            if(tmp.isFile() && tmp.delete()) {
+                cleaned.incrementAndGet();
+                Util.log(this, logger, Level.INFO, null, "Unfinished upgrade of %s, %s removed", e.getKey(), tmp);
+            }
+        }
+        Util.log(this, logger, Level.INFO, null, "%d stores upgraded by the previous runs, %d interrupted", done.size(), running.size());
+    }
+
+    private void journal(String... fields) {
+        if(journal == null)
+            return;
+        StringBuilder line = new StringBuilder();
+        for(String f: fields) {
+            if(line.length() > 0)
+                line.append(' ');
+            line.append(f);
+        }
+        line.append('\n');
+        synchronized(this) {
+            try {
+                journal.write(line.toString());
+                journal.flush();
+            } catch (IOException e) {
+                Util.log(this, logger, Level.ERROR, e, "Unable to write in the upgrade journal: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Upgrade the store of a probe to its current definition. The probe must not be collected meanwhile.
+     * @param p the probe
+     * @return true if the store was upgraded
+     */
+    public boolean upgrade(Probe<?,?> p) {
+        File source;
+        File dest = null;
+        boolean done = false;
+        try {
+            source = new File(p.getRrdName()).getCanonicalFile();
+            dest = File.createTempFile("JRDS_", ".tmp", source.getParentFile());
+        } catch (IOException e) {
+            p.log(Level.ERROR, e, "Upgrade failed: %s", e);
+            failed.incrementAndGet();
+            return false;
+        }
+        journal("start", dest.getPath(), source.getPath());
+        RrdDb rrdSource = null;
+        RrdDb rrdDest = null;
+        try {
+            p.log(Level.WARN,"Definition is changed, the store needs to be upgraded");
+            rrdSource = new RrdDb(source.getPath(), StoreOpener.getBackend());
+            RrdDef rrdDef = p.getRrdDef();
+            rrdDef.setPath(dest.getPath());
+            rrdDest = new RrdDb(rrdDef, StoreOpener.getBackend());
+            p.log(Level.DEBUG, "updating %s to %s",source, dest);
+            copyState(p, rrdSource, rrdDest);
+            rrdDest.close();
+            rrdDest = null;
+            rrdSource.close();
+            rrdSource = null;
+            long size = source.length() + dest.length();
+            p.log(Level.DEBUG, "Size difference : %d", (dest.length() - source.length()));
+            handOver(dest, source, StoreOpener.getBackend());
+            done = true;
+            upgraded.incrementAndGet();
+            bytes.addAndGet(size);
+            throttle(size);
+        } catch (IOException e) {
+            p.log(Level.ERROR, e, "Upgrade failed: %s", e);
+        } catch (RuntimeException e) {
+            p.log(Level.ERROR, e, "Upgrade failed: %s", e);
+        } finally {
+            close(rrdDest);
+            close(rrdSource);
+            if(! done) {
+                failed.incrementAndGet();
+                discard(dest, StoreOpener.getBackend());
+            }
+            journal(done ? "done" : "failed", source.getPath());
+            report();
+        }
+        return done;
+    }
+
+    /**
+     * Convert a store from a backend to another one, the definition is kept. The new store is written at the same
+     * path, so the target backend must be file based too.
+     * @param store the store
+     * @param from the backend used to read the store
+     * @param to the backend used to write the store
+     * @return true if the store was converted, now or by a previous run
+     */
+    public boolean migrate(File store, RrdBackendFactory from, RrdBackendFactory to) {
+        File source;
+        File dest = null;
+        boolean done = false;
+        try {
+            source = store.getCanonicalFile();
+            //Converted by an interrupted run
+            if(migrated.contains(to.getName() + " " + source.getPath())) {
+                skipped.incrementAndGet();
+                return true;
+            }
+            dest = File.createTempFile("JRDS_", ".tmp", source.getParentFile());
+        } catch (IOException e) {
+            Util.log(this, logger, Level.ERROR, e, "Migration of %s failed: %s", store, e);
+            failed.incrementAndGet();
+            return false;
+        }
+        journal("start", dest.getPath(), source.getPath());
+        RrdDb rrdSource = null;
+        RrdDb rrdDest = null;
+        try {
+            rrdSource = new RrdDb(source.getPath(), true, from);
+            RrdDef rrdDef = rrdSource.getRrdDef();
+            rrdDef.setPath(dest.getPath());
+            rrdDest = new RrdDb(rrdDef, to);
+            rrdSource.copyStateTo(rrdDest);
+            rrdDest.close();
+            rrdDest = null;
+            rrdSource.close();
+            rrdSource = null;
+            long size = source.length() + dest.length();
+            handOver(dest, source, to);
+            done = true;
+            upgraded.incrementAndGet();
+            bytes.addAndGet(size);
+            throttle(size);
+        } catch (IOException e) {
+            Util.log(this, logger, Level.ERROR, e, "Migration of %s failed: %s", source, e);
+        } catch (RuntimeException e) {
+            Util.log(this, logger, Level.ERROR, e, "Migration of %s failed: %s", source, e);
+        } finally {
+            close(rrdDest);
+            close(rrdSource);
+            if(! done) {
+                failed.incrementAndGet();
+                discard(dest, to);
+            }
+            if(done)
+                journal("migrated", to.getName(), source.getPath());
+            else
+                journal("failed", source.getPath());
+            report();
+        }
+        return done;
+    }
+
+    private void copyState(Probe<?,?> p, RrdDb rrdSource, RrdDb rrdDest) throws IOException {
+        Set<String> badDs = new HashSet<String>();
+        Header header = rrdSource.getHeader();
+        int dsCount = header.getDsCount();
+        header.copyStateTo(rrdDest.getHeader());
+        for (int i = 0; i < dsCount; i++) {
+            Datasource srcDs = rrdSource.getDatasource(i);
+            String dsName = srcDs.getName();
+            Datasource dstDS = rrdDest.getDatasource(dsName);
+            if (dstDS != null ) {
+                try {
+                    srcDs.copyStateTo(dstDS);
+                    p.log(Level.TRACE, "Update %s", dsName);
+                } catch (RuntimeException e) {
+                    badDs.add(dsName);
+                    p.log(Level.ERROR, e, "Datasource %s can't be upgraded: %s", dsName,  e.getMessage());
+                }
+            }
+        }
+        int robinMigrated = 0;
+        for (int i = 0; i < rrdSource.getArcCount(); i++) {
+            Archive srcArchive = rrdSource.getArchive(i);
+            ConsolFun consolFun = srcArchive.getConsolFun();
+            int steps = srcArchive.getSteps();
+            Archive dstArchive = rrdDest.getArchive(consolFun, steps);
+            if (dstArchive != null) {
+                if ( dstArchive.getConsolFun().equals(srcArchive.getConsolFun())  &&
+                        dstArchive.getSteps() == srcArchive.getSteps() ) {
+                    for (int k = 0; k < dsCount; k++) {
+                        Datasource srcDs = rrdSource.getDatasource(k);
+                        String dsName = srcDs.getName();
+                        try {
+                            int j = rrdDest.getDsIndex(dsName);
+                            if (j >= 0 && ! badDs.contains(dsName)) {
+                                p.log(Level.TRACE, "Upgrade of %s from %s", dsName, srcArchive);
+                                srcArchive.getArcState(k).copyStateTo(dstArchive.getArcState(j));
+                                srcArchive.getRobin(k).copyStateTo(dstArchive.getRobin(j));
+                                robinMigrated++;
+                            }
+                        }
+                        catch (IllegalArgumentException e) {
+                            p.log(Level.TRACE, "Datastore %s removed", dsName);
+                        }
+
+                    }
+                    p.log(Level.TRACE, "Update %s", srcArchive);
+                }
+            }
+        }
+        p.log(Level.DEBUG, "Robin migrated: %s", robinMigrated);
+    }
+
+    /**
+     * Replace the store with the upgraded file
+     */
+    private void handOver(File upgraded, File store, RrdBackendFactory backend) throws IOException {
+        //The opened copy would still use the old file, and no one must open it until it's replaced
+        if(! StoreOpener.block(store.getPath(), EVICTTIMEOUT))
+            throw new IOException("Store still in use: " + store);
+        try {
+            if(backend instanceof StoreContainerBackendFactory) {
+                ((StoreContainerBackendFactory) backend).rename(upgraded.getPath(), store.getPath());
+                upgraded.delete();
+                //Migrated from a file
+                if(store.isFile() && ! store.delete())
+                    throw new IOException("Could not delete file: " + store);
+            }
+            //A single rename is atomic, but it fails on some systems if the store exists
+            else if(! upgraded.renameTo(store)) {
+                File old = new File(store.getPath() + ".old");
+                if (! store.renameTo(old)) {
+                    throw new IOException("Could not rename file " + store + " to " + old);
+                }
+                if (! upgraded.renameTo(store)) {
+                    throw new IOException("Could not rename file " + upgraded + " to " + store);
+                }
+                if (old.exists() && ! old.delete()) {
+                    throw new IOException("Could not delete file: " + old);
+                }
+            }
+            FetchCache cache = StoreOpener.getFetchCache();
+            if(cache != null)
+                cache.invalidate(store.getPath());
+            RecentWindows windows = StoreOpener.getRecentWindows();
+            if(windows != null)
+                windows.remove(store.getPath());
+        } finally {
+            StoreOpener.unblock(store.getPath());
+        }
+    }
+
+    /**
+     * Remove an unfinished copy
+     */
+    private void discard(File upgraded, RrdBackendFactory backend) {
+        upgraded.delete();
+        if(backend instanceof StoreContainerBackendFactory) {
+            try {
+                ((StoreContainerBackendFactory) backend).remove(upgraded.getPath());
+            } catch (IOException e) {
+                Util.log(this, logger, Level.WARN, e, "Unable to remove %s: %s", upgraded, e.getMessage());
+            }
+        }
+    }
+
+    private void throttle(long size) {
+        if(bytesPerSecond <= 0)
+            return;
+        //The lock is kept while sleeping, so the rate is shared by all the threads
+        synchronized(throttleLock) {
+            long now = System.currentTimeMillis();
+            //Idle for a while, the previous upgrades are forgotten
+            if(now - throttleStart > 2 * REPORTINTERVAL + throttleBytes * 1000 / bytesPerSecond) {
+                throttleStart = now;
+                throttleBytes = 0;
+            }
+            throttleBytes += size;
+            long wait = throttleStart + throttleBytes * 1000 / bytesPerSecond - now;
+            if(wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+    }
+
+    private void report() {
+        long now = System.currentTimeMillis();
+        synchronized(this) {
+            if(now - lastReport < REPORTINTERVAL)
+                return;
+            lastReport = now;
+        }
+        Util.log(this, logger, Level.INFO, null, "%d stores upgraded, %d failed, %.1f kB/s", upgraded.get(), failed.get(), getRate() / 1024.0);
+    }
+
+    private double getRate() {
+        long elapsed = Math.max(System.currentTimeMillis() - started, 1);
+        return bytes.get() * 1000.0 / elapsed;
+    }
+
+    private void close(RrdDb db) {
+        if(db == null)
+            return;
+        try {
+            db.close();
+        } catch (IOException e) {
+        }
+    }
+
+    /**
+     * Close the journal
+     */
+    public synchronized void close() {
+        if(journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+            }
+            journal = null;
+        }
+    }
+
+    /**
+     * @return the counters of the upgrades, used for the status and JMX
+     */
+    public Map<String, Long> getStats() {
+        Map<String, Long> stats = new LinkedHashMap<String, Long>();
+        stats.put("upgraded", upgraded.get());
+        stats.put("failed", failed.get());
+        stats.put("bytes", bytes.get());
+        stats.put("rate", (long) getRate());
+        stats.put("cleaned", cleaned.get());
+        stats.put("skipped", skipped.get());
+        return stats;
+    }
+
+    @Override
+    public String toString() {
+        return "upgrader" + (journalFile != null ? ":" + journalFile : "");
+    }
+
+}
@@ -0,0 +1,375 @@
+package jrds;
+
+import java.beans.IntrospectionException;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import jrds.probe.IndexedProbe;
+import jrds.probe.UrlProbe;
+import jrds.starter.HostStarter;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A template, as used by {@link Util#parseTemplate(String, Object...)}, parsed once in a list of segments.<p>
+ * The variables are:
+ * <ul>
+ * <li><code>${system.name}</code>, a system property;</li>
+ * <li><code>${n}</code>, the nth element of the first list argument;</li>
+ * <li><code>${attr.name}</code> and <code>${attr.name.signature}</code>, a bean property of the first argument that has it;</li>
+ * <li>the well known names like <code>${host}</code>, <code>${index.signature}</code> or <code>${probename}</code>, resolved with the arguments types;</li>
+ * <li>any other name is looked up in the map arguments.</li>
+ * </ul>
+ * A compiled template is immutable and they are cached, so it can be used by many threads.
+ * @author Fabrice Bacchella
+ */
+public class Template {
+    static private final Logger logger = Logger.getLogger(Template.class);
+
+    static private final Pattern varregexp = Pattern.compile("\\$\\{([\\w\\.-]+)\\}");
+    static private final Pattern digit = Pattern.compile("\\d+");
+    static private final Pattern attrSignature = Pattern.compile("attr\\.(.*)\\.signature");
+    static private final Pattern attr = Pattern.compile("attr\\.(.*)");
+
+    //The number of templates kept, they are usually few, but some are build at runtime
+    static private final int CACHESIZE = 10000;
+    static private final ConcurrentMap<String, Template> cache = new ConcurrentHashMap<String, Template>();
+
+    //The bean properties, by class and name, a missing property is stored as a null read method
+    static private final ConcurrentMap<Class<?>, ConcurrentMap<String, BeanProperty>> beans = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, BeanProperty>>();
+
+    private interface Segment {
+        void append(StringBuilder out, Object[] arguments);
+    }
+
+    private static final class BeanProperty {
+        final boolean found;
+        final Method read;
+        BeanProperty(boolean found, Method read) {
+            this.found = found;
+            this.read = read;
+        }
+    }
+
+    /**
+     * The well known variables, resolved using the type of the arguments
+     */
+    private enum Variable {
+        index {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof IndexedProbe ? ((IndexedProbe) o).getIndexName() : NOTFOUND;
+            }
+        },
+        index_signature {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof IndexedProbe ? Util.stringSignature(((IndexedProbe) o).getIndexName()) : NOTFOUND;
+            }
+        },
+        index_cleanpath {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof IndexedProbe ? Util.cleanPath(((IndexedProbe) o).getIndexName()) : NOTFOUND;
+            }
+        },
+        url {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof UrlProbe ? ((UrlProbe) o).getUrlAsString() : NOTFOUND;
+            }
+        },
+        url_signature {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof UrlProbe ? Util.stringSignature(((UrlProbe) o).getUrlAsString()) : NOTFOUND;
+            }
+        },
+        port {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof UrlProbe ? Integer.toString(((UrlProbe) o).getPort()) : NOTFOUND;
+            }
+        },
+        connection_name {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof ConnectedProbe ? ((ConnectedProbe) o).getConnectionName() : NOTFOUND;
+            }
+        },
+        connection_name_signature {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof ConnectedProbe ? Util.stringSignature(((ConnectedProbe) o).getConnectionName()) : NOTFOUND;
+            }
+        },
+        host {
+            @Override
+            Object resolve(Object o) {
+                if(o instanceof Probe)
+                    return ((Probe<?,?>) o).getHost().getName();
+                else if(o instanceof HostStarter)
+                    return ((HostStarter) o).getHost().getName();
+                else if(o instanceof HostInfo)
+                    return ((HostInfo) o).getName();
+                return NOTFOUND;
+            }
+        },
+        probename {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof Probe ? ((Probe<?,?>) o).getName() : NOTFOUND;
+            }
+        },
+        label {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof Probe ? ((Probe<?,?>) o).getLabel() : NOTFOUND;
+            }
+        },
+        probedesc_name {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof ProbeDesc ? ((ProbeDesc) o).getName() : NOTFOUND;
+            }
+        },
+        graphdesc_title {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof GraphDesc ? ((GraphDesc) o).getGraphTitle() : NOTFOUND;
+            }
+        },
+        graphdesc_name {
+            @Override
+            Object resolve(Object o) {
+                return o instanceof GraphDesc ? ((GraphDesc) o).getGraphName() : NOTFOUND;
+            }
+        };
+
+        /**
+         * @param o an argument
+         * @return the value, or NOTFOUND if the argument don't provide this variable
+         */
+        abstract Object resolve(Object o);
+
+        static Variable find(String name) {
+            try {
+                return valueOf(name.replace('.', '_'));
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+    }
+
+    static private final Object NOTFOUND = new Object();
+
+    private static final class Text implements Segment {
+        private final String text;
+        Text(String text) {
+            this.text = text;
+        }
+        public void append(StringBuilder out, Object[] arguments) {
+            out.append(text);
+        }
+    }
+
+    private static final class SystemProperty implements Segment {
+        private final String name;
+        SystemProperty(String name) {
+            this.name = name;
+        }
+        public void append(StringBuilder out, Object[] arguments) {
+            out.append(System.getProperty(name));
+        }
+    }
+
+    private static final class ListElement implements Segment {
+        private final int index;
+        ListElement(int index) {
+            this.index = index;
+        }
+        public void append(StringBuilder out, Object[] arguments) {
+            Object value = null;
+            for(Object o: arguments) {
+                if(o instanceof List) {
+                    value = ((List<?>) o).get(index).toString();
+                    break;
+                }
+            }
+            out.append(value);
+        }
+    }
+
+    private static final class Attribute implements Segment {
+        private final String name;
+        private final boolean signature;
+        Attribute(String name, boolean signature) {
+            this.name = name;
+            this.signature = signature;
+        }
+        public void append(StringBuilder out, Object[] arguments) {
+            String value = null;
+            for(Object o: arguments) {
+                if(o == null)
+                    continue;
+                BeanProperty property = getProperty(o.getClass(), name);
+                if(! property.found)
+                    continue;
+                //A property without a getter stops the search for a signature only
+                if(property.read == null && ! signature)
+                    continue;
+                if(property.read == null)
+                    break;
+                try {
+                    value = property.read.invoke(o).toString();
+                    if(signature)
+                        value = Util.stringSignature(value);
+                    break;
+                } catch (Exception e) {
+                    value = null;
+                }
+            }
+            out.append(value);
+        }
+    }
+
+    private static final class Named implements Segment {
+        private final String name;
+        private final Variable variable;
+        Named(String name) {
+            this.name = name;
+            this.variable = Variable.find(name);
+        }
+        public void append(StringBuilder out, Object[] arguments) {
+            Object value = null;
+            for(Object o: arguments) {
+                if(o == null)
+                    continue;
+                if(variable != null) {
+                    Object resolved = variable.resolve(o);
+                    if(resolved != NOTFOUND)
+                        value = resolved;
+                }
+                if(value == null && o instanceof Map) {
+                    Map<?, ?> map = (Map<?, ?>) o;
+                    if(map.containsKey(name))
+                        value = map.get(name);
+                }
+            }
+            out.append(value);
+        }
+    }
+
+    private final String template;
+    private final Segment[] segments;
+    private final int sizeHint;
+
+    private Template(String template) {
+        this.template = template;
+        List<Segment> parsed = new ArrayList<Segment>();
+        StringBuilder text = new StringBuilder();
+        Matcher m = varregexp.matcher(template);
+        int last = 0;
+        while(m.find()) {
+            text.append(template, last, m.start());
+            last = m.end();
+            String var = m.group(1);
+            Matcher varMatcher;
+            Segment s;
+            if(var.startsWith("system.")) {
+                s = new SystemProperty(var.replace("system.", ""));
+            }
+            else if(digit.matcher(var).matches()) {
+                s = new ListElement(Integer.parseInt(var) - 1);
+            }
+            else if((varMatcher = attrSignature.matcher(var)).matches()) {
+                s = new Attribute(varMatcher.group(1), true);
+            }
+            else if((varMatcher = attr.matcher(var)).matches()) {
+                s = new Attribute(varMatcher.group(1), false);
+            }
+            else {
+                s = new Named(var);
+            }
+            if(text.length() > 0) {
+                parsed.add(new Text(text.toString()));
+                text.setLength(0);
+            }
+            parsed.add(s);
+        }
+        text.append(template, last, template.length());
+        if(text.length() > 0)
+            parsed.add(new Text(text.toString()));
+        segments = parsed.toArray(new Segment[parsed.size()]);
+        sizeHint = template.length() + 16;
+    }
+
+    /**
+     * Get the compiled form of a template, it's build once and cached
+     * @param template the template
+     * @return the compiled template
+     */
+    public static Template compile(String template) {
+        Template t = cache.get(template);
+        if(t == null) {
+            t = new Template(template);
+            //Don't let the cache grow without limit
+            if(cache.size() < CACHESIZE)
+                cache.putIfAbsent(template, t);
+        }
+        return t;
+    }
+
+    /**
+     * Resolve the template with the given arguments
+     * @param arguments the objects used to resolve the variables
+     * @return the resolved string
+     */
+    public String evaluate(Object... arguments) {
+        if(segments.length == 1 && segments[0] instanceof Text)
+            return template;
+        if(logger.isTraceEnabled()) {
+            for(Object o: arguments) {
+                if(o != null)
+                    logger.trace(Util.delayedFormatString("Argument for template \"%s\": %s", template, o.getClass()));
+            }
+        }
+        StringBuilder out = new StringBuilder(sizeHint);
+        for(Segment s: segments) {
+            s.append(out, arguments);
+        }
+        return out.toString();
+    }
+
+    private static BeanProperty getProperty(Class<?> clazz, String name) {
+        ConcurrentMap<String, BeanProperty> properties = beans.get(clazz);
+        if(properties == null) {
+            beans.putIfAbsent(clazz, new ConcurrentHashMap<String, BeanProperty>());
+            properties = beans.get(clazz);
+        }
+        BeanProperty property = properties.get(name);
+        if(property == null) {
+            try {
+                PropertyDescriptor bean = new PropertyDescriptor(name, clazz);
+                property = new BeanProperty(true, bean.getReadMethod());
+            } catch (IntrospectionException e) {
+                property = new BeanProperty(false, null);
+            }
+            properties.putIfAbsent(name, property);
+        }
+        return property;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+}
@@ -1,7 +1,9 @@
 package jrds;
 
-import java.beans.PropertyDescriptor;
 import java.io.CharArrayWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -9,19 +11,16 @@ import java.io.PrintWriter;
 import java.io.Writer;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.URL;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.UnknownFormatConversionException;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -35,9 +34,6 @@ import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 import javax.xml.transform.stream.StreamSource;
 
-import jrds.probe.IndexedProbe;
-import jrds.probe.UrlProbe;
-import jrds.starter.HostStarter;
 
 import org.apache.log4j.Level;
 import org.apache.log4j.Logger;
@@ -230,84 +226,8 @@ public class Util {
         return org.rrd4j.core.Util.getDate(org.rrd4j.core.Util.normalize(timestamp, step));
     }
 
-    private static final Pattern varregexp = Pattern.compile("(.*?)(\\$\\{([\\w\\.-]+)\\}|%)(.*)");
     private static final Pattern oldvarregexp = Pattern.compile("(.*?[^\\$])??\\{(\\d+)\\}(.*)");
 
-    static private final Pattern digit = Pattern.compile("\\d+");
-    static private final Pattern attrSignature = Pattern.compile("attr\\.(.*)\\.signature");
-    static private final Pattern attr = Pattern.compile("attr\\.(.*)");
-
-    static private final String findVariables(String in, int index, Map<String, Integer> indexes, Object... arguments) {
-        Matcher m = varregexp.matcher(in);
-        if(m.find()) {
-            StringBuilder out = new StringBuilder();
-            String before = m.group(1);
-            String percent = m.group(2);
-            String var = m.group(3);
-            String after = m.group(4);
-            out.append(before);
-            String toAppend = null;
-            Matcher varMatcher;
-            //We just found a lonely %, replace it with %% for latter String.format
-            if("%".equals(percent)) {
-                toAppend = "%%";
-            }
-            //The variable referring to a system variable are directly resolved
-            else if(var.startsWith("system.")) {
-                toAppend = System.getProperty(var.replace("system.", ""));
-            }
-            //We found a ${\d+}, directly resolve with the first list argument
-            else if(digit.matcher(var).matches()) {
-                for(Object o: arguments) {
-                    if(o instanceof List) {
-                        List <?> l = (List<?>)o;
-                        toAppend = l.get(Integer.parseInt(var) - 1).toString();
-                        break;
-                    }
-                }
-            }
-            //bean signatures are directly resolved
-            else if((varMatcher=attrSignature.matcher(var)).matches()) {
-                String beanName = varMatcher.group(1);
-                for(Object o: arguments) {
-                    try {
-                        PropertyDescriptor bean = new PropertyDescriptor(beanName, o.getClass());
-                        Method read = bean.getReadMethod();
-                        if(read != null)
-                            toAppend = stringSignature(read.invoke(o).toString());
-                        break;
-                    } catch (Exception e) {
-                    }
-                }
-            }
-            //beans are directly resolved
-            else if((varMatcher=attr.matcher(var)).matches()) {
-                String beanName = varMatcher.group(1);
-                for(Object o: arguments) {
-                    try {
-                        PropertyDescriptor bean = new PropertyDescriptor(beanName, o.getClass());
-                        toAppend = bean.getReadMethod().invoke(o).toString();
-                        break;
-                    } catch (Exception e) {
-                    }
-                }
-            }
-            //Common case, replace the variable with it's index, for MessageFormat
-            else  {
-                if(! indexes.containsKey(var)) {
-                    indexes.put(var, index++);
-                };
-                int slot = indexes.get(var) + 1;
-                toAppend = "%"  + Integer.toString(slot) + "$s";
-            }
-            out.append(toAppend);
-            if(after.length() > 0)
-                out.append(findVariables(after, index, indexes, arguments));
-            return out.toString();
-        }
-        return in;
-    }
-
     /**
      * A method to parse a template mixing old elements {x} with new variable ${variable}
      * Should be not be used any more
@@ -336,172 +256,18 @@ public class Util {
         return jrds.Util.parseTemplate(buffer.toString(), arguments);
     }
 
-    private enum evaluate {
-        index {
-            @Override
-            String toString(Object o) {
-                return  ((IndexedProbe) o).getIndexName();
-            }
-        },
-        index_signature {
-            @Override
-            String toString(Object o) {
-                return  stringSignature(((IndexedProbe) o).getIndexName());
-            }
-        },
-        index_cleanpath {
-            @Override
-            String toString(Object o) {
-                return  cleanPath(((IndexedProbe) o).getIndexName());
-            }
-        },
-        url {
-            @Override
-            String toString(Object o) {
-                return ((UrlProbe) o).getUrlAsString();
-            }
-        },
-        url_signature {
-            @Override
-            String toString(Object o) {
-                return stringSignature(((UrlProbe) o).getUrlAsString());
-            }
-        },
-        port {
-            @Override
-            String toString(Object o) {
-                return Integer.toString(((UrlProbe) o).getPort());
-            }
-        },
-        host {
-            @Override
-            String toString(Object o) {
-                return ((HostInfo) o).getName();
-            }
-        },
-        probename {
-            @Override
-            String toString(Object o) {
-                return ((Probe<?,?>) o).getName();
-            }
-        },
-        label {
-            @Override
-            String toString(Object o) {
-                return ((Probe<?,?>) o).getLabel();
-            }
-        },
-        connection_name {
-            @Override
-            String toString(Object o) {
-                ConnectedProbe cp = (ConnectedProbe) o;
-                return cp.getConnectionName();
-            }
-        },
-        connection_name_signature {
-            @Override
-            String toString(Object o) {
-                ConnectedProbe cp = (ConnectedProbe) o;
-                return stringSignature(cp.getConnectionName());
-            }
-        },
-        probedesc_name {
-            @Override
-            String toString(Object o) {
-                ProbeDesc pd = (ProbeDesc) o;
-                return pd.getName();
-            }
-        },
-        graphdesc_title {
-            @Override
-            String toString(Object o) {
-                GraphDesc gd = (GraphDesc) o;
-                return gd.getGraphTitle();
-            }
-        },
-        graphdesc_name {
-            @Override
-            String toString(Object o) {
-                GraphDesc gd = (GraphDesc) o;
-                return gd.getGraphName();
-            }
-        };
-        abstract String toString(Object o);
-    }
-
-    private static void check(Object o, Map<String, Integer> indexes, Object[] values, evaluate e) {
-        String name = e.name().replace('_', '.');
-        if(indexes.containsKey(name)) {
-            values[indexes.get(name)] = e.toString(o);
-        }
-    }
-
+    /**
+     * Resolve a template, the template is parsed once and cached, see {@link Template} for the variables.
+     * @param template The template to parse
+     * @param arguments some object to extract value from
+     * @return the resolved template
+     */
     public static final String parseTemplate(String template, Object... arguments) {
         //Don't lose time with an empty template
         if(template == null || "".equals(template.trim())) {
             return template;
         }
-
-        Map<String, Integer> indexes =  new HashMap<String, Integer>();
-        String message = findVariables(template, 0, indexes, arguments);
-        Object[] values = new Object[indexes.size()];
-
-        for(Object o: arguments) {
-            if(o == null)
-                continue;
-            if(logger.isTraceEnabled())
-                logger.trace(Util.delayedFormatString("Argument for template \"%s\": %s", template, o.getClass()));
-            if( o instanceof IndexedProbe) {
-                check(o, indexes, values, evaluate.index);
-                check(o, indexes, values, evaluate.index_signature);
-                check(o, indexes, values, evaluate.index_cleanpath);
-            }
-            if(o instanceof UrlProbe) {
-                check(o, indexes, values, evaluate.url);
-                check(o, indexes, values, evaluate.port);
-                check(o, indexes, values, evaluate.url_signature);
-            }
-            if(o instanceof ConnectedProbe) {
-                check(o, indexes, values, evaluate.connection_name);
-                check(o, indexes, values, evaluate.connection_name_signature);
-            }
-            if(o instanceof Probe) {
-                Probe<?,?> p = ((Probe<?,?>) o);
-                HostInfo host = p.getHost();
-                check(host, indexes, values, evaluate.host);
-                check(p, indexes, values, evaluate.probename);
-                check(p, indexes, values, evaluate.label);
-            } 
-            if( o instanceof HostStarter) {
-                check(((HostStarter)o).getHost(), indexes, values, evaluate.host);
-            }
-            if( o instanceof HostInfo) {
-                check(o, indexes, values, evaluate.host);
-            }
-            if(o instanceof GraphDesc) {
-                check(o, indexes, values, evaluate.graphdesc_name);
-                check(o, indexes, values, evaluate.graphdesc_title);
-            }
-            if(o instanceof ProbeDesc) {
-                check(o, indexes, values, evaluate.probedesc_name);
-            }
-            if(o instanceof Map) {
-                @SuppressWarnings("unchecked")
-                Map<? extends String, ?> tempMap = (Map<? extends String, ?>)o;
-                for(Map.Entry<String, Integer> e: indexes.entrySet()) {
-                    //Check if the given map contains a key to an empty slot in the values
-                    if(tempMap.containsKey(e.getKey()) && values[e.getValue()] == null) {
-                        values[e.getValue()] = tempMap.get(e.getKey());
-                    }
-                }
-            }
-        }
-        try {
-            return String.format(message, values);
-        } catch (UnknownFormatConversionException e) {
-            logger.error("Unable for format " + message);
-            throw e;
-        }
+        return Template.compile(template).evaluate(arguments);
     }
 
     /**
@@ -741,5 +507,28 @@ public class Util {
         return new Formater(format, args);
     }
 
-}
+    /**
+     * Copy a file, the destination is overwritten
+     * @param source
+     * @param dest
+     * @throws IOException
+     */
+    public static void copyFile(File source, File dest) throws IOException {
+        FileChannel in = new FileInputStream(source).getChannel();
+        try {
+            FileChannel out = new FileOutputStream(dest).getChannel();
+            try {
+                long size = in.size();
+                long position = 0;
+                while(position < size) {
+                    position += in.transferTo(position, size - position, out);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
 
+}
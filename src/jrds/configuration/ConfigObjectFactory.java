@@ -13,6 +13,7 @@ import jrds.GraphDesc;
 import jrds.HostInfo;
 import jrds.Macro;
 import jrds.ProbeDesc;
+import jrds.StoreChecker;
 import jrds.Tab;
 import jrds.factories.ProbeFactory;
 import jrds.factories.xml.JrdsDocument;
@@ -32,6 +33,7 @@ public class ConfigObjectFactory {
     Map<String, Macro> macrosmap = Collections.emptyMap();
     private final jrds.PropertiesManager pm;
     private Loader load = null;
+    private StoreChecker storeChecker = null;
 
     public ConfigObjectFactory(jrds.PropertiesManager pm){
         this.pm = pm;
@@ -140,11 +142,19 @@ public class ConfigObjectFactory {
         ob.setTimers(timers);
         ob.setListeners(listenerMap);
         ob.setGraphDescMap(graphDescMap);
+        ob.setStoreChecker(storeChecker);
         Map<String, HostInfo> hostsMap = getObjectMap(ob, nodemap);
         logger.debug(jrds.Util.delayedFormatString("Hosts configured: %s", hostsMap.keySet()));
         return hostsMap;
     }
 
+    /**
+     * @param storeChecker used to check the stores of the probes in the background, if null they are checked when the probes are created
+     */
+    public void setStoreChecker(StoreChecker storeChecker) {
+        this.storeChecker = storeChecker;
+    }
+
     public Map<String, Filter> setFilterMap() {
         Map<String, JrdsDocument> nodemap = load.getRepository(ConfigType.FILTER);
         FilterBuilder ob = new FilterBuilder();
@@ -22,6 +22,7 @@ import jrds.HostInfo;
 import jrds.Macro;
 import jrds.Probe;
 import jrds.ProbeDesc;
+import jrds.StoreChecker;
 import jrds.Util;
 import jrds.factories.ArgFactory;
 import jrds.factories.ProbeFactory;
@@ -48,6 +49,7 @@ public class HostBuilder extends ConfigObjectBuilder<HostInfo> {
     private Map<String, Listener<?, ?>> listeners = Collections.emptyMap();
 
     private Map<String, GraphDesc> graphDescMap;
+    private StoreChecker storeChecker = null;
 
     public HostBuilder() {
         super(ConfigType.HOSTS);
@@ -87,11 +89,17 @@ public class HostBuilder extends ConfigObjectBuilder<HostInfo> {
         else {
             host = new HostInfo(hostName);
         }
-        host.setHostDir(new File(pm.rrddir, host.getName()));
+        if(pm.storePlacement != null)
+            host.setHostDir(pm.storePlacement.getHostDir(host.getName()));
+        else
+            host.setHostDir(new File(pm.rrddir, host.getName()));
+        host.setStoreFanout(pm.storeFanout);
 
         String hidden = hostNode.getAttribute("hidden");
         host.setHidden(hidden != null && Boolean.parseBoolean(hidden));
 
+        host.setParallel(Util.parseStringNumber(hostNode.getAttribute("parallel"), 0));
+
         Map<String, Set<String>> collections = new HashMap<String, Set<String>>();
 
         parseFragment(hostNode, host, collections, null);
@@ -362,7 +370,14 @@ public class HostBuilder extends ConfigObjectBuilder<HostInfo> {
             }
         }
 
-        if(p.checkStore()) {
+        //The probe will be collected once its store is checked
+        if(storeChecker != null) {
+            if(! p.checkProbe())
+                return null;
+            shost.addProbe(p);
+            storeChecker.check(p);
+        }
+        else if(p.checkStore()) {
             shost.addProbe(p);
         }
         else {
@@ -548,4 +563,8 @@ public class HostBuilder extends ConfigObjectBuilder<HostInfo> {
         this.graphDescMap = graphDescMap;
     }
 
+    public void setStoreChecker(StoreChecker storeChecker) {
+        this.storeChecker = storeChecker;
+    }
+
 }
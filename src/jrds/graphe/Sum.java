@@ -82,7 +82,12 @@ public class Sum extends AutonomousGraphNode {
 
                         //First pass, no data to use
                         if(allvalues == null) {
-                            allvalues = (double[][]) fd.getValues().clone();
+                            //The fetched data can be shared, the sum is done in a copy
+                            double[][] values = fd.getValues();
+                            allvalues = new double[values.length][];
+                            for(int c = 0 ; c < values.length ; c++) {
+                                allvalues[c] = values[c].clone();
+                            }
                         }
                         //Next step, sum previous values
                         else {
@@ -3,6 +3,8 @@ package jrds.jmx;
 import java.io.File;
 import java.lang.management.ManagementFactory;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanRegistrationException;
@@ -13,9 +15,22 @@ import javax.management.ObjectName;
 import javax.management.StandardMBean;
 
 import jrds.Configuration;
+import jrds.FetchCache;
 import jrds.HostInfo;
 import jrds.HostsList;
+import jrds.Probe;
 import jrds.PropertiesManager;
+import jrds.RecentWindows;
+import jrds.Renderer;
+import jrds.SampleWriter;
+import jrds.StoreChecker;
+import jrds.StoreOpener;
+import jrds.StorePool;
+import jrds.StoreUpgrader;
+import jrds.starter.CircuitBreaker;
+import jrds.starter.HostStarter;
+import jrds.starter.Timer;
+import jrds.starter.Timer.Stats;
 
 public class Management extends StandardMBean implements ManagementMBean {
     static public final void register(File configfile)  {
@@ -75,4 +90,175 @@ public class Management extends StandardMBean implements ManagementMBean {
     public int getGeneration() {
         return Configuration.get().getHostsList().getGeneration();
     }
+
+    @Override
+    public int getCollectorThreads(String timerName) {
+        return getTimer(timerName).getNumCollectors();
+    }
+
+    @Override
+    public void setCollectorThreads(String timerName, int numCollectors) {
+        getTimer(timerName).setNumCollectors(numCollectors);
+    }
+
+    @Override
+    public Map<String, Long> getCollectorStats(String timerName) {
+        Stats stats = getTimer(timerName).getStats();
+        Map<String, Long> values = new HashMap<String, Long>();
+        synchronized(stats) {
+            values.put("collectorThreads", (long) stats.collectorThreads);
+            values.put("activeCollectors", (long) stats.activeCollectors);
+            values.put("queueDepth", (long) stats.queueDepth);
+            values.put("rejectedCollects", stats.rejectedCollects);
+            values.put("lastDuration", stats.runtime);
+            values.put("openCircuits", (long) stats.openCircuits);
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getHostsCost(String timerName) {
+        return getTimer(timerName).getHostsCost();
+    }
+
+    @Override
+    public Map<String, Long> getOpenCircuits(String timerName) {
+        Map<String, Long> values = new HashMap<String, Long>();
+        for(Map.Entry<String, CircuitBreaker> e: getTimer(timerName).getOpenCircuits().entrySet()) {
+            values.put(e.getKey(), (long) e.getValue().getFailures());
+        }
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getTimerLatency(String timerName) {
+        return getTimer(timerName).getCollectStatistics().toMap();
+    }
+
+    @Override
+    public Map<String, Long> getHostLatency(String hostName) {
+        return getHost(hostName).getCollectStatistics().toMap();
+    }
+
+    @Override
+    public Map<String, Long> getProbeLatency(String hostName, String probeName) {
+        for(Probe<?,?> p: getHost(hostName).getAllProbes()) {
+            if(p.getName().equals(probeName))
+                return p.getCollectStatistics().toMap();
+        }
+        throw new IllegalArgumentException("Unknown probe " + hostName + "/" + probeName);
+    }
+
+    @Override
+    public Map<String, Long> getWriterStats() {
+        return getSampleWriter().getStats();
+    }
+
+    @Override
+    public Map<String, Long> getWriterLatency() {
+        return getSampleWriter().getWriteStatistics().toMap();
+    }
+
+    @Override
+    public Map<String, Long> getStoreStats() {
+        return getStorePool().getStats();
+    }
+
+    @Override
+    public Map<String, Long> getStoreFileStats(String path) {
+        StorePool.FileStats stats = getStorePool().getFileStats(path);
+        if(stats == null)
+            throw new IllegalArgumentException("Unknown store " + path);
+        Map<String, Long> values = new HashMap<String, Long>();
+        values.put("openCount", (long) getStorePool().getOpenCount(path));
+        values.put("requests", stats.getRequests());
+        values.put("opens", stats.getOpens());
+        values.put("waitTime", stats.getWaitTime());
+        return values;
+    }
+
+    @Override
+    public Map<String, Long> getSlowestStores(int count) {
+        return getStorePool().getSlowestFiles(count);
+    }
+
+    @Override
+    public Map<String, Long> getFetchCacheStats() {
+        FetchCache cache = StoreOpener.getFetchCache();
+        if(cache == null)
+            throw new IllegalStateException("No fetch cache configured");
+        return cache.getStats();
+    }
+
+    @Override
+    public Map<String, Long> getRendererStats() {
+        Renderer renderer = Configuration.get().getHostsList().getRenderer();
+        if(renderer == null)
+            throw new IllegalStateException("No renderer configured");
+        return renderer.getStats();
+    }
+
+    @Override
+    public Map<String, Long> getRecentWindowsStats() {
+        RecentWindows windows = StoreOpener.getRecentWindows();
+        if(windows == null)
+            throw new IllegalStateException("No recent windows configured");
+        return windows.getStats();
+    }
+
+    @Override
+    public Map<String, Long> getContainerStats() {
+        Map<String, Long> stats = StoreOpener.getContainerStats();
+        if(stats == null)
+            throw new IllegalStateException("No stores containers configured");
+        return stats;
+    }
+
+    @Override
+    public Map<String, Long> getStoreCheckerStats() {
+        StoreChecker checker = Configuration.get().getHostsList().getStoreChecker();
+        if(checker == null)
+            throw new IllegalStateException("No store checker configured");
+        return checker.getStats();
+    }
+
+    @Override
+    public Map<String, Long> getUpgraderStats() {
+        StoreUpgrader upgrader = Configuration.get().getHostsList().getStoreUpgrader();
+        if(upgrader == null)
+            throw new IllegalStateException("No store upgrader configured");
+        return upgrader.getStats();
+    }
+
+    private StorePool getStorePool() {
+        StorePool pool = StoreOpener.getInstance();
+        if(pool == null)
+            throw new IllegalStateException("No stores pool configured");
+        return pool;
+    }
+
+    private SampleWriter getSampleWriter() {
+        SampleWriter writer = Configuration.get().getHostsList().getSampleWriter();
+        if(writer == null)
+            throw new IllegalStateException("No sample writer configured");
+        return writer;
+    }
+
+    private HostStarter getHost(String hostName) {
+        for(Timer t: Configuration.get().getHostsList().getTimers()) {
+            for(HostStarter host: t.getAllHosts()) {
+                if(host.getName().equals(hostName))
+                    return host;
+            }
+        }
+        throw new IllegalArgumentException("Unknown host " + hostName);
+    }
+
+    private Timer getTimer(String timerName) {
+        for(Timer t: Configuration.get().getHostsList().getTimers()) {
+            if(t.getName().equals(timerName))
+                return t;
+        }
+        throw new IllegalArgumentException("Unknown timer " + timerName);
+    }
 }
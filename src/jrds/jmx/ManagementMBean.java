@@ -1,8 +1,29 @@
 package jrds.jmx;
 
+import java.util.Map;
+
 public interface ManagementMBean {
     public void reload();
     public int getHostsCount();
     public int getProbesCount();
     public int getGeneration();
+    public int getCollectorThreads(String timerName);
+    public void setCollectorThreads(String timerName, int numCollectors);
+    public Map<String, Long> getCollectorStats(String timerName);
+    public Map<String, Long> getHostsCost(String timerName);
+    public Map<String, Long> getOpenCircuits(String timerName);
+    public Map<String, Long> getTimerLatency(String timerName);
+    public Map<String, Long> getHostLatency(String hostName);
+    public Map<String, Long> getProbeLatency(String hostName, String probeName);
+    public Map<String, Long> getWriterStats();
+    public Map<String, Long> getWriterLatency();
+    public Map<String, Long> getStoreStats();
+    public Map<String, Long> getStoreFileStats(String path);
+    public Map<String, Long> getSlowestStores(int count);
+    public Map<String, Long> getFetchCacheStats();
+    public Map<String, Long> getContainerStats();
+    public Map<String, Long> getRecentWindowsStats();
+    public Map<String, Long> getRendererStats();
+    public Map<String, Long> getStoreCheckerStats();
+    public Map<String, Long> getUpgraderStats();
 }
@@ -6,12 +6,14 @@ import java.net.URISyntaxException;
 import java.util.Map;
 
 import jrds.factories.ProbeMeta;
+import jrds.starter.CollectContext;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.params.CoreConnectionPNames;
 import org.apache.log4j.Level;
 
 /**
@@ -37,7 +39,16 @@ public abstract class HCHttpProbe extends HttpProbe {
         HttpClientStarter httpstarter = find(HttpClientStarter.class);
         HttpClient cnx = httpstarter.getHttpClient();
         try {
-            HttpGet hg = new HttpGet(getUrl().toURI());
+            final HttpGet hg = new HttpGet(getUrl().toURI());
+            //The request is bounded by the probe deadline and aborted if the collect is cancelled
+            int timeout = CollectContext.boundTimeout(getTimeout() * 1000);
+            hg.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, timeout);
+            hg.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, timeout);
+            CollectContext.onCurrentCancel(new Runnable() {
+                public void run() {
+                    hg.abort();
+                }
+            });
             HttpResponse response = cnx.execute(hg);
             if(response.getStatusLine().getStatusCode() != 200) {
                 log(Level.ERROR, "Connection to %s fail with %s", getUrl(), response.getStatusLine().getReasonPhrase());
@@ -1,7 +1,10 @@
 package jrds.probe;
 
 import jrds.PropertiesManager;
+import jrds.starter.HostStarter;
 import jrds.starter.Starter;
+import jrds.starter.StarterNode;
+import jrds.starter.Timer;
 
 import org.apache.http.client.HttpClient;
 import org.apache.http.conn.scheme.PlainSocketFactory;
@@ -17,6 +20,7 @@ public class HttpClientStarter extends Starter {
     private static final String USERAGENT = "JRDS HTTP agent";
     private HttpClient client = null;
     private int maxConnect = 0;
+    private int maxPerRoute = 2;
     private int timeout = 0;
 
     //a empty registry, only http will be managed
@@ -42,9 +46,11 @@ public class HttpClientStarter extends Starter {
 
     @Override
     public boolean start() {
+        //Probes of a host might be collected in parallel
+        maxPerRoute = Math.max(2, getHostParallelism());
         ThreadSafeClientConnManager cm = new ThreadSafeClientConnManager(registry);
-        cm.setMaxTotal(maxConnect * 2);
-        cm.setDefaultMaxPerRoute(2);
+        cm.setMaxTotal(maxConnect * maxPerRoute);
+        cm.setDefaultMaxPerRoute(maxPerRoute);
 
         client = new DefaultHttpClient(cm);
         HttpParams params = client.getParams();
@@ -54,6 +60,25 @@ public class HttpClientStarter extends Starter {
         return true;
     }
 
+    /**
+     * The parallelism of the hosts using this client, a route is a host. When shared by a timer, it's the
+     * highest of its hosts.
+     * @return the number of probes of a host that can be collected at the same time
+     */
+    private int getHostParallelism() {
+        StarterNode level = getLevel();
+        int parallelism = 0;
+        if(level instanceof HostStarter) {
+            parallelism = ((HostStarter) level).getParallelism();
+        }
+        else if(level instanceof Timer) {
+            for(HostStarter host: ((Timer) level).getAllHosts()) {
+                parallelism = Math.max(parallelism, host.getParallelism());
+            }
+        }
+        return parallelism;
+    }
+
     @Override
     public void stop() {
         client.getConnectionManager().shutdown();
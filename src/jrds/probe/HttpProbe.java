@@ -17,6 +17,7 @@ import java.util.Map;
 import jrds.Probe;
 import jrds.Util;
 import jrds.factories.ProbeBean;
+import jrds.starter.CollectContext;
 import jrds.starter.Resolver;
 import jrds.starter.Starter;
 
@@ -164,8 +165,9 @@ public abstract class HttpProbe extends Probe<String, Number> implements UrlProb
         URLConnection cnx = null;
         try {
             cnx = getUrl().openConnection();
-            cnx.setConnectTimeout(getTimeout() * 1000);
-            cnx.setReadTimeout(getTimeout() * 1000);
+            int timeout = CollectContext.boundTimeout(getTimeout() * 1000);
+            cnx.setConnectTimeout(timeout);
+            cnx.setReadTimeout(timeout);
             cnx.connect();
         } catch (IOException e) {
             log(Level.ERROR, e, "Connection to %s failed: %s", getUrl(), e.getMessage());
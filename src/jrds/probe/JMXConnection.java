@@ -14,6 +14,7 @@ import javax.management.remote.JMXConnectorFactory;
 import javax.management.remote.JMXServiceURL;
 
 import jrds.factories.ProbeBean;
+import jrds.starter.CollectContext;
 import jrds.starter.Connection;
 
 import org.apache.log4j.Level;
@@ -74,6 +75,20 @@ public class JMXConnection extends Connection<MBeanServerConnection> {
 
     @Override
     public MBeanServerConnection getConnection() {
+        //There is no timeout for a JMX request, if the collect is cancelled, the connector is closed
+        //to abort the blocked requests
+        final JMXConnector current = connector;
+        if(current != null) {
+            CollectContext.onCurrentCancel(new Runnable() {
+                public void run() {
+                    try {
+                        current.close();
+                    } catch (IOException e) {
+                        log(Level.DEBUG, e, "JMXConnector to %s abort failed: %s", JMXConnection.this, e );
+                    }
+                }
+            });
+        }
         return connection;
     }
     
@@ -106,6 +121,15 @@ public class JMXConnection extends Connection<MBeanServerConnection> {
         return 0;
     }
 
+    /* (non-Javadoc)
+     * @see jrds.starter.Connection#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        //A MBeanServerConnection can be shared
+        return true;
+    }
+
     /* (non-Javadoc)
      * @see jrds.Starter#start()
      */
@@ -116,12 +140,14 @@ public class JMXConnection extends Connection<MBeanServerConnection> {
                 url = protocol.getURL(this);
             }
             log(Level.TRACE, "connecting to %s", url);
-            Map<String, Object> attributes = null;
+            Map<String, Object> attributes = new HashMap<String, Object>();
             if(user != null && password != null ) {
                 String[] credentials = new String[]{user, password};
-                attributes = new HashMap<String, Object>();
                 attributes.put("jmx.remote.credentials", credentials);
             }
+            //Only used by jmxmp, rmi requests have no timeout
+            if(getLevel().getTimeout() > 0)
+                attributes.put("jmx.remote.x.request.waiting.timeout", Long.valueOf(getLevel().getTimeout() * 1000L));
             connector = JMXConnectorFactory.connect(url, attributes);
             connection = connector.getMBeanServerConnection();
             log(Level.DEBUG, "connected to %s", connection);
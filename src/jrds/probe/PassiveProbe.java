@@ -34,8 +34,10 @@ public class PassiveProbe<KeyType> extends Probe<KeyType, Number> {
             RrdDb rrdDb = StoreOpener.getRrd(getRrdName());
             Sample sample = rrdDb.createSample();
             sample.setTime(time.getTime() / 1000);
-            injectSample(sample, rawValues);
-            StoreOpener.releaseRrd(rrdDb);
+            if(injectSample(sample, rawValues))
+                storeSample(rrdDb, sample, getStep() * 1000L);
+            else
+                StoreOpener.releaseRrd(rrdDb);
         } catch (IOException e) {
             log(Level.ERROR, e, "Failed to store sample: %s", e.getMessage());
         }
@@ -49,7 +49,7 @@ public class JdbcConnection extends Connection<Statement> {
 
     public Statement getConnection() {
         try {
-            return con.createStatement();
+            return JdbcStarter.bindToCollect(con.createStatement(), getTimeout());
         } catch (SQLException e) {
             log(Level.ERROR, "JDBC Statment failed: " + e.getMessage());
             return null;
@@ -7,6 +7,7 @@ import java.sql.Statement;
 import java.util.Properties;
 
 import jrds.HostInfo;
+import jrds.starter.CollectContext;
 import jrds.starter.Resolver;
 import jrds.starter.Starter;
 
@@ -57,7 +58,30 @@ public abstract class JdbcStarter extends Starter {
 	}
 
 	public Statement getStatment() throws SQLException {
-		return con.createStatement();
+		return bindToCollect(con.createStatement(), getLevel().getTimeout());
+	}
+
+	/**
+	 * The query of a statement will not run after the probe deadline and it's cancelled if the collect is cancelled
+	 * @param stmt the statement to bind
+	 * @param timeout the query timeout, in seconds
+	 * @return the statement
+	 * @throws SQLException
+	 */
+	static Statement bindToCollect(final Statement stmt, int timeout) throws SQLException {
+		if(timeout > 0) {
+			int bounded = CollectContext.boundTimeout(timeout * 1000);
+			stmt.setQueryTimeout(Math.max((bounded + 999) / 1000, 1));
+		}
+		CollectContext.onCurrentCancel(new Runnable() {
+			public void run() {
+				try {
+					stmt.cancel();
+				} catch (SQLException e) {
+				}
+			}
+		});
+		return stmt;
 	}
 
 	public Properties getProperties() {
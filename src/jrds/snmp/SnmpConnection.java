@@ -5,6 +5,7 @@ import java.util.HashSet;
 import java.util.Set;
 
 import jrds.factories.ProbeBean;
+import jrds.starter.CollectContext;
 import jrds.starter.Connection;
 import jrds.starter.Resolver;
 
@@ -44,7 +45,26 @@ public class SnmpConnection extends Connection<Target> {
 
     @Override
     public Target getConnection() {
-        return snmpTarget;
+        Target target = snmpTarget;
+        if(target == null)
+            return null;
+        //The requests of a probe don't wait after its deadline, all the tries included
+        int tries = target.getRetries() + 1;
+        long timeout = CollectContext.boundTimeout((int) target.getTimeout() * tries) / tries;
+        if(timeout < target.getTimeout()) {
+            target = (Target) target.clone();
+            target.setTimeout(Math.max(timeout, 1));
+        }
+        return target;
+    }
+
+    /* (non-Javadoc)
+     * @see jrds.starter.Connection#isThreadSafe()
+     */
+    @Override
+    public boolean isThreadSafe() {
+        //The Snmp session from snmp4j can be shared
+        return true;
     }
 
     @Override
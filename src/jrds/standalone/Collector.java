@@ -33,7 +33,7 @@ public class Collector extends CommandStarterImpl {
 
         System.getProperties().setProperty("java.awt.headless","true");
         System.getProperties().putAll(pm);
-        StoreOpener.prepare(pm.rrdbackend, pm.dbPoolSize );
+        StoreOpener.prepare(pm.rrdbackend, pm.dbPoolSize, pm.nioSyncPeriod, pm.nioMaxMapped);
 
         HostsList hl = new HostsList(pm);
 
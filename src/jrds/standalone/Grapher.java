@@ -47,7 +47,8 @@ public class Grapher {
         HostsList hl = new HostsList(pm);
 
         Period p = new Period();
-        Renderer r = new Renderer(10, pm.tmpdir);
+        //All the images are kept until they are written
+        Renderer r = new Renderer(Long.MAX_VALUE);
         Collection<Integer> done = new HashSet<Integer>();
         logger.debug(hl.getTrees());
         for(GraphTree graphTree: hl.getTrees()) {
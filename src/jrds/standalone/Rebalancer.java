@@ -0,0 +1,131 @@
+package jrds.standalone;
+
+import java.io.File;
+import java.io.IOException;
+
+import jrds.PropertiesManager;
+import jrds.StoreContainerBackendFactory;
+import jrds.StorePlacement;
+import jrds.Util;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Move the stores to the place given by the store roots and the fan-out, after a root was added or the fan-out
+ * changed. It must be run when jrds is stopped.<p>
+ * Each directory in a root is a host directory, the stores found in it or in its sub directories are moved to
+ * their expected directory, with the fingerprint files. The stores containers are moved with their host, but
+ * they are not split again if the fan-out changed.
+ */
+public class Rebalancer {
+	static final private Logger logger = Logger.getLogger(Rebalancer.class);
+
+	private final StorePlacement placement;
+	private final int fanout;
+	private int moved = 0;
+	private int failed = 0;
+
+	public Rebalancer(StorePlacement placement, int fanout) {
+		this.placement = placement;
+		this.fanout = fanout;
+	}
+
+	public static void main(String[] args) throws IOException {
+		jrds.JrdsLoggerConfiguration.initLog4J();
+
+		PropertiesManager pm = new PropertiesManager(new File("jrds.properties"));
+		Rebalancer r = new Rebalancer(pm.storePlacement, pm.storeFanout);
+		long start = System.currentTimeMillis();
+		r.rebalance();
+		logger.info(String.format("Rebalance finished in %ds: %d stores moved, %d failed", (System.currentTimeMillis() - start) / 1000, r.getMoved(), r.getFailed()));
+	}
+
+	/**
+	 * Move all the stores that are not in their expected directory
+	 */
+	public void rebalance() {
+		for(File root: placement.getRoots()) {
+			File[] hostDirs = root.listFiles();
+			if(hostDirs == null)
+				continue;
+			for(File hostDir: hostDirs) {
+				if(hostDir.isDirectory())
+					rebalanceHost(hostDir, placement.getHostDir(hostDir.getName()), hostDir);
+			}
+		}
+	}
+
+	private void rebalanceHost(File hostDir, File expectedHostDir, File dir) {
+		File[] files = dir.listFiles();
+		if(files == null)
+			return;
+		for(File f: files) {
+			if(f.isDirectory()) {
+				rebalanceHost(hostDir, expectedHostDir, f);
+			}
+			else if(f.getName().endsWith(".rrd")) {
+				File dest = StorePlacement.getStoreFile(expectedHostDir, f.getName(), fanout);
+				if(dest.getAbsoluteFile().equals(f.getAbsoluteFile()))
+					continue;
+				try {
+					move(f, dest);
+					File fingerprint = new File(f.getPath() + ".fingerprint");
+					if(fingerprint.isFile())
+						move(fingerprint, new File(dest.getPath() + ".fingerprint"));
+					moved++;
+				} catch (IOException e) {
+					logger.error("Unable to move " + f + " to " + dest + ": " + e.getMessage());
+					failed++;
+				}
+			}
+			//A container can only follow its host, its stores stay in the same sub directory
+			else if(f.getName().equals(StoreContainerBackendFactory.CONTAINERNAME) && ! hostDir.equals(expectedHostDir)) {
+				String relative = f.getPath().substring(hostDir.getPath().length());
+				File dest = new File(expectedHostDir.getPath() + relative);
+				try {
+					move(f, dest);
+					moved++;
+				} catch (IOException e) {
+					logger.error("Unable to move " + f + " to " + dest + ": " + e.getMessage());
+					failed++;
+				}
+			}
+		}
+		//Emptied by the move
+		if(! dir.equals(hostDir) || ! dir.equals(expectedHostDir)) {
+			String[] left = dir.list();
+			if(left != null && left.length == 0)
+				dir.delete();
+		}
+	}
+
+	private void move(File source, File dest) throws IOException {
+		if(dest.exists())
+			throw new IOException("destination already exists");
+		File destDir = dest.getParentFile();
+		if(! destDir.isDirectory() && ! destDir.mkdirs())
+			throw new IOException("can't create " + destDir);
+		if(source.renameTo(dest))
+			return;
+		//Not on the same file system
+		File tmp = File.createTempFile("JRDS_", ".tmp", destDir);
+		try {
+			Util.copyFile(source, tmp);
+			if(! tmp.renameTo(dest))
+				throw new IOException("can't rename " + tmp);
+		} finally {
+			tmp.delete();
+		}
+		if(! source.delete())
+			throw new IOException("can't delete the source");
+	}
+
+	public int getMoved() {
+		return moved;
+	}
+
+	public int getFailed() {
+		return failed;
+	}
+
+}
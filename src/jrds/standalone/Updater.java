@@ -1,24 +1,35 @@
 package jrds.standalone;
 
 import java.io.File;
+import java.io.FileFilter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
-import jrds.HostInfo;
 import jrds.HostsList;
-import jrds.Probe;
 import jrds.PropertiesManager;
+import jrds.StoreChecker;
 import jrds.StoreOpener;
+import jrds.StoreUpgrader;
 
 import org.apache.log4j.Logger;
-import org.rrd4j.core.RrdDb;
-import org.rrd4j.core.RrdDef;
+import org.rrd4j.core.RrdBackendFactory;
 
+/**
+ * Upgrade all the stores whose definition changed.<p>
+ * The stores are checked and upgraded by the checker threads of the hosts list, see the checkThreads property.
+ * The rate is limited by upgradeRate, in kB/s. The journal is upgradeJournal, or upgrade.journal in the
+ * probes directory; an interrupted run can be started again, it continues where it stopped.<p>
+ * If a backend name is given as argument, all the stores in the probes directory are converted from this
+ * backend to the configured one, using checkThreads threads. The stores converted by an interrupted run are
+ * skipped when it's started again.
+ */
 public class Updater {
 	static final private Logger logger = Logger.getLogger(Updater.class);
+	static final private long REPORTINTERVAL = 10000;
 
 	public static void main(String[] args) throws IOException {
 		jrds.JrdsLoggerConfiguration.initLog4J();
@@ -28,69 +39,74 @@ public class Updater {
 
 		System.getProperties().setProperty("java.awt.headless","true");
 		System.getProperties().putAll(pm);
+		//Needed to resume an interrupted run
+		if(pm.upgradeJournal == null)
+			pm.upgradeJournal = new File(pm.rrddir, "upgrade.journal");
 		StoreOpener.prepare(pm.rrdbackend, pm.dbPoolSize);
-        HostsList hl =  new HostsList(pm);
 
-		ExecutorService tpool =  Executors.newFixedThreadPool(3);
+		long start = System.currentTimeMillis();
+		StoreUpgrader upgrader;
+		if(args.length > 0) {
+			upgrader = migrate(pm, RrdBackendFactory.getFactory(args[0]));
+		}
+		else {
+			HostsList hl =  new HostsList(pm);
 
-		for(HostInfo host: hl.getHosts()) {
-			for(final Probe<?,?> p: host.getProbes()) {
-				final Runnable runUpgrade = new Runnable() {
-					private Probe<?,?> lp = p;
-					
-					public void run() {
-						try {
-							RrdDef rrdDef = lp.getRrdDef();
-							File source = new File(lp.getRrdName());
-							File dest = File.createTempFile("JRDS_", ".tmp", source.getParentFile());
-							logger.debug("updating " +  source  + " to "  + dest);
-							RrdDb rrdSource = StoreOpener.getRrd(source.getCanonicalPath());
-							rrdDef.setPath(dest.getCanonicalPath());
-							RrdDb rrdDest = new RrdDb(rrdDef);
-							rrdSource.copyStateTo(rrdDest);
-							rrdDest.close();
-							StoreOpener.releaseRrd(rrdSource);
-							logger.debug("Size difference : " + (dest.length() - source.length()));
-							copyFile(dest.getCanonicalPath(), source.getCanonicalPath());
-						} catch (IOException e) {
-							e.printStackTrace();
-						}
-					}
-				};
-				try {
-					tpool.execute(runUpgrade);
-				}
-				catch(RejectedExecutionException ex) {
-					logger.debug("collector thread dropped for probe " + p.getName());
+			StoreChecker checker = hl.getStoreChecker();
+			upgrader = hl.getStoreUpgrader();
+			if(checker != null) {
+				while(! checker.await(REPORTINTERVAL)) {
+					logger.info(String.format("%d stores left to check, %s", checker.getPending(), upgrader.getStats()));
 				}
-
-
+				checker.stop();
 			}
 		}
+		upgrader.close();
+		logger.info(String.format("Upgrade finished in %ds: %s", (System.currentTimeMillis() - start) / 1000, upgrader.getStats()));
+		StoreOpener.stop();
+	}
+
+	private static StoreUpgrader migrate(PropertiesManager pm, final RrdBackendFactory from) {
+		final StoreUpgrader upgrader = new StoreUpgrader(pm.upgradeRate, pm.upgradeJournal);
+		final RrdBackendFactory to = StoreOpener.getBackend();
+		logger.info(String.format("Converting the stores from %s to %s", from.getName(), to.getName()));
+		List<File> stores = new ArrayList<File>();
+		for(File root: pm.storePlacement.getRoots()) {
+			findStores(root, stores);
+		}
+		ExecutorService tpool =  Executors.newFixedThreadPool(Math.max(pm.checkThreads, 1));
+		for(final File store: stores) {
+			tpool.execute(new Runnable() {
+				public void run() {
+					upgrader.migrate(store, from, to);
+				}
+			});
+		}
 		tpool.shutdown();
 		try {
-			tpool.awaitTermination(Integer.MAX_VALUE, TimeUnit.SECONDS);
+			while(! tpool.awaitTermination(REPORTINTERVAL, TimeUnit.MILLISECONDS)) {
+				logger.info(String.format("%d stores to convert, %s", stores.size(), upgrader.getStats()));
+			}
 		} catch (InterruptedException e) {
-			logger.info("Collect interrupted");
+			logger.info("Migration interrupted");
 		}
-		StoreOpener.stop();
+		return upgrader;
 	}
-	private static void copyFile(String sourcePath, String destPath)
-	throws IOException {
-		File source = new File(sourcePath);
-		File dest = new File(destPath);
-		deleteFile(dest);
-		if (!source.renameTo(dest)) {
-			throw new IOException("Could not create file " + destPath + " from " + sourcePath);
-		}
-	}
-	private static void deleteFile(File file) throws IOException {
-		if (file.exists() && !file.delete()) {
-			throw new IOException("Could not delete file: " + file.getCanonicalPath());
+
+	private static void findStores(File dir, List<File> stores) {
+		File[] files = dir.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isDirectory() || file.getName().endsWith(".rrd");
+			}
+		});
+		if(files == null)
+			return;
+		for(File f: files) {
+			if(f.isDirectory())
+				findStores(f, stores);
+			else
+				stores.add(f);
 		}
 	}
 
-
-
-
 }
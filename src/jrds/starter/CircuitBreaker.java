@@ -0,0 +1,101 @@
+package jrds.starter;
+
+/**
+ * Protect the collect from starters that keep failing, like a dead host or an unreachable agent.<p>
+ * After a number of consecutive failures, the circuit is opened and the starter is not tried any more
+ * until a back off delay is expired. The delay is doubled after each new failure, up to a maximum.
+ * When the delay is expired, a single try is allowed (the circuit is half open). If it succeed, the circuit is closed again.
+ * @author Fabrice Bacchella
+ */
+public class CircuitBreaker {
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALFOPEN
+    }
+
+    private int threshold = 3;
+    private long maxDelay = 3600 * 1000L;
+    private int failures = 0;
+    private long trips = 0;
+    private long retryTime = 0;
+
+    /**
+     * @param threshold the number of consecutive failures that open the circuit
+     * @param maxDelay the maximum back off delay, in ms
+     */
+    public synchronized void configure(int threshold, long maxDelay) {
+        this.threshold = Math.max(threshold, 1);
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Check if a try can be done
+     * @param now the current time, in ms
+     * @return true if the circuit is closed or half open
+     */
+    public synchronized boolean allow(long now) {
+        return failures < threshold || now >= retryTime;
+    }
+
+    /**
+     * The try succeeded, the circuit is closed
+     */
+    public synchronized void success() {
+        failures = 0;
+        retryTime = 0;
+    }
+
+    /**
+     * The try failed, the circuit might be opened
+     * @param now the current time, in ms
+     * @param delay the initial back off delay, in ms
+     * @return true if the circuit is now open
+     */
+    public synchronized boolean failure(long now, long delay) {
+        failures++;
+        if(failures < threshold)
+            return false;
+        if(failures == threshold)
+            trips++;
+        //The delay is doubled for each failure, without overflow
+        int shift = Math.min(failures - threshold, 30);
+        retryTime = now + Math.min(delay << shift, maxDelay);
+        return true;
+    }
+
+    /**
+     * @param now the current time, in ms
+     * @return the state of the circuit
+     */
+    public synchronized State getState(long now) {
+        if(failures < threshold)
+            return State.CLOSED;
+        else if(now < retryTime)
+            return State.OPEN;
+        else
+            return State.HALFOPEN;
+    }
+
+    /**
+     * @return the number of consecutive failures
+     */
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of time the circuit was opened
+     */
+    public synchronized long getTrips() {
+        return trips;
+    }
+
+    /**
+     * @return the time of the next try, in ms, or 0 if the circuit is closed
+     */
+    public synchronized long getRetryTime() {
+        return failures < threshold ? 0 : retryTime;
+    }
+
+}
@@ -0,0 +1,186 @@
+package jrds.starter;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The state of one collect cycle, shared by a level and all its children.<p>
+ * A {@link StarterNode} gets a new context when it starts a collect, as a child of its parent context.
+ * Cancelling a context cancel all its children, but not its parent. So checking if a collect is still
+ * running is a single volatile read, without walking the levels.<p>
+ * Closing a context only stops it, no new child can be started, but the children already running
+ * go on until they are closed or cancelled.<p>
+ * A context also has a deadline, a child never ends after its parent. The I/O of a collect can use
+ * {@link #getRemaining()} to not block after the end of the cycle.<p>
+ * During a probe collect, its context is bound to the collecting thread, so the connections can bound their
+ * I/O timeouts with {@link #boundTimeout(int)} and abort a blocked I/O with {@link #onCurrentCancel(Runnable)}.
+ * @author Fabrice Bacchella
+ */
+public class CollectContext {
+    static private final Logger logger = Logger.getLogger(CollectContext.class);
+    static private final ThreadLocal<CollectContext> current = new ThreadLocal<CollectContext>();
+
+    private final CollectContext parent;
+    private final long deadline;
+    private final Set<CollectContext> children = new HashSet<CollectContext>();
+    private final List<Runnable> cancelHooks = new ArrayList<Runnable>(0);
+    private volatile boolean cancelled = false;
+    private volatile boolean stopped = false;
+
+    /**
+     * Create a top level context
+     * @param deadline the end of the collect, in ms
+     */
+    public CollectContext(long deadline) {
+        this(null, deadline);
+    }
+
+    private CollectContext(CollectContext parent, long deadline) {
+        this.parent = parent;
+        this.deadline = deadline;
+    }
+
+    /**
+     * Create a child context, it will be cancelled with this context
+     * @param deadline the end of the child collect, in ms, it's limited to the deadline of this context
+     * @return the new context
+     */
+    public CollectContext child(long deadline) {
+        CollectContext child = new CollectContext(this, Math.min(deadline, this.deadline));
+        synchronized(children) {
+            if(cancelled || stopped)
+                child.cancelled = true;
+            else
+                children.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * @return true if the collect was not cancelled
+     */
+    public boolean isRunning() {
+        return ! cancelled && ! stopped;
+    }
+
+    /**
+     * Cancel this context and all its children, the blocked I/O are aborted
+     */
+    public void cancel() {
+        List<CollectContext> toCancel;
+        List<Runnable> hooks;
+        synchronized(children) {
+            if(cancelled)
+                return;
+            cancelled = true;
+            toCancel = new ArrayList<CollectContext>(children);
+            children.clear();
+            hooks = new ArrayList<Runnable>(cancelHooks);
+            cancelHooks.clear();
+        }
+        for(Runnable hook: hooks) {
+            try {
+                hook.run();
+            } catch (RuntimeException e) {
+                logger.debug("Cancel failed: " + e, e);
+            }
+        }
+        for(CollectContext c: toCancel) {
+            c.cancel();
+        }
+    }
+
+    /**
+     * Add an action to run if this context is cancelled, usually used to abort a blocking I/O.
+     * If the context is already cancelled, it's run immediately.
+     * @param hook the action
+     */
+    public void onCancel(Runnable hook) {
+        synchronized(children) {
+            if(! cancelled) {
+                cancelHooks.add(hook);
+                return;
+            }
+        }
+        hook.run();
+    }
+
+    /**
+     * Stop this context and detach it from its parent, it's used when a collect is finished or must not
+     * start anything new. The cancel actions are not run and the children are not cancelled, the running
+     * ones can still be cancelled with {@link #cancel()}.
+     */
+    public void close() {
+        synchronized(children) {
+            stopped = true;
+            cancelHooks.clear();
+        }
+        if(parent != null) {
+            synchronized(parent.children) {
+                parent.children.remove(this);
+            }
+        }
+    }
+
+    /**
+     * @return the deadline, in ms
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @return the time left before the deadline, in ms, never negative
+     */
+    public long getRemaining() {
+        return Math.max(deadline - System.currentTimeMillis(), 0);
+    }
+
+    /**
+     * Bind a context to the current thread
+     * @param context the context of the running collect, or null
+     * @return the previous context bound to the thread
+     */
+    public static CollectContext setCurrent(CollectContext context) {
+        CollectContext previous = current.get();
+        if(context != null)
+            current.set(context);
+        else
+            current.remove();
+        return previous;
+    }
+
+    /**
+     * @return the context bound to the current thread, or null
+     */
+    public static CollectContext getCurrent() {
+        return current.get();
+    }
+
+    /**
+     * Reduce an I/O timeout, so it doesn't end after the deadline of the collect running in the current thread
+     * @param timeout the timeout, in ms
+     * @return the timeout to use, in ms, it's never 0, as it usually means an infinite timeout
+     */
+    public static int boundTimeout(int timeout) {
+        CollectContext context = current.get();
+        if(context == null)
+            return timeout;
+        return (int) Math.max(Math.min(timeout, context.getRemaining()), 1);
+    }
+
+    /**
+     * Add a cancel action to the context bound to the current thread, if there is one
+     * @param hook the action
+     */
+    public static void onCurrentCancel(Runnable hook) {
+        CollectContext context = current.get();
+        if(context != null)
+            context.onCancel(hook);
+    }
+
+}
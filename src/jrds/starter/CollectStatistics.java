@@ -0,0 +1,121 @@
+package jrds.starter;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram and outcome counters of the collects of a timer, a host or a probe.<p>
+ * It's lock free, so it can be updated at each collect. The histogram uses buckets of growing size,
+ * the bucket i counts the durations between 2<sup>i-1</sup> and 2<sup>i</sup> ms, so percentiles are
+ * an upper bound, with a precision of a factor 2.
+ * @author Fabrice Bacchella
+ */
+public class CollectStatistics {
+    public enum Outcome {
+        SUCCESS,
+        FAILURE,
+        TIMEOUT
+    }
+
+    static private final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray outcomes = new AtomicLongArray(Outcome.values().length);
+    private final AtomicLong sum = new AtomicLong(0);
+    private final AtomicLong max = new AtomicLong(0);
+
+    /**
+     * Add a collect
+     * @param duration the collect duration, in ms
+     * @param outcome how the collect ended
+     */
+    public void record(long duration, Outcome outcome) {
+        duration = Math.max(duration, 0);
+        buckets.incrementAndGet(bucket(duration));
+        outcomes.incrementAndGet(outcome.ordinal());
+        sum.addAndGet(duration);
+        long oldMax;
+        while((oldMax = max.get()) < duration && ! max.compareAndSet(oldMax, duration));
+    }
+
+    static int bucket(long duration) {
+        return Math.min(64 - Long.numberOfLeadingZeros(duration), BUCKETS - 1);
+    }
+
+    /**
+     * @return the number of collects
+     */
+    public long getCount() {
+        long count = 0;
+        for(int i = 0; i < outcomes.length(); i++) {
+            count += outcomes.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param outcome a collect outcome
+     * @return the number of collects with this outcome
+     */
+    public long getCount(Outcome outcome) {
+        return outcomes.get(outcome.ordinal());
+    }
+
+    /**
+     * @return the mean duration, in ms
+     */
+    public long getMean() {
+        long count = getCount();
+        return count == 0 ? 0 : sum.get() / count;
+    }
+
+    /**
+     * @return the longest duration, in ms
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the upper bound of the duration, in ms
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            count += counts[i];
+        }
+        if(count == 0)
+            return 0;
+        long rank = (long) Math.ceil(count * percentile / 100);
+        long seen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if(seen >= rank)
+                return Math.min(i == 0 ? 0 : 1L << i, getMax());
+        }
+        return getMax();
+    }
+
+    /**
+     * @return a summary of the statistics, used for the status and JMX
+     */
+    public Map<String, Long> toMap() {
+        Map<String, Long> values = new LinkedHashMap<String, Long>();
+        values.put("count", getCount());
+        values.put("success", getCount(Outcome.SUCCESS));
+        values.put("failure", getCount(Outcome.FAILURE));
+        values.put("timeout", getCount(Outcome.TIMEOUT));
+        values.put("mean", getMean());
+        values.put("p50", getPercentile(50));
+        values.put("p95", getPercentile(95));
+        values.put("p99", getPercentile(99));
+        values.put("max", getMax());
+        return values;
+    }
+
+}
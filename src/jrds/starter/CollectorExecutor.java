@@ -0,0 +1,93 @@
+package jrds.starter;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+
+/**
+ * The long-lived pool of collector threads used by a timer.<p>
+ * It's build once by the {@link jrds.HostsList} for each timer and reused by every collect,
+ * so no thread is created or destroyed at each step. The queue is bounded, a task that can't be queued
+ * is rejected and counted.
+ * @author Fabrice Bacchella
+ */
+public class CollectorExecutor extends ThreadPoolExecutor {
+    static private final Logger logger = Logger.getLogger(CollectorExecutor.class);
+
+    private final String name;
+    private final AtomicLong rejected = new AtomicLong(0);
+
+    public CollectorExecutor(final String name, int numCollectors, int queueSize) {
+        super(numCollectors, numCollectors, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(queueSize));
+        this.name = name;
+        final AtomicInteger counter = new AtomicInteger(0);
+        setThreadFactory(new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, name  + "/CollectorThread" + counter.getAndIncrement());
+                t.setDaemon(true);
+                jrds.Util.log(CollectorExecutor.this, logger, Level.DEBUG, null, "New thread name: %s", t.getName());
+                return t;
+            }
+        });
+        setRejectedExecutionHandler(new RejectedExecutionHandler() {
+            public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+                rejected.incrementAndGet();
+                throw new RejectedExecutionException("Collector queue full for timer " + CollectorExecutor.this.name);
+            }
+        });
+    }
+
+    /**
+     * Change the number of collector threads, without stopping the running collects.
+     * @param numCollectors the new number of threads
+     */
+    public synchronized void resize(int numCollectors) {
+        if(numCollectors < 1)
+            throw new IllegalArgumentException("At least one collector thread is needed");
+        int oldSize = getCorePoolSize();
+        if(numCollectors > oldSize) {
+            setMaximumPoolSize(numCollectors);
+            setCorePoolSize(numCollectors);
+        }
+        else if(numCollectors < oldSize) {
+            setCorePoolSize(numCollectors);
+            setMaximumPoolSize(numCollectors);
+        }
+        jrds.Util.log(this, logger, Level.INFO, null, "Collector threads resized from %d to %d", oldSize, numCollectors);
+    }
+
+    /**
+     * @return the number of collect waiting for a thread
+     */
+    public int getQueueDepth() {
+        return getQueue().size();
+    }
+
+    /**
+     * @return the number of collect rejected since the creation of the pool
+     */
+    public long getRejectedCount() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the name of the timer using this pool
+     */
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String toString() {
+        return "collectors:" + name;
+    }
+
+}
@@ -3,6 +3,8 @@ package jrds.starter;
 import java.io.IOException;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.log4j.Level;
 
@@ -12,6 +14,7 @@ public abstract class Connection<ConnectedType> extends Starter {
 
     private String name;
     private long uptime;
+    private final Lock collectLock = new ReentrantLock();
 
     public abstract ConnectedType getConnection();
 
@@ -102,6 +105,24 @@ public abstract class Connection<ConnectedType> extends Starter {
         stopConnection();
     }
 
+    /**
+     * Can the connection be used by many probes at the same time ?<p>
+     * If not, the probes of an host collected in parallel will use it one after the other.
+     * A connection should override it if the connected object is thread safe.
+     * @return true if the connection is thread safe
+     */
+    public boolean isThreadSafe() {
+        return false;
+    }
+
+    /**
+     * The lock used by the probes to use a connection that is not thread safe
+     * @return the lock
+     */
+    public Lock getCollectLock() {
+        return collectLock;
+    }
+
     public abstract boolean startConnection();
     public abstract void stopConnection();
     /**
@@ -1,8 +1,16 @@
 package jrds.starter;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.apache.log4j.Level;
 
@@ -11,7 +19,14 @@ import jrds.Probe;
 
 public class HostStarter extends StarterNode {
     private HostInfo host;
-    private final Set<Probe<?,?>> allProbes = new TreeSet<Probe<?,?>>();
+    //A probe can be removed while the host is collected
+    private final Set<Probe<?,?>> allProbes = new ConcurrentSkipListSet<Probe<?,?>>();
+    private int parallelism = 1;
+    //The start of the last host collect that collected each probe
+    private final ConcurrentMap<Probe<?,?>, Long> lastCollects = new ConcurrentHashMap<Probe<?,?>, Long>();
+    private final MovingAverage cost = new MovingAverage();
+    private final CollectStatistics collectStats = new CollectStatistics();
+    private final ConcurrentMap<String, MovingAverage> probesCost = new ConcurrentHashMap<String, MovingAverage>();
 
     public HostStarter(HostInfo host) {
         super();
@@ -23,6 +38,16 @@ public class HostStarter extends StarterNode {
         host.addProbe(p);
         allProbes.add(p);
     }
+
+    /**
+     * Remove a probe that can't be collected, like one with an unusable store
+     * @param p the probe
+     */
+    public void removeProbe(Probe<?,?> p){
+        allProbes.remove(p);
+        lastCollects.remove(p);
+        host.removeProbe(p);
+    }
     
     public Iterable<Probe<?,?>> getAllProbes() {
         return allProbes;
@@ -32,23 +57,207 @@ public class HostStarter extends StarterNode {
         log(Level.DEBUG, "Starting collect");
         long start = System.currentTimeMillis();
         startCollect();
-        for(Probe<?,?> probe: allProbes) {
-            if(! isCollectRunning() )
-                break;
-            long duration = (System.currentTimeMillis() - start) / 1000 ;
-            if(duration > (probe.getStep() / 2 )) {
-                log(Level.ERROR, "Collect too slow: %ds", duration);
-                break;
+        List<Probe<?,?>> probes = new ArrayList<Probe<?,?>>(allProbes);
+        //With many threads, the longest probes are started first, so they don't end late
+        if(parallelism > 1)
+            Collections.sort(probes, new Comparator<Probe<?,?>>() {
+                public int compare(Probe<?,?> p1, Probe<?,?> p2) {
+                    return compareCost(getProbeCost(p1), getProbeCost(p2));
+                }
+            });
+        //The probes not collected for the longest time are collected first, so a skipped probe is never starved
+        Collections.sort(probes, new Comparator<Probe<?,?>>() {
+            public int compare(Probe<?,?> p1, Probe<?,?> p2) {
+                long last1 = getLastCollect(p1);
+                long last2 = getLastCollect(p2);
+                return last1 < last2 ? -1 : (last1 == last2 ? 0 : 1);
+            }
+        });
+        ProbesCollect collect = new ProbesCollect(probes, start);
+        //Extra threads are asked to the timer, if they are not available, less probes are collected in parallel
+        CollectorExecutor helpers = null;
+        if(parallelism > 1 && getParent() instanceof Timer)
+            helpers = ((Timer) getParent()).getProbesExecutor();
+        if(helpers != null) {
+            for(int i = 1; i < parallelism; i++) {
+                try {
+                    helpers.execute(collect);
+                } catch (RejectedExecutionException e) {
+                    log(Level.DEBUG, "Only %d probes collected in parallel", i);
+                    break;
+                }
             }
-            log(Level.TRACE, "Starting collect for %s", probe);
-            probe.collect();
         }
+        collect.run();
+        collect.close();
+        Set<Probe<?,?>> skippedProbes = collect.skipRemaining();
+        if(skippedProbes.size() > 0) {
+            log(Level.WARN, "%d probes skipped", skippedProbes.size());
+        }
+        CollectStatistics.Outcome outcome = CollectStatistics.Outcome.SUCCESS;
+        if(skippedProbes.size() > 0 || ! isCollectRunning())
+            outcome = CollectStatistics.Outcome.TIMEOUT;
+        else if(! isStarted(Resolver.makeKey(this)))
+            outcome = CollectStatistics.Outcome.FAILURE;
         stopCollect();
         long end = System.currentTimeMillis();
+        cost.add(end - start);
+        collectStats.record(end - start, outcome);
         float elapsed = (end - start)/1000f;
         log(Level.DEBUG, "Collect time for %s: %fs", host.getName(), elapsed);
     }
 
+    /**
+     * The probes collect for one host, it can be run by many threads at the same time.
+     * The connections are shared between all the threads, the {@link jrds.ProbeConnected}
+     * serialize the use of the connections that are not thread safe.
+     */
+    private final class ProbesCollect implements Runnable {
+        private final List<Probe<?,?>> probes;
+        private final long start;
+        private int position = 0;
+        private int active = 0;
+        private boolean closed = false;
+
+        ProbesCollect(List<Probe<?,?>> probes, long start) {
+            this.probes = probes;
+            this.start = start;
+        }
+
+        public void run() {
+            synchronized(this) {
+                //The host collect is already finished
+                if(closed)
+                    return;
+                active++;
+            }
+            try {
+                Probe<?,?> probe;
+                while((probe = next()) != null) {
+                    log(Level.TRACE, "Starting collect for %s", probe);
+                    long probeStart = System.currentTimeMillis();
+                    probe.collect();
+                    getProbeAverage(probe).add(System.currentTimeMillis() - probeStart);
+                }
+            }
+            finally {
+                synchronized(this) {
+                    active--;
+                    notifyAll();
+                }
+            }
+        }
+
+        private synchronized Probe<?,?> next() {
+            if(closed || position >= probes.size() || ! isCollectRunning())
+                return null;
+            long duration = (System.currentTimeMillis() - start) / 1000 ;
+            Probe<?,?> probe = probes.get(position);
+            if(duration > (probe.getStep() / 2 )) {
+                log(Level.ERROR, "Collect too slow: %ds", duration);
+                closed = true;
+                return null;
+            }
+            position++;
+            lastCollects.put(probe, start);
+            return probe;
+        }
+
+        /**
+         * Mark the probes that were not collected
+         * @return the probes skipped
+         */
+        synchronized Set<Probe<?,?>> skipRemaining() {
+            if(position >= probes.size())
+                return Collections.emptySet();
+            Set<Probe<?,?>> skipped = new HashSet<Probe<?,?>>(probes.size() - position);
+            for(int i = position; i < probes.size(); i++) {
+                probes.get(i).skipCollect();
+                skipped.add(probes.get(i));
+            }
+            return skipped;
+        }
+
+        /**
+         * Wait for all the threads to finish their current probe
+         */
+        synchronized void close() {
+            closed = true;
+            try {
+                while(active > 0)
+                    wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * @param probe a probe of this host
+     * @return the start of the last host collect that collected the probe, 0 if it was never collected
+     */
+    long getLastCollect(Probe<?,?> probe) {
+        Long last = lastCollects.get(probe);
+        return last == null ? 0 : last;
+    }
+
+    /**
+     * @return the number of probes that can be collected at the same time
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @param parallelism the number of probes that can be collected at the same time
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = Math.max(parallelism, 1);
+    }
+
+    /**
+     * @return the average duration of this host collect, in ms, or -1 if it was never collected
+     */
+    public long getCollectCost() {
+        return cost.get();
+    }
+
+    /**
+     * @return the latency and outcomes of the collects of this host
+     */
+    public CollectStatistics getCollectStatistics() {
+        return collectStats;
+    }
+
+    /**
+     * @param probe a probe of this host
+     * @return the average duration of this probe collect, in ms, or -1 if it was never collected
+     */
+    public long getProbeCost(Probe<?,?> probe) {
+        MovingAverage probeCost = probesCost.get(probe.getName());
+        return probeCost == null ? -1 : probeCost.get();
+    }
+
+    private MovingAverage getProbeAverage(Probe<?,?> probe) {
+        MovingAverage probeCost = probesCost.get(probe.getName());
+        if(probeCost == null) {
+            probesCost.putIfAbsent(probe.getName(), new MovingAverage());
+            probeCost = probesCost.get(probe.getName());
+        }
+        return probeCost;
+    }
+
+    /**
+     * Compare two costs, the highest first. An unknown cost is sorted before any known cost.
+     */
+    static int compareCost(long cost1, long cost2) {
+        if(cost1 < 0)
+            cost1 = Long.MAX_VALUE;
+        if(cost2 < 0)
+            cost2 = Long.MAX_VALUE;
+        return cost1 > cost2 ? -1 : (cost1 == cost2 ? 0 : 1);
+    }
+
     public String toString() {
         return host.toString();
     }
@@ -0,0 +1,41 @@
+package jrds.starter;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An exponential moving average of durations, used to learn the cost of a collect.<p>
+ * Each new value counts for a quarter of the average, so a change of cost is learned in a few steps.
+ * @author Fabrice Bacchella
+ */
+public class MovingAverage {
+    private final AtomicLong average = new AtomicLong(-1);
+
+    /**
+     * Add a new value to the average
+     * @param value the new value, in ms
+     */
+    public void add(long value) {
+        long oldValue;
+        long newValue;
+        do {
+            oldValue = average.get();
+            if(oldValue < 0)
+                newValue = value;
+            else
+                newValue = oldValue + (value - oldValue) / 4;
+        } while(! average.compareAndSet(oldValue, newValue));
+    }
+
+    /**
+     * @return the average, or -1 if no value was added
+     */
+    public long get() {
+        return average.get();
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(average.get());
+    }
+
+}
@@ -7,6 +7,8 @@ import java.net.SocketAddress;
 
 import jrds.PropertiesManager;
 
+import org.apache.log4j.Level;
+
 public class SocketFactory extends Starter {
 
     /* (non-Javadoc)
@@ -42,9 +44,10 @@ public class SocketFactory extends Starter {
         if(! isStarted())
             return null;
 
+        final int timeout = CollectContext.boundTimeout(getTimeout() * 1000);
         Socket s = new Socket(host, port) {
             public void connect(SocketAddress endpoint) throws IOException {
-                super.connect(endpoint, getTimeout() * 1000);
+                super.connect(endpoint, timeout);
             }
 
             /* (non-Javadoc)
@@ -54,8 +57,9 @@ public class SocketFactory extends Starter {
                 super.connect(endpoint, timeout);
             }
         };
-        s.setSoTimeout(getTimeout() * 1000);
+        s.setSoTimeout(timeout);
         s.setTcpNoDelay(true);
+        closeOnCancel(s);
         return s;
     }
 
@@ -67,9 +71,10 @@ public class SocketFactory extends Starter {
         if(r == null || ! r.isStarted())
             return null;
 
+        final int timeout = CollectContext.boundTimeout(getTimeout() * 1000);
         Socket s = new Socket(r.getInetAddress(), port) {
             public void connect(SocketAddress endpoint) throws IOException {
-                super.connect(endpoint, getTimeout() * 1000);
+                super.connect(endpoint, timeout);
             }
 
             /* (non-Javadoc)
@@ -79,11 +84,28 @@ public class SocketFactory extends Starter {
                 super.connect(endpoint, timeout);
             }
         };
-        s.setSoTimeout(getTimeout() * 1000);
+        s.setSoTimeout(timeout);
         s.setTcpNoDelay(true);
+        closeOnCancel(s);
         return s;
     }
 
+    /**
+     * A socket used by a probe is closed if the collect is cancelled, so a blocked read is aborted
+     * @param s the socket
+     */
+    private void closeOnCancel(final Socket s) {
+        CollectContext.onCurrentCancel(new Runnable() {
+            public void run() {
+                try {
+                    s.close();
+                } catch (IOException e) {
+                    log(Level.DEBUG, e, "Socket close failed: %s", e);
+                }
+            }
+        });
+    }
+
     /**
      * @return the timeout
      */
@@ -13,6 +13,7 @@ public abstract class Starter {
 	private StarterNode level;	
 	private Logger namedLogger = null;
 	volatile private boolean started = false;
+	private final CircuitBreaker breaker = new CircuitBreaker();
 
 	public Starter() {
 		String[] classElements = getClass().getName().split("\\.");
@@ -36,12 +37,18 @@ public abstract class Starter {
      */
     public void configure(PropertiesManager pm) {
         log(Level.DEBUG, "registred to %s", getLevel());
+        breaker.configure(pm.circuitThreshold, pm.circuitMaxDelay * 1000L);
     }
 
     public final void doStart() {
+		long begin = new Date().getTime();
+		//A starter that keeps failing is not tried at each collect
+		if(! breaker.allow(begin)) {
+			log(Level.DEBUG, "Circuit open, next try in %ds", (breaker.getRetryTime() - begin) / 1000);
+			return;
+		}
 		log(Level.TRACE, "Starting");
 		try {
-			long begin = new Date().getTime();
 			started = start();
 			long end = new Date().getTime();
 			log(Level.DEBUG, "Starting connection took %d ms", end - begin);
@@ -50,6 +57,22 @@ public abstract class Starter {
         } catch (NoClassDefFoundError e) {
             log(Level.ERROR, e, "Class %s not found", e.getMessage().replace('/', '.'));
 		}
+		if(started) {
+			breaker.success();
+		}
+		else if(breaker.failure(new Date().getTime(), getRetryDelay())) {
+			log(Level.WARN, "Circuit open after %d failures, next try in %ds", breaker.getFailures(), (breaker.getRetryTime() - begin) / 1000);
+		}
+	}
+
+	/**
+	 * The first back off delay when the circuit is opened, it's the step of the level
+	 * @return the delay in ms
+	 */
+	private long getRetryDelay() {
+		if(level != null && level.getStep() > 0)
+			return level.getStep() * 1000L;
+		return 60 * 1000L;
 	}
 
 	public final void doStop() {
@@ -67,6 +90,13 @@ public abstract class Starter {
 	public void stop() {
 	}
 
+	/**
+	 * @return the circuit breaker that protect this starter
+	 */
+	public CircuitBreaker getCircuitBreaker() {
+		return breaker;
+	}
+
 	public Object getKey() {
 		return getClass().getName();
 	}
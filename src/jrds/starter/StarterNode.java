@@ -1,6 +1,8 @@
 package jrds.starter;
 
 import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -18,7 +20,7 @@ public abstract class StarterNode implements StartersSet {
     private Map<Object, Starter> allStarters = null;
 
     private HostsList root = null;
-    private volatile boolean started = false;
+    private volatile CollectContext context = null;
     private StarterNode parent = null;
     private int timeout = -1;
     private int step = -1;
@@ -39,14 +41,8 @@ public abstract class StarterNode implements StartersSet {
     }
 
     public boolean isCollectRunning() {
-        if(Thread.interrupted()) {
-            started = false;
-            log(Level.TRACE, "thread is stopped", this);
-            return false;
-        }
-        if(parent != null && ! parent.isCollectRunning())
-            return false;
-        return started;
+        CollectContext current = context;
+        return current != null && current.isRunning();
     }
 
     public boolean startCollect() {
@@ -54,11 +50,17 @@ public abstract class StarterNode implements StartersSet {
             log(Level.TRACE, "parent of %s prevent starting", this);
             return false;
         }
+        //The collect of this level is bound to the parent's one, stopping the parent will stop it
+        long deadline = Long.MAX_VALUE;
+        if(getStep() > 0 && getTimeout() > 0)
+            deadline = System.currentTimeMillis() + (getStep() - getTimeout()) * 1000L;
+        CollectContext parentContext = parent != null ? parent.getCollectContext() : null;
+        CollectContext newContext = parentContext != null ? parentContext.child(deadline) : new CollectContext(deadline);
         if(allStarters != null) {
             log(Level.DEBUG, "Starting %d starters for %s", allStarters.size(), this);
             for(Starter s: allStarters.values()) {
                 //If collect is stopped while we're starting, drop it
-                if(parent != null && ! parent.isCollectRunning())
+                if(! newContext.isRunning())
                     return false;
                 try {
                     s.doStart();
@@ -67,13 +69,18 @@ public abstract class StarterNode implements StartersSet {
                 }
             }
         }
-        started = true;
+        context = newContext;
         log(Level.DEBUG, "Starting for %s done", this);
         return isCollectRunning();
     }
 
+    /**
+     * Stop the collect of this level, nothing new is started but the running children are not interrupted
+     */
     public synchronized void stopCollect() {
-        started = false;
+        CollectContext current = context;
+        if(current != null)
+            current.close();
         if(allStarters != null)
             for(Starter s: allStarters.values()) {
                 try {
@@ -84,6 +91,22 @@ public abstract class StarterNode implements StartersSet {
             }
     }
 
+    /**
+     * Stop the current collect of this level and all its children, without stopping the starters
+     */
+    public void cancelCollect() {
+        CollectContext current = context;
+        if(current != null)
+            current.cancel();
+    }
+
+    /**
+     * @return the context of the current, or last, collect, or null if no collect was started
+     */
+    public CollectContext getCollectContext() {
+        return context;
+    }
+
     /**
      * @param s the starter to register
      * @return the starter that will be used
@@ -129,6 +152,15 @@ public abstract class StarterNode implements StartersSet {
         }
     }
 
+    /**
+     * @return the starters registered at this level
+     */
+    public Collection<Starter> getAllStarters() {
+        if(allStarters == null)
+            return Collections.emptyList();
+        return Collections.unmodifiableCollection(allStarters.values());
+    }
+
     public <StarterClass extends Starter> StarterClass find(Class<StarterClass> sc) {
         Object key = null;
         try {
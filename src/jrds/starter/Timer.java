@@ -1,19 +1,28 @@
 package jrds.starter;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.TimerTask;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.Semaphore;
-import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.TimeoutException;
 
 import jrds.HostInfo;
+import jrds.HostsList;
+import jrds.Probe;
 import jrds.PropertiesManager;
 
 import org.apache.log4j.Level;
@@ -28,6 +37,11 @@ public class Timer extends StarterNode {
         }
         public long runtime = 0;
         public Date lastCollect;
+        public int collectorThreads = 0;
+        public int activeCollectors = 0;
+        public int queueDepth = 0;
+        public long rejectedCollects = 0;
+        public int openCircuits = 0;
         /* (non-Javadoc)
          * @see java.lang.Object#clone()
          */
@@ -37,17 +51,31 @@ public class Timer extends StarterNode {
             synchronized(this) {
                 newstates.runtime = runtime;
                 newstates.lastCollect = new Date(lastCollect.getTime());
+                newstates.collectorThreads = collectorThreads;
+                newstates.activeCollectors = activeCollectors;
+                newstates.queueDepth = queueDepth;
+                newstates.rejectedCollects = rejectedCollects;
+                newstates.openCircuits = openCircuits;
             }
             return newstates;
         }
     }
 
+    static private final Comparator<HostStarter> COSTCOMPARATOR = new Comparator<HostStarter>() {
+        public int compare(HostStarter h1, HostStarter h2) {
+            return HostStarter.compareCost(h1.getCollectCost(), h2.getCollectCost());
+        }
+    };
+
     private final Map<String, HostStarter> hostList = new HashMap<String, HostStarter>();
     private Semaphore collectMutex = new Semaphore(1);
     private final Stats stats = new Stats();
-    private final int numCollectors;
+    private final CollectStatistics collectStats = new CollectStatistics();
+    private volatile int numCollectors;
+    private final int spread;
+    private final int hostParallelism;
     private final String name;
-    private TimerTask collector;
+    private ScheduledFuture<?> collector;
 
     public Timer(String name, PropertiesManager.TimerInfo ti) {
         super();
@@ -55,6 +83,8 @@ public class Timer extends StarterNode {
         setTimeout(ti.timeout);
         setStep(ti.step);
         this.numCollectors = ti.numCollectors;
+        this.spread = ti.spread;
+        this.hostParallelism = ti.hostParallelism;
     }
 
     public HostStarter getHost(HostInfo info) {
@@ -66,6 +96,7 @@ public class Timer extends StarterNode {
             starter.setTimeout(getTimeout());
             starter.setStep(getStep());
             starter.setParent(this);
+            starter.setParallelism(info.getParallel() > 0 ? info.getParallel() : hostParallelism);
         }
         return starter;
     }
@@ -74,31 +105,36 @@ public class Timer extends StarterNode {
         return hostList.values();
     }
 
-    public void startTimer(java.util.Timer collectTimer) {
-        collector = new TimerTask () {
+    public int getHostsCount() {
+        return hostList.size();
+    }
+
+    public void startTimer(ScheduledExecutorService collectTimer) {
+        collector = collectTimer.scheduleAtFixedRate(new Runnable () {
             public void run() {
-                Thread subcollector = new Thread("Collector/" + Timer.this.name) {
-                    @Override
-                    public void run() {
-                        try {
-                            Timer.this.collectAll();
-                        } catch (RuntimeException e) {
-                            Timer.this.log(Level.FATAL, e, "A fatal error occured during collect: %s", e.getMessage());
-                        }
-                    }
-                };
-                subcollector.start();
+                Thread current = Thread.currentThread();
+                String oldName = current.getName();
+                current.setName("Collector/" + Timer.this.name);
+                try {
+                    Timer.this.collectAll();
+                } catch (RuntimeException e) {
+                    Timer.this.log(Level.FATAL, e, "A fatal error occured during collect: %s", e.getMessage());
+                }
+                finally {
+                    current.setName(oldName);
+                }
             }
-        };
-        collectTimer.scheduleAtFixedRate(collector, getTimeout() * 1000L, getStep() * 1000L);
+        }, getTimeout() * 1000L, getStep() * 1000L, TimeUnit.MILLISECONDS);
     }
 
     public void collectAll() {
         log(Level.DEBUG, "One collect is launched");
         Date start = new Date();
+        CollectStatistics.Outcome outcome = CollectStatistics.Outcome.FAILURE;
         try {
             if( ! collectMutex.tryAcquire(getTimeout(), TimeUnit.SECONDS)) {
                 log(Level.FATAL, "A collect failed because a start time out");
+                collectStats.record(System.currentTimeMillis() - start.getTime(), CollectStatistics.Outcome.TIMEOUT);
                 return;
             }
         } catch (InterruptedException e) {
@@ -106,67 +142,89 @@ public class Timer extends StarterNode {
             return;
         }
         try {
-            final AtomicInteger counter = new AtomicInteger(0);
-            ExecutorService tpool =  Executors.newFixedThreadPool(numCollectors, 
-                    new ThreadFactory() {
-                public Thread newThread(Runnable r) {
-                    Thread t = new Thread(r, Timer.this.name  + "/CollectorThread" + counter.getAndIncrement());
-                    t.setDaemon(true);
-                    log(Level.DEBUG, "New thread name:" + t.getName());
-                    return t;
-                }
+            CollectorExecutor tpool = getCollectorExecutor();
+            if(tpool == null || tpool.isShutdown()) {
+                log(Level.ERROR, "No collector threads available");
+                collectStats.record(0, CollectStatistics.Outcome.FAILURE);
+                return;
             }
-                    );
             startCollect();
-            for(final HostStarter host: hostList.values()) {
+            //Hosts are sorted by start time, the longest collects are moved to the start of the window
+            final long window = getSpreadWindow();
+            List<HostStarter> hosts = new ArrayList<HostStarter>(hostList.values());
+            final Map<HostStarter, Long> offsets = new HashMap<HostStarter, Long>(hosts.size());
+            final Map<HostStarter, Long> costs = new HashMap<HostStarter, Long>(hosts.size());
+            if(window > 0) {
+                //The costs can change during the sort, they are read once
+                long budget = (getStep() - getTimeout() * 2) * 1000L;
+                for(HostStarter host: hosts) {
+                    long cost = host.getCollectCost();
+                    costs.put(host, cost);
+                    offsets.put(host, getStartOffset(host.getName(), cost, window, budget));
+                }
+                Collections.sort(hosts, new Comparator<HostStarter>() {
+                    public int compare(HostStarter h1, HostStarter h2) {
+                        long o1 = offsets.get(h1);
+                        long o2 = offsets.get(h2);
+                        if(o1 == o2)
+                            return HostStarter.compareCost(costs.get(h1), costs.get(h2));
+                        return o1 < o2 ? -1 : 1;
+                    }
+                });
+            }
+            //Or the longest collects are started first, the pool's queue keep that order
+            else {
+                Collections.sort(hosts, COSTCOMPARATOR);
+            }
+            long dispatchStart = System.currentTimeMillis();
+            Map<Future<?>, HostStarter> running = new LinkedHashMap<Future<?>, HostStarter>(hostList.size());
+            for(final HostStarter host: hosts) {
                 if( ! isCollectRunning())
                     break;
+                if(window > 0 && ! sleepUntil(dispatchStart + offsets.get(host))) {
+                    log(Level.WARN, "Collect dispatch interrupted");
+                    break;
+                }
                 Runnable runCollect = new Runnable() {
                     public void run() {
                         log(Level.DEBUG, "Collect all stats for host " + host.getName());
-                        String threadName = Timer.this.name  + "/" + "JrdsCollect-" + host.getName();
-                        Thread.currentThread().setName(threadName);
-                        host.collectAll();
-                        Thread.currentThread().setName(threadName + ":finished");
-                    }
-                    @Override
-                    public String toString() {
-                        return Thread.currentThread().toString();
+                        Thread current = Thread.currentThread();
+                        String oldName = current.getName();
+                        current.setName(Timer.this.name  + "/" + "JrdsCollect-" + host.getName());
+                        try {
+                            host.collectAll();
+                        }
+                        finally {
+                            current.setName(oldName);
+                        }
                     }
                 };
                 try {
-                    tpool.execute(runCollect);
+                    running.put(tpool.submit(runCollect), host);
                 }
                 catch(RejectedExecutionException ex) {
                     log(Level.DEBUG, "collector thread dropped for host " + host.getName());
                 }
             }
-            tpool.shutdown();
-            try {
-                tpool.awaitTermination(getStep() - getTimeout() * 2 , TimeUnit.SECONDS);
-            } catch (InterruptedException e) {
-                log(Level.WARN, "Collect interrupted");
-            }
+            boolean finished = waitCollects(running.keySet(), dispatchStart + (getStep() - getTimeout() * 2) * 1000L);
             stopCollect();
-            if( ! tpool.isTerminated()) {
+            if( ! finished) {
                 //Second chance, we wait for the time out
-                boolean emergencystop = false;
-                try {
-                    emergencystop = tpool.awaitTermination(getTimeout(), TimeUnit.SECONDS);
-                } catch (InterruptedException e) {
-                    log(Level.WARN, "Collect interrupted in last chance");
-                }
-                if(! emergencystop) {
-                    log(Level.WARN, "Some task still alive, needs to be killed");
-                    //Last chance to commit results
-                    List<Runnable> timedOut = tpool.shutdownNow();
-                    if(! timedOut.isEmpty()) {
-                        log(Level.WARN, "Still " + timedOut.size() + " waiting probes: ");
-                        for(Runnable r: timedOut) {
-                            log(Level.WARN, r.toString());
-                        }
+                finished = waitCollects(running.keySet(), System.currentTimeMillis() + getTimeout() * 1000L);
+            }
+            outcome = finished ? CollectStatistics.Outcome.SUCCESS : CollectStatistics.Outcome.TIMEOUT;
+            if( ! finished) {
+                log(Level.WARN, "Some task still alive, needs to be killed");
+                //The blocked I/O of the remaining collects are aborted
+                cancelCollect();
+                //The threads are kept, only the tasks are cancelled
+                for(Map.Entry<Future<?>, HostStarter> e: running.entrySet()) {
+                    if( ! e.getKey().isDone()) {
+                        e.getKey().cancel(true);
+                        log(Level.WARN, "Collect of %s killed", e.getValue());
                     }
                 }
+                tpool.purge();
             }
         } catch (RuntimeException e) {
             log(Level.ERROR, "problem while collecting data: ", e);
@@ -180,10 +238,189 @@ public class Timer extends StarterNode {
             stats.lastCollect = start;
             stats.runtime = duration;
         }
-        System.gc();
+        collectStats.record(duration, outcome);
         log(Level.INFO, "Collect started at "  + start + " ran for " + duration + "ms");
     }
 
+    /**
+     * Wait until the start time of a host collect
+     * @param until the start time, in ms
+     * @return false if the collect was stopped while waiting
+     */
+    private boolean sleepUntil(long until) {
+        long wait;
+        while((wait = until - System.currentTimeMillis()) > 0) {
+            if( ! isCollectRunning())
+                return false;
+            try {
+                Thread.sleep(Math.min(wait, 1000L));
+            } catch (InterruptedException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The time window, in ms, used to spread the start of the hosts collect.<p>
+     * It's a percentage of the step, but it always keep enough time for a host collect to finish within the step.
+     * @return the window size in ms
+     */
+    public long getSpreadWindow() {
+        long window = getStep() * 1000L * spread / 100;
+        long maxWindow = (getStep() / 2 - getTimeout() * 2) * 1000L;
+        return Math.max(0, Math.min(window, maxWindow));
+    }
+
+    /**
+     * The start offset of a host collect in the spread window. It's the stable offset of the host, reduced in proportion
+     * of its collect cost, so the longest collects start at the beginning of the window and have the time to finish.
+     * A collect longer than the budget starts immediately.
+     * @param key the host name
+     * @param cost the collect cost of the host, in ms, negative if unknown
+     * @param window the window size, in ms
+     * @param budget the time available for a collect, in ms
+     * @return an offset between 0 and window
+     */
+    static long getStartOffset(String key, long cost, long window, long budget) {
+        long offset = getOffset(key, window);
+        if(cost <= 0 || budget <= 0)
+            return offset;
+        if(cost >= budget)
+            return 0;
+        return offset * (budget - cost) / budget;
+    }
+
+    /**
+     * Return a stable offset for a key in a time window. The same key
+     * will always get the same offset, different keys are evenly distributed.
+     * @param key the key to spread, usually a host name
+     * @param window the window size
+     * @return an offset between 0 and window
+     */
+    static public long getOffset(String key, long window) {
+        if(window <= 0)
+            return 0;
+        //The hash is mixed, so close names don't get close offsets
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        h *= 0x85ebca6b;
+        h ^= (h >>> 13);
+        h *= 0xc2b2ae35;
+        h ^= (h >>> 16);
+        return (h & 0x7fffffffL) % window;
+    }
+
+    /**
+     * Wait for the end of all the collects, until the deadline
+     * @param collects the running collects
+     * @param deadline the time limit, in ms
+     * @return true if all the collects are finished
+     */
+    private boolean waitCollects(Collection<Future<?>> collects, long deadline) {
+        for(Future<?> f: collects) {
+            try {
+                f.get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return false;
+            } catch (CancellationException e) {
+            } catch (ExecutionException e) {
+                log(Level.ERROR, e.getCause(), "problem while collecting data: %s", e.getCause());
+            } catch (InterruptedException e) {
+                log(Level.WARN, "Collect interrupted");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the collector threads pool, owned by the hosts list
+     */
+    public CollectorExecutor getCollectorExecutor() {
+        HostsList hl = getHostList();
+        if(hl == null)
+            return null;
+        return hl.getCollectorExecutor(name);
+    }
+
+    /**
+     * @return the threads pool that helps collecting the probes of a host in parallel, or null if no host needs it
+     */
+    public CollectorExecutor getProbesExecutor() {
+        HostsList hl = getHostList();
+        if(hl == null)
+            return null;
+        return hl.getProbesExecutor(name);
+    }
+
+    /**
+     * The learned cost of each host collect, the hosts that dominate a collect come first
+     * @return a map of host name to average collect duration, in ms. -1 means the host was never collected
+     */
+    public Map<String, Long> getHostsCost() {
+        List<HostStarter> hosts = new ArrayList<HostStarter>(hostList.values());
+        Collections.sort(hosts, COSTCOMPARATOR);
+        Map<String, Long> costs = new LinkedHashMap<String, Long>(hosts.size());
+        for(HostStarter host: hosts) {
+            costs.put(host.getName(), host.getCollectCost());
+        }
+        return costs;
+    }
+
+    /**
+     * The starters of the hosts and probes that are not tried any more because they keep failing
+     * @return a map of starter name to its circuit breaker
+     */
+    public Map<String, CircuitBreaker> getOpenCircuits() {
+        long now = System.currentTimeMillis();
+        Map<String, CircuitBreaker> circuits = new TreeMap<String, CircuitBreaker>();
+        for(HostStarter host: hostList.values()) {
+            addOpenCircuits(host, circuits, now);
+            for(Probe<?,?> p: host.getAllProbes()) {
+                addOpenCircuits(p, circuits, now);
+            }
+        }
+        return circuits;
+    }
+
+    private void addOpenCircuits(StarterNode node, Map<String, CircuitBreaker> circuits, long now) {
+        for(Starter s: node.getAllStarters()) {
+            CircuitBreaker breaker = s.getCircuitBreaker();
+            if(breaker.getState(now) != CircuitBreaker.State.CLOSED)
+                circuits.put(s.toString(), breaker);
+        }
+    }
+
+    /**
+     * @return the highest number of probes collected at the same time for a host of this timer
+     */
+    public int getMaxParallelism() {
+        int max = 1;
+        for(HostStarter host: hostList.values()) {
+            max = Math.max(max, host.getParallelism());
+        }
+        return max;
+    }
+
+    /**
+     * Change the number of collector threads, the change is immediate
+     * @param numCollectors the new number of threads
+     */
+    public void setNumCollectors(int numCollectors) {
+        CollectorExecutor tpool = getCollectorExecutor();
+        if(tpool != null)
+            tpool.resize(numCollectors);
+        this.numCollectors = numCollectors;
+    }
+
+    /**
+     * @return the number of collector threads
+     */
+    public int getNumCollectors() {
+        return numCollectors;
+    }
+
     public void lockCollect() throws InterruptedException {
         collectMutex.acquire();
     }
@@ -207,10 +444,30 @@ public class Timer extends StarterNode {
         return name;
     }
 
+    /**
+     * @return the latency and outcomes of the collects of this timer
+     */
+    public CollectStatistics getCollectStatistics() {
+        return collectStats;
+    }
+
     /**
      * @return the stats
      */
     public Stats getStats() {
+        CollectorExecutor tpool = getCollectorExecutor();
+        if(tpool != null) {
+            synchronized(stats) {
+                stats.collectorThreads = tpool.getCorePoolSize();
+                stats.activeCollectors = tpool.getActiveCount();
+                stats.queueDepth = tpool.getQueueDepth();
+                stats.rejectedCollects = tpool.getRejectedCount();
+            }
+        }
+        int openCircuits = getOpenCircuits().size();
+        synchronized(stats) {
+            stats.openCircuits = openCircuits;
+        }
         return stats;
     }
 
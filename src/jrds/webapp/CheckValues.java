@@ -81,8 +81,8 @@ public final class CheckValues extends JrdsServlet {
                     double val = fd.getAggregate(dsName, cf);
                     out.println(dsName + ": " + val);
                 }
-                out.println("Last update: " + p.getLastUpdate());
-                out.println("Last update age (ms): " + (new Date().getTime() - p.getLastUpdate().getTime()));
+                out.println("Last update: " + lastupdate);
+                out.println("Last update age (ms): " + (new Date().getTime() - lastupdate.getTime()));
             }
         }
         else {
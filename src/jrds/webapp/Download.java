@@ -19,6 +19,7 @@ import jrds.Period;
 import jrds.Probe;
 
 import org.apache.log4j.Logger;
+import org.rrd4j.ConsolFun;
 import org.rrd4j.core.FetchData;
 import org.rrd4j.data.DataProcessor;
 
@@ -129,7 +130,13 @@ public class Download extends JrdsServlet {
                 return;   
             }
             Period p = params.getPeriod();
-            FetchData fd = probe.fetchData(p.getBegin(), p.getEnd());
+            long begin = p.getBegin().getTime() / 1000;
+            long end = p.getEnd().getTime() / 1000;
+            //The data are read with the resolution of the probe's graphs
+            long resolution = 1;
+            if(! probe.getGraphList().isEmpty())
+                resolution = probe.getGraphList().iterator().next().getGraphDesc().getResolution(begin, end);
+            FetchData fd = probe.fetchData(ConsolFun.AVERAGE, begin, end, resolution);
             sourceDp = new DataProcessor(p.getBegin(), p.getEnd());
             for(String dsName: fd.getDsNames()) {
                 sourceDp.addDatasource(dsName, fd);
@@ -7,9 +7,6 @@
 package jrds.webapp;
 
 import java.io.IOException;
-import java.nio.channels.Channels;
-import java.nio.channels.FileChannel;
-import java.nio.channels.WritableByteChannel;
 import java.util.Date;
 
 import javax.servlet.ServletException;
@@ -66,7 +63,9 @@ public final class Graph extends JrdsServlet {
             }
 
             Date middle = new Date();
-            if( ! hl.getRenderer().isReady(graph)) {
+            //Without caching, a new image is rendered, but it's still shared with the concurrent requests
+            byte[] png = hl.getRenderer().getPng(graph, cache);
+            if(png == null) {
                 logger.warn("One graph not ready, synchronous rendering");
             }
             res.setContentType("image/png");
@@ -79,15 +78,10 @@ public final class Graph extends JrdsServlet {
             res.addHeader("content-disposition","inline; filename=" + graph.getPngName());
             res.addHeader("ETag", jrds.Base64.encodeString(getServletName() + graph.hashCode()));
             ServletOutputStream out = res.getOutputStream();
-            FileChannel indata = hl.getRenderer().sendInfo(graph);
-            //If a cache file exist, try to be smart, but only if caching is allowed
-            if(indata != null && cache) {
+            if(png != null) {
                 logger.debug(jrds.Util.delayedFormatString("graph %s is cached", graph));
-                if(indata.size() < Integer.MAX_VALUE)
-                    res.setContentLength((int)indata.size());
-                WritableByteChannel outC = Channels.newChannel(out);
-                indata.transferTo(0, indata.size(), outC);
-                indata.close();
+                res.setContentLength(png.length);
+                out.write(png);
             }
             else {
                 logger.debug(jrds.Util.delayedFormatString("graph %s not found in cache", graph));
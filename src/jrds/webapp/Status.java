@@ -10,8 +10,20 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import jrds.FetchCache;
 import jrds.HostInfo;
 import jrds.HostsList;
+import jrds.Probe;
+import jrds.RecentWindows;
+import jrds.Renderer;
+import jrds.SampleWriter;
+import jrds.StoreChecker;
+import jrds.StoreOpener;
+import jrds.StorePool;
+import jrds.StoreUpgrader;
+import jrds.starter.CircuitBreaker;
+import jrds.starter.CollectStatistics;
+import jrds.starter.HostStarter;
 import jrds.starter.Timer;
 import jrds.starter.Timer.Stats;
 
@@ -22,6 +34,8 @@ import org.json.JSONException;
  * @author Fabrice Bacchella
  */
 public class Status extends JrdsServlet {
+    //The number of hosts listed by decreasing collect duration
+    static private final int SLOWESTHOSTS = 10;
 
     /**
      * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest, javax.servlet.http.HttpServletResponse)
@@ -45,13 +59,20 @@ public class Status extends JrdsServlet {
             numProbes += h.getNumProbes();
         }
         Map<String, Stats> stats = new HashMap<String, Stats>();
+        Map<String, Map<String, Long>> costs = new HashMap<String, Map<String, Long>>();
+        Map<String, Map<String, CircuitBreaker>> circuits = new HashMap<String, Map<String, CircuitBreaker>>();
+        Map<String, Timer> timers = new HashMap<String, Timer>();
         for(Timer t: hl.getTimers()) {
             try {
                 stats.put(t.getName(), (Stats) t.getStats().clone());
             } catch (CloneNotSupportedException e) {
                 //No that's false, it's always supported
             }            
+            costs.put(t.getName(), t.getHostsCost());
+            circuits.put(t.getName(), t.getOpenCircuits());
+            timers.put(t.getName(), t);
         }
+        boolean details = params.getValue("details") != null;
 
         if(params.getValue("json") != null) {
             JrdsJSONWriter writer = new JrdsJSONWriter(res);
@@ -67,9 +88,131 @@ public class Status extends JrdsServlet {
                     writer.key("Name").value(e.getKey());
                     writer.key("LastCollect").value(lastCollectAgo);
                     writer.key("LastDuration").value(e.getValue().runtime);
+                    writer.key("CollectorThreads").value(e.getValue().collectorThreads);
+                    writer.key("ActiveCollectors").value(e.getValue().activeCollectors);
+                    writer.key("QueueDepth").value(e.getValue().queueDepth);
+                    writer.key("RejectedCollects").value(e.getValue().rejectedCollects);
+                    writer.key("Latency");
+                    writeStatistics(writer, timers.get(e.getKey()).getCollectStatistics());
+                    //The latency of each host and probe is only given on request, it can be big
+                    if(details) {
+                        writer.key("HostsLatency");
+                        writer.object();
+                        for(HostStarter host: timers.get(e.getKey()).getAllHosts()) {
+                            writer.key(host.getName());
+                            writeStatistics(writer, host.getCollectStatistics());
+                        }
+                        writer.endObject();
+                        writer.key("ProbesLatency");
+                        writer.object();
+                        for(HostStarter host: timers.get(e.getKey()).getAllHosts()) {
+                            for(Probe<?,?> p: host.getAllProbes()) {
+                                writer.key(p.getQualifiedName());
+                                writeStatistics(writer, p.getCollectStatistics());
+                            }
+                        }
+                        writer.endObject();
+                    }
+                    writer.key("OpenCircuits");
+                    writer.object();
+                    for(Map.Entry<String, CircuitBreaker> circuit: circuits.get(e.getKey()).entrySet()) {
+                        writer.key(circuit.getKey()).value(circuit.getValue().getFailures());
+                    }
+                    writer.endObject();
+                    writer.key("SlowestHosts");
+                    writer.object();
+                    int count = 0;
+                    for(Map.Entry<String, Long> cost: costs.get(e.getKey()).entrySet()) {
+                        if(count++ >= SLOWESTHOSTS)
+                            break;
+                        writer.key(cost.getKey()).value(cost.getValue());
+                    }
+                    writer.endObject();
                     writer.endObject();            
                 }
                 writer.endArray();
+                SampleWriter sampleWriter = hl.getSampleWriter();
+                if(sampleWriter != null) {
+                    writer.key("Writer");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: sampleWriter.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.key("Latency");
+                    writeStatistics(writer, sampleWriter.getWriteStatistics());
+                    writer.key("Lag");
+                    writeStatistics(writer, sampleWriter.getLagStatistics());
+                    writer.endObject();
+                }
+                StorePool pool = StoreOpener.getInstance();
+                if(pool != null) {
+                    writer.key("Stores");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: pool.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.key("SlowestStores");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: pool.getSlowestFiles(SLOWESTHOSTS).entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                    writer.endObject();
+                }
+                StoreChecker storeChecker = hl.getStoreChecker();
+                if(storeChecker != null) {
+                    writer.key("StoreChecker");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: storeChecker.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                StoreUpgrader storeUpgrader = hl.getStoreUpgrader();
+                if(storeUpgrader != null) {
+                    writer.key("Upgrades");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: storeUpgrader.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                Map<String, Long> containerStats = StoreOpener.getContainerStats();
+                if(containerStats != null) {
+                    writer.key("Containers");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: containerStats.entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                Renderer renderer = hl.getRenderer();
+                if(renderer != null) {
+                    writer.key("Renderer");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: renderer.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                RecentWindows recentWindows = StoreOpener.getRecentWindows();
+                if(recentWindows != null) {
+                    writer.key("RecentWindows");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: recentWindows.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
+                FetchCache fetchCache = StoreOpener.getFetchCache();
+                if(fetchCache != null) {
+                    writer.key("FetchCache");
+                    writer.object();
+                    for(Map.Entry<String, Long> e: fetchCache.getStats().entrySet()) {
+                        writer.key(e.getKey()).value(e.getValue());
+                    }
+                    writer.endObject();
+                }
                 writer.key("Generation").value(generation);
                 writer.endObject();
                 writer.flush();
@@ -87,8 +230,111 @@ public class Status extends JrdsServlet {
                 writer.println("Timer name: " + e.getKey());
                 writer.println("    Last collect: " + lastCollectAgo  + "s ago (" + lastCollectAgo + ")" );
                 writer.println("    Last running duration: " + e.getValue().runtime / 1000 + "s");
+                writer.println("    Collector threads: " + e.getValue().activeCollectors + "/" + e.getValue().collectorThreads + " active");
+                writer.println("    Queued collects: " + e.getValue().queueDepth);
+                writer.println("    Rejected collects: " + e.getValue().rejectedCollects);
+                CollectStatistics latency = timers.get(e.getKey()).getCollectStatistics();
+                writer.println("    Collects: " + latency.getCount(CollectStatistics.Outcome.SUCCESS) + " succeeded, "
+                        + latency.getCount(CollectStatistics.Outcome.FAILURE) + " failed, "
+                        + latency.getCount(CollectStatistics.Outcome.TIMEOUT) + " timed out");
+                writer.println("    Collect latency: p50 " + latency.getPercentile(50) + "ms, p95 " + latency.getPercentile(95)
+                        + "ms, p99 " + latency.getPercentile(99) + "ms, max " + latency.getMax() + "ms");
+                writer.println("    Open circuits: " + circuits.get(e.getKey()).size());
+                for(Map.Entry<String, CircuitBreaker> circuit: circuits.get(e.getKey()).entrySet()) {
+                    writer.println("        " + circuit.getKey() + ": " + circuit.getValue().getFailures() + " failures");
+                }
+                writer.println("    Slowest hosts:");
+                int count = 0;
+                for(Map.Entry<String, Long> cost: costs.get(e.getKey()).entrySet()) {
+                    if(count++ >= SLOWESTHOSTS)
+                        break;
+                    writer.println("        " + cost.getKey() + ": " + cost.getValue() + "ms");
+                }
+            }
+            SampleWriter sampleWriter = hl.getSampleWriter();
+            if(sampleWriter != null) {
+                Map<String, Long> writerStats = sampleWriter.getStats();
+                CollectStatistics latency = sampleWriter.getWriteStatistics();
+                writer.println("Sample writer:");
+                writer.println("    Queued samples: " + writerStats.get("depth"));
+                writer.println("    Samples: " + writerStats.get("written") + " written, " + writerStats.get("failed") + " failed, "
+                        + writerStats.get("dropped") + " dropped");
+                writer.println("    Write latency: p50 " + latency.getPercentile(50) + "ms, p95 " + latency.getPercentile(95)
+                        + "ms, p99 " + latency.getPercentile(99) + "ms, max " + latency.getMax() + "ms");
+                writer.println("    Queue lag: p95 " + sampleWriter.getLagStatistics().getPercentile(95) + "ms");
+            }
+            StorePool pool = StoreOpener.getInstance();
+            if(pool != null) {
+                Map<String, Long> poolStats = pool.getStats();
+                writer.println("Stores:");
+                writer.println("    Opened files: " + poolStats.get("openFiles") + "/" + poolStats.get("capacity"));
+                writer.println("    Opened size: " + poolStats.get("openBytes") / 1024 + "kB"
+                        + (poolStats.get("maxBytes") > 0 ? "/" + poolStats.get("maxBytes") / 1024 + "kB" : ""));
+                writer.println("    Requests: " + poolStats.get("requests") + ", " + poolStats.get("opens") + " opened, "
+                        + poolStats.get("evictions") + " evicted, " + poolStats.get("waits") + " waited for a free slot");
+                writer.println("    Wait time: " + poolStats.get("waitTime") + "ms");
+                writer.println("    Slowest stores:");
+                for(Map.Entry<String, Long> e: pool.getSlowestFiles(SLOWESTHOSTS).entrySet()) {
+                    writer.println("        " + e.getKey() + ": " + e.getValue() + "ms");
+                }
+            }
+            StoreChecker storeChecker = hl.getStoreChecker();
+            if(storeChecker != null) {
+                Map<String, Long> checkerStats = storeChecker.getStats();
+                writer.println("Store checks:");
+                writer.println("    Pending: " + checkerStats.get("pending") + "/" + checkerStats.get("submitted"));
+                writer.println("    Checks: " + checkerStats.get("checked") + " succeeded, " + checkerStats.get("failed") + " failed, "
+                        + checkerStats.get("fingerprintHits") + " unchanged, " + checkerStats.get("copied") + " copied from a template");
+            }
+            StoreUpgrader storeUpgrader = hl.getStoreUpgrader();
+            if(storeUpgrader != null) {
+                Map<String, Long> upgraderStats = storeUpgrader.getStats();
+                writer.println("Store upgrades: " + upgraderStats.get("upgraded") + " upgraded, " + upgraderStats.get("failed") + " failed, "
+                        + upgraderStats.get("bytes") / 1024 + "kB");
+            }
+            Map<String, Long> containerStats = StoreOpener.getContainerStats();
+            if(containerStats != null) {
+                writer.println("Store containers:");
+                writer.println("    Containers: " + containerStats.get("containers") + ", " + containerStats.get("stores") + " stores, "
+                        + containerStats.get("size") / 1024 + "kB, " + containerStats.get("loadedBytes") / 1024 + "kB in memory");
+                writer.println("    Commits: " + containerStats.get("commits") + ", " + containerStats.get("bytesWritten") / 1024 + "kB written");
+            }
+            Renderer renderer = hl.getRenderer();
+            if(renderer != null) {
+                Map<String, Long> rendererStats = renderer.getStats();
+                writer.println("Rendered graphs:");
+                writer.println("    Entries: " + rendererStats.get("entries") + ", " + rendererStats.get("bytes") / 1024 + "kB/"
+                        + rendererStats.get("maxBytes") / 1024 + "kB");
+                writer.println("    Requests: " + rendererStats.get("hits") + " hits, " + rendererStats.get("misses") + " misses, "
+                        + rendererStats.get("evictions") + " evicted, " + rendererStats.get("coalesced") + " shared with a running render, "
+                        + rendererStats.get("failures") + " failed");
+            }
+            RecentWindows recentWindows = StoreOpener.getRecentWindows();
+            if(recentWindows != null) {
+                Map<String, Long> windowStats = recentWindows.getStats();
+                writer.println("Recent windows:");
+                writer.println("    Windows: " + windowStats.get("windows") + ", " + windowStats.get("bytes") / 1024 + "kB/"
+                        + windowStats.get("maxBytes") / 1024 + "kB, " + windowStats.get("refused") + " refused");
+                writer.println("    Requests: " + windowStats.get("hits") + " hits, " + windowStats.get("misses") + " misses");
+            }
+            FetchCache fetchCache = StoreOpener.getFetchCache();
+            if(fetchCache != null) {
+                Map<String, Long> cacheStats = fetchCache.getStats();
+                writer.println("Fetch cache:");
+                writer.println("    Entries: " + cacheStats.get("entries") + ", " + cacheStats.get("bytes") / 1024 + "kB/"
+                        + cacheStats.get("maxBytes") / 1024 + "kB");
+                writer.println("    Requests: " + cacheStats.get("hits") + " hits, " + cacheStats.get("misses") + " misses, "
+                        + cacheStats.get("evictions") + " evicted, " + cacheStats.get("invalidations") + " invalidated");
             }
             writer.flush();			
         }
     }
+
+    private void writeStatistics(JrdsJSONWriter writer, CollectStatistics statistics) throws JSONException {
+        writer.object();
+        for(Map.Entry<String, Long> e: statistics.toMap().entrySet()) {
+            writer.key(e.getKey()).value(e.getValue());
+        }
+        writer.endObject();
+    }
 }